@@ -0,0 +1,86 @@
+package com.humio.rdns;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/** Writing one result row, the way {@link RdnsLookup} does for every address with a host name */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class CsvBenchmark {
+    private static final int ROWS = 4096;
+
+    @Param({"ipv4", "ipv6"})
+    public String family;
+
+    private final InetAddress[] addresses = new InetAddress[ROWS];
+    private final String[] hostNames = new String[ROWS];
+    private CSVPrinter printer;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        InetAddressRange range = InetAddressRange.parse(family.equals("ipv4") ? "10.0.0.0/20" : "2001:db8::/116");
+
+        int i = 0;
+        for (InetAddress address : range) {
+            addresses[i] = address;
+            hostNames[i] = "host-" + i + ".example.com";
+            i++;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void openPrinter() throws IOException {
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        printer = new CSVPrinter(new OutputStreamWriter(discard, StandardCharsets.UTF_8),
+                CSVFormat.DEFAULT.withHeader("ip", "hostname"));
+    }
+
+    @TearDown(Level.Iteration)
+    public void closePrinter() throws IOException {
+        printer.close();
+    }
+
+    @Benchmark
+    public void printRow() throws IOException {
+        int i = next++ & (ROWS - 1);
+        String hostAddress = addresses[i].getHostAddress();
+
+        if (!hostAddress.equals(hostNames[i])) {
+            printer.printRecord(hostAddress, hostNames[i]);
+        }
+    }
+}
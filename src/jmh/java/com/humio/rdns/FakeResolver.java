@@ -0,0 +1,66 @@
+package com.humio.rdns;
+
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process resolver that answers after a fixed latency, without any network. Which addresses fail is decided by a
+ * hash of the address rather than a random number, so every run fails the same lookups.
+ */
+class FakeResolver implements Resolver {
+    private final long latencyMicros;
+    private final long failureThreshold;
+    private final ScheduledExecutorService scheduler;
+
+    FakeResolver(long latencyMicros, double failureRate) {
+        this.latencyMicros = latencyMicros;
+        this.failureThreshold = (long) (failureRate * (1L << 32));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fake-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Resolution> resolve(InetAddress address) {
+        CompletableFuture<Resolution> result = new CompletableFuture<>();
+
+        if (latencyMicros == 0) {
+            complete(address, result);
+        } else {
+            scheduler.schedule(() -> complete(address, result), latencyMicros, TimeUnit.MICROSECONDS);
+        }
+
+        return result;
+    }
+
+    private void complete(InetAddress address, CompletableFuture<Resolution> result) {
+        byte[] bytes = address.getAddress();
+        long lo = InetAddressRange.lo(bytes);
+
+        if ((mix(InetAddressRange.hi(bytes) ^ lo) >>> 32) < failureThreshold) {
+            result.completeExceptionally(new SocketTimeoutException("No reply"));
+        } else if ((lo & 3) == 0) {
+            result.complete(Resolution.none(300));
+        } else {
+            result.complete(Resolution.of("host-" + Long.toHexString(lo) + ".example.com", 300));
+        }
+    }
+
+    /** Finalizer of SplitMix64, spreading the bits of consecutive addresses */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
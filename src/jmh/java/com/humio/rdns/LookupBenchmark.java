@@ -0,0 +1,76 @@
+package com.humio.rdns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups per second of the whole lookup path, from walking the ranges to writing CSV rows, against a
+ * {@link FakeResolver} with a fixed latency and failure rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+    private static final int ADDRESSES = 16384;
+
+    @Param({"0", "1000"})
+    public long latencyMicros;
+
+    @Param({"0.0", "0.1"})
+    public double failureRate;
+
+    @Param({"16", "1024"})
+    public int maxInFlight;
+
+    private List<InetAddressRange> ranges;
+    private FakeResolver resolver;
+
+    @Setup
+    public void setUp() {
+        ranges = Collections.singletonList(InetAddressRange.parse("10.0.0.0/18"));
+        resolver = new FakeResolver(latencyMicros, failureRate);
+    }
+
+    @TearDown
+    public void tearDown() {
+        resolver.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDRESSES)
+    public void lookUp() throws IOException {
+        RdnsLookup.lookUp(ranges, resolver, maxInFlight, new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        }, new Metrics());
+    }
+}
@@ -0,0 +1,38 @@
+package com.humio.rdns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Parsing of the range notations accepted on the command line and in range files */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    @Param({
+            "192.168.10.20",
+            "10.0.0.0/8",
+            "10.0.0.1-10.0.255.255",
+            "2001:db8:85a3::8a2e:370:7334",
+            "2001:db8::/32",
+            "::ffff:192.168.10.20",
+    })
+    public String range;
+
+    @Benchmark
+    public InetAddressRange parse() {
+        return InetAddressRange.parse(range);
+    }
+}
@@ -0,0 +1,70 @@
+package com.humio.rdns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/** Walking every address of IPv4 and IPv6 ranges of several sizes, with and without creating addresses */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class RangeBenchmark {
+    @Param({"ipv4", "ipv6"})
+    public String family;
+
+    @Param({"256", "65536", "1048576"})
+    public long size;
+
+    private InetAddressRange range;
+
+    @Setup
+    public void setUp() {
+        if (family.equals("ipv4")) {
+            long first = 0x0A000000L;
+            range = InetAddressRange.of(4, 0, first, 0, first + size - 1);
+        } else {
+            // Straddles a carry from the low to the high half of the address
+            long hi = 0x20010DB800000000L;
+            range = InetAddressRange.of(16, hi, -size / 2, hi + 1, size / 2 - 1);
+        }
+    }
+
+    @Benchmark
+    public long forEachAddress() {
+        long[] sum = new long[1];
+        range.forEachAddress((hi, lo) -> sum[0] += hi ^ lo);
+        return sum[0];
+    }
+
+    @Benchmark
+    public long cursor() {
+        long sum = 0;
+        InetAddressRange.Cursor cursor = range.cursor();
+        while (cursor.next()) {
+            sum += cursor.hi() ^ cursor.lo();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void iterator(Blackhole blackhole) {
+        for (InetAddress address : range) {
+            blackhole.consume(address);
+        }
+    }
+}
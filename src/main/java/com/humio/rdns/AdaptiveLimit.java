@@ -0,0 +1,110 @@
+package com.humio.rdns;
+
+/**
+ * Concurrency limit that adapts to the DNS server with additive increase and multiplicative decrease, like TCP
+ * congestion control. The limit grows by one for every lookup that completes in a healthy time, doubling every round
+ * trip until the first sign of congestion, and by one per round trip after that. It is halved on timeouts and server
+ * failures, and reduced slightly when the latency grows well beyond the lowest latency seen.
+ *
+ * <p>Only lookups started after the last decrease can cause another decrease, so a burst of failures caused by the
+ * same overload backs off once. Not thread safe.
+ */
+class AdaptiveLimit {
+    /** Factor the limit is multiplied by on timeouts and server failures */
+    static final double BACKOFF = 0.5;
+
+    /** Factor the limit is multiplied by when the latency grows */
+    static final double LATENCY_BACKOFF = 0.9;
+
+    /** How many times the lowest latency seen the smoothed latency may grow to before it counts as congestion */
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    /** Latency below which lookups are never considered slow, so answers from a local cache do not skew it */
+    static final long MIN_LATENCY_NANOS = 1_000_000;
+
+    /** Weight of a new sample in the smoothed latency */
+    private static final double SMOOTHING = 0.05;
+
+    private final boolean adaptive;
+    private final double min, max;
+    private double limit;
+    private boolean slowStart = true;
+    private long lastDecrease;
+    private long lowestLatency = Long.MAX_VALUE;
+    private double smoothedLatency;
+    private long decreases;
+
+    AdaptiveLimit(int initial, int max) {
+        this(initial, max, true);
+    }
+
+    private AdaptiveLimit(int initial, int max, boolean adaptive) {
+        if (initial < 1 || max < initial) {
+            throw new IllegalArgumentException("Limits must be positive, with the initial limit not above the max");
+        }
+
+        this.adaptive = adaptive;
+        this.min = 1;
+        this.max = max;
+        this.limit = initial;
+    }
+
+    /** Creates a limit that stays the same regardless of the lookups */
+    static AdaptiveLimit fixed(int limit) {
+        return new AdaptiveLimit(limit, limit, false);
+    }
+
+    /** Current number of lookups that may be in flight */
+    int get() {
+        return (int) limit;
+    }
+
+    /** Number of times the limit has been decreased */
+    long getDecreases() {
+        return decreases;
+    }
+
+    /** Records a lookup that was started at the given {@link System#nanoTime()} and got an answer at now */
+    void onSuccess(long startNanos, long nowNanos) {
+        if (!adaptive) {
+            return;
+        }
+
+        long latencyNanos = nowNanos - startNanos;
+        lowestLatency = Math.min(lowestLatency, latencyNanos);
+        smoothedLatency = smoothedLatency == 0
+                ? latencyNanos
+                : smoothedLatency + SMOOTHING * (latencyNanos - smoothedLatency);
+
+        if (smoothedLatency > LATENCY_TOLERANCE * Math.max(lowestLatency, MIN_LATENCY_NANOS)) {
+            decrease(startNanos, nowNanos, LATENCY_BACKOFF);
+        } else if (slowStart) {
+            limit = Math.min(max, limit + 1);
+        } else {
+            limit = Math.min(max, limit + 1 / limit);
+        }
+    }
+
+    /** Records a lookup that was started at the given time and timed out or got a server failure at now */
+    void onCongestion(long startNanos, long nowNanos) {
+        if (!adaptive) {
+            return;
+        }
+
+        decrease(startNanos, nowNanos, BACKOFF);
+    }
+
+    private void decrease(long startNanos, long nowNanos, double factor) {
+        if (decreases > 0 && startNanos - lastDecrease <= 0) {
+            return;
+        }
+
+        slowStart = false;
+        lastDecrease = nowNanos;
+        limit = Math.max(min, limit * factor);
+        decreases++;
+
+        // Measure the latency afresh at the new limit
+        smoothedLatency = 0;
+    }
+}
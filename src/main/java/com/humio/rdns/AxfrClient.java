@@ -0,0 +1,88 @@
+package com.humio.rdns;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Client for zone transfers (AXFR, RFC 5936) over TCP, where every message is preceded by its length in two bytes.
+ * A transfer starts with the SOA record of the zone and ends when it is repeated.
+ */
+class AxfrClient {
+    /** Size of a query for the longest possible name */
+    private static final int MAX_QUERY_SIZE = DnsMessage.HEADER_SIZE + 256 + 4;
+
+    private final InetSocketAddress server;
+    private final int timeoutMillis;
+
+    AxfrClient(InetSocketAddress server, int timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+
+        this.server = server;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Transfers the zone, passing every record to the consumer, including the SOA record at the start but not the one
+     * at the end. Fails with a {@link DnsException} if the server refuses the transfer, and with a
+     * {@link java.net.SocketTimeoutException} if the server does not send anything for the timeout.
+     */
+    void transfer(String zone, Consumer<DnsMessage.Record> records) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(server, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+
+            int id = ThreadLocalRandom.current().nextInt(1 << 16);
+            ByteBuffer query = ByteBuffer.allocate(MAX_QUERY_SIZE);
+            DnsMessage.writeQuery(query, id, zone, DnsMessage.TYPE_AXFR, false);
+            query.flip();
+
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeShort(query.remaining());
+            out.write(query.array(), 0, query.remaining());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] buffer = new byte[65535];
+            int soaRecords = 0;
+
+            while (true) {
+                int length = in.readUnsignedShort();
+                in.readFully(buffer, 0, length);
+                DnsMessage reply = DnsMessage.parse(ByteBuffer.wrap(buffer, 0, length));
+
+                if (reply.id != id || !reply.isResponse()) {
+                    throw new DnsException("Unexpected message in zone transfer of " + zone);
+                }
+                if (reply.rcode() != DnsMessage.RCODE_NOERROR) {
+                    throw new DnsException("Zone transfer of " + zone + " failed with response code " +
+                            reply.rcode(), reply.rcode());
+                }
+
+                for (DnsMessage.Record record : reply.answers) {
+                    if (soaRecords == 0 && record.type != DnsMessage.TYPE_SOA) {
+                        throw new DnsException("Zone transfer of " + zone + " did not start with its SOA record");
+                    }
+
+                    if (record.type == DnsMessage.TYPE_SOA && ++soaRecords == 2) {
+                        return;
+                    }
+
+                    records.accept(record);
+                }
+
+                if (reply.answers.isEmpty()) {
+                    throw new DnsException("Zone transfer of " + zone + " was empty");
+                }
+            }
+        }
+    }
+}
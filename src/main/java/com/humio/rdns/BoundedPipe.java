@@ -0,0 +1,155 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Bounded in-memory pipe between a thread writing to {@link #sink()} and a thread reading from {@link #source()}.
+ * Writers block while the buffer is full, so a slow reader slows down the writer instead of data piling up. Unlike
+ * {@link java.io.PipedInputStream}, a failure on the writing side is passed on to the reader.
+ */
+class BoundedPipe {
+    private final byte[] buffer;
+    private int readPosition, count;
+    private boolean sinkClosed, sourceClosed;
+    private Throwable failure;
+
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            BoundedPipe.this.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() {
+            closeSink();
+        }
+    };
+
+    private final InputStream source = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return BoundedPipe.this.read(bytes, offset, length);
+        }
+
+        @Override
+        public int available() {
+            synchronized (BoundedPipe.this) {
+                return count;
+            }
+        }
+
+        @Override
+        public void close() {
+            closeSource();
+        }
+    };
+
+    BoundedPipe(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.buffer = new byte[capacity];
+    }
+
+    OutputStream sink() {
+        return sink;
+    }
+
+    InputStream source() {
+        return source;
+    }
+
+    /** Makes the reader fail with the cause instead of reaching the end of the stream */
+    synchronized void fail(Throwable cause) {
+        failure = cause;
+        sinkClosed = true;
+        notifyAll();
+    }
+
+    private synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            while (count == buffer.length && !sourceClosed) {
+                await();
+            }
+
+            if (sourceClosed) {
+                throw new IOException("Pipe was closed by the reader");
+            }
+            if (sinkClosed) {
+                throw new IOException("Pipe is closed");
+            }
+
+            int writePosition = (readPosition + count) % buffer.length;
+            int chunk = Math.min(length, Math.min(buffer.length - count, buffer.length - writePosition));
+
+            System.arraycopy(bytes, offset, buffer, writePosition, chunk);
+            count += chunk;
+            offset += chunk;
+            length -= chunk;
+            notifyAll();
+        }
+    }
+
+    private synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        while (count == 0 && !sinkClosed && !sourceClosed) {
+            await();
+        }
+
+        if (sourceClosed) {
+            throw new IOException("Pipe is closed");
+        }
+        if (count == 0) {
+            if (failure != null) {
+                throw new IOException("Writing to pipe failed", failure);
+            }
+            return -1;
+        }
+
+        int chunk = Math.min(length, Math.min(count, buffer.length - readPosition));
+
+        System.arraycopy(buffer, readPosition, bytes, offset, chunk);
+        readPosition = (readPosition + chunk) % buffer.length;
+        count -= chunk;
+        notifyAll();
+
+        return chunk;
+    }
+
+    private synchronized void closeSink() {
+        sinkClosed = true;
+        notifyAll();
+    }
+
+    private synchronized void closeSource() {
+        sourceClosed = true;
+        notifyAll();
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for pipe");
+        }
+    }
+}
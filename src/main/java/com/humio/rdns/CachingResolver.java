@@ -0,0 +1,112 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Resolver that answers from a {@link ResolutionCache} where it has a fresh entry, and otherwise asks another resolver
+ * and stores its result. Failed lookups are not cached.
+ * <p>
+ * Results are stored on a thread of their own, since growing the cache copies it, and the lookups complete on the
+ * thread of the resolver, which for the nio resolver is the one thread that handles all queries. If the cache can not
+ * be written, such as when it is full, that is logged once and the lookups carry on without storing results.
+ */
+class CachingResolver implements Resolver {
+    private final Resolver resolver;
+    private final ResolutionCache cache;
+    private final LongSupplier clock;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rdns-cache-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean writable = true;
+
+    CachingResolver(Resolver resolver, ResolutionCache cache) {
+        this(resolver, cache, System::currentTimeMillis);
+    }
+
+    CachingResolver(Resolver resolver, ResolutionCache cache, LongSupplier clock) {
+        this.resolver = resolver;
+        this.cache = cache;
+        this.clock = clock;
+    }
+
+    @Override
+    public CompletableFuture<Resolution> resolve(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        long hi = InetAddressRange.hi(bytes);
+        long lo = InetAddressRange.lo(bytes);
+
+        Resolution cached = cache.get(bytes.length, hi, lo, clock.getAsLong());
+        if (cached != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        misses.incrementAndGet();
+
+        // Queued before the result is handed over, so it is stored even if the resolver is closed right after
+        return resolver.resolve(address).thenApply(resolution -> {
+            if (writable) {
+                try {
+                    writer.execute(() -> store(bytes.length, hi, lo, resolution));
+                } catch (RejectedExecutionException e) {
+                    // Completed after the resolver was closed
+                }
+            }
+            return resolution;
+        });
+    }
+
+    private void store(int size, long hi, long lo, Resolution resolution) {
+        if (!writable) {
+            return;
+        }
+
+        try {
+            cache.put(size, hi, lo, resolution, clock.getAsLong());
+        } catch (IOException | RuntimeException e) {
+            writable = false;
+            System.err.println("Not storing further lookups in the cache: " + e.getMessage());
+        }
+    }
+
+    /** Number of lookups answered from the cache */
+    long getHits() {
+        return hits.get();
+    }
+
+    /** Number of lookups passed on to the resolver */
+    long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            resolver.close();
+        } finally {
+            // The results of the lookups that completed are stored before the cache is closed
+            writer.shutdown();
+            try {
+                writer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while storing lookups in the cache");
+            } finally {
+                cache.close();
+            }
+        }
+    }
+}
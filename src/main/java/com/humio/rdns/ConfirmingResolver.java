@@ -0,0 +1,114 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolver that confirms the host name of every address by looking up the addresses of the name, and only keeps names
+ * that resolve back to the address, like {@link InetAddress#getCanonicalHostName()}. Only the addresses of the family
+ * of the address are looked up, and names shared by many addresses are looked up once: lookups of the same name share
+ * the query in flight, and the addresses of recently looked up names are kept for the lifetime of the resolver.
+ */
+class ConfirmingResolver implements Resolver {
+    /** Number of names whose addresses are kept, which is plenty for names shared by a block of addresses */
+    private static final int MAX_CACHED_NAMES = 1 << 16;
+
+    private final NioResolver resolver;
+    private final AtomicLong forwardQueries = new AtomicLong();
+    private final AtomicLong unconfirmed = new AtomicLong();
+
+    /** Addresses of names by family and lower case name, completed or in flight, least recently used first */
+    private final Map<String, CompletableFuture<Set<InetAddress>>> forwards =
+            new LinkedHashMap<String, CompletableFuture<Set<InetAddress>>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Set<InetAddress>>> eldest) {
+                    return size() > MAX_CACHED_NAMES;
+                }
+            };
+
+    ConfirmingResolver(NioResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public CompletableFuture<Resolution> resolve(InetAddress address) {
+        return resolver.resolve(address).thenCompose(resolution -> {
+            if (resolution.hostName == null) {
+                return CompletableFuture.completedFuture(resolution);
+            }
+
+            int type = address.getAddress().length == 4 ? DnsMessage.TYPE_A : DnsMessage.TYPE_AAAA;
+            return addresses(resolution.hostName, type).thenApply(addresses -> {
+                if (addresses.contains(address)) {
+                    return resolution;
+                }
+                unconfirmed.incrementAndGet();
+                return Resolution.none(resolution.ttl);
+            });
+        });
+    }
+
+    /** Number of queries for the addresses of names */
+    long getForwardQueries() {
+        return forwardQueries.get();
+    }
+
+    /** Number of host names that did not resolve back to their address */
+    long getUnconfirmed() {
+        return unconfirmed.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        resolver.close();
+    }
+
+    private CompletableFuture<Set<InetAddress>> addresses(String hostName, int type) {
+        String key = type + " " + hostName.toLowerCase(Locale.ROOT);
+        CompletableFuture<Set<InetAddress>> future;
+        boolean query = false;
+
+        synchronized (forwards) {
+            future = forwards.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                forwards.put(key, future);
+                query = true;
+            }
+        }
+
+        if (query) {
+            forwardQueries.incrementAndGet();
+            CompletableFuture<Set<InetAddress>> result = future;
+
+            resolver.query(hostName, type).whenComplete((reply, e) -> {
+                if (e != null) {
+                    // Not kept, so the name is looked up again for the next address
+                    synchronized (forwards) {
+                        forwards.remove(key, result);
+                    }
+                    result.completeExceptionally(e);
+                    return;
+                }
+
+                // The server follows CNAME records, and includes the addresses of the name they lead to
+                Set<InetAddress> addresses = new HashSet<>();
+                for (DnsMessage.Record record : reply.answers) {
+                    if (record.type == type) {
+                        addresses.add((InetAddress) record.data);
+                    }
+                }
+                result.complete(addresses);
+            });
+        }
+
+        return future;
+    }
+}
@@ -0,0 +1,22 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+
+/** A DNS query failed, either because the server returned an error or because its reply could not be parsed */
+class DnsException extends IOException {
+    /** Response code of the reply, or -1 if there was no valid reply */
+    private final int rcode;
+
+    DnsException(String message) {
+        this(message, -1);
+    }
+
+    DnsException(String message, int rcode) {
+        super(message);
+        this.rcode = rcode;
+    }
+
+    int getRcode() {
+        return rcode;
+    }
+}
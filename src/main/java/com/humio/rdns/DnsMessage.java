@@ -0,0 +1,344 @@
+package com.humio.rdns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Minimal DNS wire format (RFC 1035) support: writing queries and parsing the records of replies */
+class DnsMessage {
+    static final int TYPE_A = 1;
+    static final int TYPE_NS = 2;
+    static final int TYPE_CNAME = 5;
+    static final int TYPE_SOA = 6;
+    static final int TYPE_PTR = 12;
+    static final int TYPE_AAAA = 28;
+    static final int TYPE_AXFR = 252;
+
+    static final int CLASS_IN = 1;
+
+    static final int RCODE_NOERROR = 0;
+    static final int RCODE_FORMERR = 1;
+    static final int RCODE_SERVFAIL = 2;
+    static final int RCODE_NXDOMAIN = 3;
+    static final int RCODE_NOTIMP = 4;
+    static final int RCODE_REFUSED = 5;
+    static final int RCODE_NOTAUTH = 9;
+
+    static final int FLAG_RESPONSE = 0x8000;
+    static final int FLAG_TRUNCATED = 0x0200;
+    static final int FLAG_RECURSION_DESIRED = 0x0100;
+
+    static final int HEADER_SIZE = 12;
+    static final int MAX_UDP_SIZE = 512;
+
+    /** Maximum number of CNAME records followed when looking for an answer */
+    private static final int MAX_CHAIN = 8;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    final int id;
+    final int flags;
+    final String questionName;
+    final int questionType;
+    final List<Record> answers;
+    final List<Record> authorities;
+
+    private DnsMessage(int id, int flags, String questionName, int questionType,
+                       List<Record> answers, List<Record> authorities) {
+        this.id = id;
+        this.flags = flags;
+        this.questionName = questionName;
+        this.questionType = questionType;
+        this.answers = answers;
+        this.authorities = authorities;
+    }
+
+    int rcode() {
+        return flags & 0xF;
+    }
+
+    boolean isResponse() {
+        return (flags & FLAG_RESPONSE) != 0;
+    }
+
+    boolean isTruncated() {
+        return (flags & FLAG_TRUNCATED) != 0;
+    }
+
+    /**
+     * Finds the answer of the given type for the question, following CNAME records such as those used for classless
+     * in-addr.arpa delegation (RFC 2317). Returns null if there is none.
+     */
+    Record answer(int type) {
+        String name = questionName;
+
+        for (int i = 0; i < MAX_CHAIN; i++) {
+            Record cname = null;
+
+            for (Record record : answers) {
+                if (record.name.equalsIgnoreCase(name)) {
+                    if (record.type == type) {
+                        return record;
+                    } else if (record.type == TYPE_CNAME) {
+                        cname = record;
+                    }
+                }
+            }
+
+            if (cname == null) {
+                return null;
+            }
+            name = (String) cname.data;
+        }
+
+        return null;
+    }
+
+    /**
+     * Seconds a reply without an answer may be cached, the lower of the TTL and the MINIMUM field of the SOA record in
+     * the authority section as in RFC 2308 section 5, or {@link Resolution#UNKNOWN_TTL} if there is none
+     */
+    long negativeTtl() {
+        for (Record record : authorities) {
+            if (record.type == TYPE_SOA) {
+                return record.data instanceof Soa ? Math.min(record.ttl, ((Soa) record.data).minimum) : record.ttl;
+            }
+        }
+        return Resolution.UNKNOWN_TTL;
+    }
+
+    /** Writes a query with a single question to the buffer, which must have room for it */
+    static void writeQuery(ByteBuffer buffer, int id, String name, int type, boolean recursionDesired) {
+        buffer.putShort((short) id);
+        buffer.putShort((short) (recursionDesired ? FLAG_RECURSION_DESIRED : 0));
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        writeName(buffer, name);
+        buffer.putShort((short) type);
+        buffer.putShort((short) CLASS_IN);
+    }
+
+    static void writeName(ByteBuffer buffer, String name) {
+        int start = 0;
+        int length = name.endsWith(".") ? name.length() - 1 : name.length();
+
+        while (start < length) {
+            int end = name.indexOf('.', start);
+            if (end == -1 || end > length) {
+                end = length;
+            }
+
+            byte[] label = name.substring(start, end).getBytes(StandardCharsets.US_ASCII);
+            if (label.length == 0 || label.length > 63) {
+                throw new IllegalArgumentException("Invalid label in DNS name '" + name + "'");
+            }
+
+            buffer.put((byte) label.length);
+            buffer.put(label);
+            start = end + 1;
+        }
+
+        buffer.put((byte) 0);
+    }
+
+    /** Returns the name of the PTR record for the address in in-addr.arpa or ip6.arpa */
+    static String reverseName(byte[] address) {
+        return reverseName(address, address.length * 8);
+    }
+
+    /**
+     * Returns the name of the reverse zone of the subnet with the given number of prefix bits, which must be a
+     * multiple of 8 for IPv4 and of 4 for IPv6. The remaining bits of the address are ignored.
+     */
+    static String reverseName(byte[] address, int bits) {
+        StringBuilder builder = new StringBuilder(address.length == 4 ? 29 : 73);
+
+        if (address.length == 4) {
+            for (int i = bits / 8 - 1; i >= 0; i--) {
+                builder.append(address[i] & 0xFF).append('.');
+            }
+            return builder.append("in-addr.arpa").toString();
+        } else {
+            for (int nibble = bits / 4 - 1; nibble >= 0; nibble--) {
+                int shift = nibble % 2 == 0 ? 4 : 0;
+                builder.append(HEX[(address[nibble / 2] >> shift) & 0xF]).append('.');
+            }
+            return builder.append("ip6.arpa").toString();
+        }
+    }
+
+    /** Reads the id of a message without parsing the rest of it, or -1 if it is too short */
+    static int peekId(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return -1;
+        }
+        return buffer.getShort(buffer.position()) & 0xFFFF;
+    }
+
+    /** Parses a complete message, with the buffer positioned at its start */
+    static DnsMessage parse(ByteBuffer buffer) throws DnsException {
+        try {
+            int start = buffer.position();
+            int id = buffer.getShort() & 0xFFFF;
+            int flags = buffer.getShort() & 0xFFFF;
+            int questions = buffer.getShort() & 0xFFFF;
+            int answerCount = buffer.getShort() & 0xFFFF;
+            int authorityCount = buffer.getShort() & 0xFFFF;
+            buffer.getShort(); // Additional records are not used
+
+            String questionName = null;
+            int questionType = 0;
+
+            for (int i = 0; i < questions; i++) {
+                String name = readName(buffer, start);
+                int type = buffer.getShort() & 0xFFFF;
+                buffer.getShort();
+
+                if (i == 0) {
+                    questionName = name;
+                    questionType = type;
+                }
+            }
+
+            List<Record> answers = readRecords(buffer, start, answerCount);
+            List<Record> authorities = readRecords(buffer, start, authorityCount);
+
+            return new DnsMessage(id, flags, questionName, questionType, answers, authorities);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new DnsException("Malformed DNS message");
+        }
+    }
+
+    private static List<Record> readRecords(ByteBuffer buffer, int start, int count) throws DnsException {
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Record> records = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            String name = readName(buffer, start);
+            int type = buffer.getShort() & 0xFFFF;
+            int recordClass = buffer.getShort() & 0xFFFF;
+            long ttl = buffer.getInt() & 0xFFFFFFFFL;
+            int length = buffer.getShort() & 0xFFFF;
+            int end = buffer.position() + length;
+
+            if (end > buffer.limit()) {
+                throw new DnsException("Malformed DNS message");
+            }
+
+            Object data = null;
+
+            if (recordClass == CLASS_IN) {
+                switch (type) {
+                    case TYPE_PTR:
+                    case TYPE_CNAME:
+                    case TYPE_NS:
+                        data = readName(buffer, start);
+                        break;
+                    case TYPE_SOA:
+                        String primaryNameServer = readName(buffer, start);
+                        readName(buffer, start);
+                        // Serial, refresh, retry and expire come before the minimum
+                        if (buffer.position() + 5 * 4 > end) {
+                            throw new DnsException("Malformed SOA record");
+                        }
+                        buffer.position(buffer.position() + 4 * 4);
+                        data = new Soa(primaryNameServer, buffer.getInt() & 0xFFFFFFFFL);
+                        break;
+                    case TYPE_A:
+                    case TYPE_AAAA:
+                        byte[] address = new byte[length];
+                        buffer.get(address);
+                        try {
+                            data = InetAddress.getByAddress(address);
+                        } catch (UnknownHostException e) {
+                            throw new DnsException("Malformed address record");
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            buffer.position(end);
+            records.add(new Record(name, type, ttl, data));
+        }
+
+        return records;
+    }
+
+    private static String readName(ByteBuffer buffer, int start) throws DnsException {
+        StringBuilder builder = new StringBuilder();
+        int position = buffer.position();
+        int resume = -1;
+        int jumps = 0;
+
+        while (true) {
+            int length = buffer.get(position) & 0xFF;
+
+            if ((length & 0xC0) == 0xC0) {
+                if (++jumps > 64) {
+                    throw new DnsException("Compression loop in DNS name");
+                }
+                if (resume == -1) {
+                    resume = position + 2;
+                }
+                position = start + (((length & 0x3F) << 8) | (buffer.get(position + 1) & 0xFF));
+            } else if (length == 0) {
+                position++;
+                break;
+            } else if (length > 63) {
+                throw new DnsException("Unsupported label type in DNS name");
+            } else {
+                if (builder.length() > 0) {
+                    builder.append('.');
+                }
+                for (int i = 1; i <= length; i++) {
+                    builder.append((char) (buffer.get(position + i) & 0xFF));
+                }
+                position += length + 1;
+            }
+        }
+
+        buffer.position(resume == -1 ? position : resume);
+        return builder.toString();
+    }
+
+    /** Data of SOA records, of which only the primary name server and the MINIMUM field are kept */
+    static class Soa {
+        final String primaryNameServer;
+        final long minimum;
+
+        Soa(String primaryNameServer, long minimum) {
+            this.primaryNameServer = primaryNameServer;
+            this.minimum = minimum;
+        }
+    }
+
+    /**
+     * A resource record. The data is a String for name records, an InetAddress for address records and a {@link Soa}
+     * for SOA records.
+     */
+    static class Record {
+        final String name;
+        final int type;
+        final long ttl;
+        final Object data;
+
+        Record(String name, int type, long ttl, Object data) {
+            this.name = name;
+            this.type = type;
+            this.ttl = ttl;
+            this.data = data;
+        }
+    }
+}
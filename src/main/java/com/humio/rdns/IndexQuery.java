@@ -0,0 +1,85 @@
+package com.humio.rdns;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+/**
+ * Looks up addresses in an index written by a scan with "--index", without DNS or the lookup file. A command of its
+ * own rather than a subcommand of {@link RdnsLookup}, since it does not take the url, repo and filename of an upload.
+ */
+@Command(name = "rdns-lookup query", description = "Looks up the host names of addresses in an index written by a " +
+        "scan with \"--index\". The addresses are read from standard input, one per line, if none are given. Prints " +
+        "the addresses and their host names as CSV, with an empty host name for addresses that do not have one.")
+class IndexQuery implements Callable<Integer> {
+    @Parameters(index = "0", description = "The index file to look up in")
+    private Path index;
+
+    @Parameters(index = "1..*", arity = "0..*", description = "The IP addresses to look up")
+    private String[] addresses;
+
+    @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
+    private boolean usageHelpRequested;
+
+    @Override
+    public Integer call() throws IOException {
+        ResultIndex resultIndex;
+        try {
+            resultIndex = ResultIndex.open(index);
+        } catch (IOException e) {
+            System.err.println("Could not open index " + index + ": " + e.getMessage());
+            return -1;
+        }
+
+        Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader("ip", "hostname"));
+        boolean failed = false;
+
+        if (addresses != null && addresses.length > 0) {
+            for (String address : addresses) {
+                failed |= !query(resultIndex, address, printer);
+            }
+        } else {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (!line.trim().isEmpty()) {
+                    failed |= !query(resultIndex, line.trim(), printer);
+                }
+            }
+        }
+
+        printer.flush();
+        return failed ? -1 : 0;
+    }
+
+    private static boolean query(ResultIndex index, String address, CSVPrinter printer) throws IOException {
+        InetAddress inetAddress;
+        try {
+            // Parsed as a literal, so a host name is never resolved by mistake
+            InetAddressRange range = InetAddressRange.parse(address);
+            if (!range.getFirst().equals(range.getLast())) {
+                throw new IllegalArgumentException("Expected a single address");
+            }
+            inetAddress = range.getFirst();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error parsing address '" + address + "': " + e.getMessage());
+            return false;
+        }
+
+        String hostName = index.lookUp(inetAddress);
+        printer.printRecord(inetAddress.getHostAddress(), hostName != null ? hostName : "");
+        return true;
+    }
+}
@@ -3,60 +3,370 @@ package com.humio.rdns;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * An inclusive range of IPv4 or IPv6 addresses. Addresses are handled as unsigned 128-bit integers split into a high
+ * and a low long, with IPv4 addresses in the low 32 bits, so ranges can be walked without allocating. An
+ * {@link InetAddress} is only created when iterating the range as an {@link Iterable}.
+ */
+public class InetAddressRange implements Iterable<InetAddress> {
+    /** Orders ranges by their first address, with IPv4 ranges before IPv6 ranges */
+    static final Comparator<InetAddressRange> ORDER = (a, b) -> a.size != b.size
+            ? Integer.compare(a.size, b.size)
+            : compare(a.firstHi, a.firstLo, b.firstHi, b.firstLo);
+
+    private static final BigInteger TWO_TO_64 = BigInteger.ONE.shiftLeft(64);
 
-class InetAddressRange implements Iterable<InetAddress> {
     private final int size;
-    private final BigInteger begin, end;
+    private final long firstHi, firstLo, lastHi, lastLo;
 
-    private InetAddressRange(int size, BigInteger begin, BigInteger end) {
+    private InetAddressRange(int size, long firstHi, long firstLo, long lastHi, long lastLo) {
         this.size = size;
-        this.begin = begin;
-        this.end = end;
+        this.firstHi = firstHi;
+        this.firstLo = firstLo;
+        this.lastHi = lastHi;
+        this.lastLo = lastLo;
     }
 
-    private InetAddress toAddress(BigInteger integer) {
-        byte[] intBytes = integer.toByteArray();
-        byte[] addrBytes = new byte[size];
+    /** Size of the addresses in bytes, 4 for IPv4 and 16 for IPv6 */
+    int getAddressSize() {
+        return size;
+    }
 
-        // Copy the integer bytes, keeping in mind that:
-        // - intBytes contains a sign bit. This is always zero because it is positive, but means it may be 1 larger than
-        //   size.
-        // - intBytes may be smaller than the size as it doesn't pad zeros.
+    boolean isIpv4() {
+        return size == 4;
+    }
 
-        System.arraycopy(
-                intBytes,
-                Math.max(intBytes.length - size, 0),
-                addrBytes,
-                Math.max(size - intBytes.length, 0),
-                Math.min(size, intBytes.length));
+    long getFirstHi() {
+        return firstHi;
+    }
 
-        try {
-            return InetAddress.getByAddress(addrBytes);
-        } catch (UnknownHostException e) {
-            throw new RuntimeException("Size is of illegal length", e);
+    long getFirstLo() {
+        return firstLo;
+    }
+
+    long getLastHi() {
+        return lastHi;
+    }
+
+    long getLastLo() {
+        return lastLo;
+    }
+
+    InetAddress getFirst() {
+        return toAddress(size, firstHi, firstLo);
+    }
+
+    InetAddress getLast() {
+        return toAddress(size, lastHi, lastLo);
+    }
+
+    /** Number of addresses in the range, which for IPv6 may not fit in a long */
+    BigInteger size() {
+        BigInteger sizeHi = unsigned(lastHi - firstHi - (Long.compareUnsigned(lastLo, firstLo) < 0 ? 1 : 0));
+        BigInteger sizeLo = unsigned(lastLo - firstLo);
+        return sizeHi.multiply(TWO_TO_64).add(sizeLo).add(BigInteger.ONE);
+    }
+
+    /** Number of addresses in the range, or {@link Long#MAX_VALUE} if there are more than that */
+    long sizeSaturated() {
+        long sizeLo = lastLo - firstLo;
+        boolean borrow = Long.compareUnsigned(lastLo, firstLo) < 0;
+
+        if (lastHi - firstHi - (borrow ? 1 : 0) != 0 || sizeLo < 0 || sizeLo == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
         }
+        return sizeLo + 1;
+    }
+
+    boolean contains(long hi, long lo) {
+        return compare(hi, lo, firstHi, firstLo) >= 0 && compare(hi, lo, lastHi, lastLo) <= 0;
+    }
+
+    /** Returns the addresses that are in both this and the other range, or null if there are none */
+    InetAddressRange intersection(InetAddressRange other) {
+        if (size != other.size) {
+            return null;
+        }
+
+        boolean otherFirst = compare(other.firstHi, other.firstLo, firstHi, firstLo) > 0;
+        boolean otherLast = compare(other.lastHi, other.lastLo, lastHi, lastLo) < 0;
+        long fHi = otherFirst ? other.firstHi : firstHi, fLo = otherFirst ? other.firstLo : firstLo;
+        long lHi = otherLast ? other.lastHi : lastHi, lLo = otherLast ? other.lastLo : lastLo;
+
+        return compare(fHi, fLo, lHi, lLo) <= 0 ? new InetAddressRange(size, fHi, fLo, lHi, lLo) : null;
+    }
+
+    /** Returns the addresses from the one at the first offset to the one at the last offset, counting from zero */
+    InetAddressRange slice(BigInteger firstOffset, BigInteger lastOffset) {
+        if (firstOffset.signum() < 0 || firstOffset.compareTo(lastOffset) > 0 || lastOffset.compareTo(size()) >= 0) {
+            throw new IllegalArgumentException("Offsets " + firstOffset + " to " + lastOffset + " are not in " + this);
+        }
+
+        BigInteger first = unsigned(firstHi).multiply(TWO_TO_64).add(unsigned(firstLo));
+        BigInteger sliceFirst = first.add(firstOffset);
+        BigInteger sliceLast = first.add(lastOffset);
+
+        return new InetAddressRange(size, sliceFirst.shiftRight(64).longValue(), sliceFirst.longValue(),
+                sliceLast.shiftRight(64).longValue(), sliceLast.longValue());
+    }
+
+    /** Calls the visitor with every address in the range, in order, without allocating */
+    void forEachAddress(AddressVisitor visitor) {
+        long hi = firstHi, lo = firstLo;
+
+        while (true) {
+            visitor.visit(hi, lo);
+
+            if (hi == lastHi && lo == lastLo) {
+                return;
+            }
+
+            lo++;
+            if (lo == 0) {
+                hi++;
+            }
+        }
+    }
+
+    /** Returns a cursor positioned before the first address of the range */
+    Cursor cursor() {
+        return new Cursor();
     }
 
     @Override
     public Iterator<InetAddress> iterator() {
+        Cursor cursor = cursor();
+
         return new Iterator<InetAddress>() {
-            BigInteger current = begin;
+            boolean hasNext = cursor.next();
 
             @Override
             public boolean hasNext() {
-                return current.compareTo(end) < 0;
+                return hasNext;
             }
 
             @Override
             public InetAddress next() {
-                InetAddress address = toAddress(current);
-                current = current.add(BigInteger.ONE);
+                if (!hasNext) {
+                    throw new NoSuchElementException();
+                }
+
+                InetAddress address = cursor.toAddress();
+                hasNext = cursor.next();
                 return address;
             }
         };
     }
 
+    @Override
+    public String toString() {
+        return getFirst().getHostAddress() + "-" + getLast().getHostAddress();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof InetAddressRange)) {
+            return false;
+        }
+
+        InetAddressRange other = (InetAddressRange) o;
+        return size == other.size && firstHi == other.firstHi && firstLo == other.firstLo
+                && lastHi == other.lastHi && lastLo == other.lastLo;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(size, firstHi, firstLo, lastHi, lastLo);
+    }
+
+    /**
+     * Sorts the ranges by {@link #ORDER} and merges ranges that overlap or are adjacent, so every address is in
+     * exactly one of the returned ranges.
+     */
+    static List<InetAddressRange> normalize(Collection<InetAddressRange> ranges) {
+        List<InetAddressRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(ORDER);
+
+        List<InetAddressRange> normalized = new ArrayList<>();
+        InetAddressRange current = null;
+
+        for (InetAddressRange range : sorted) {
+            if (current != null && current.size == range.size && current.touches(range)) {
+                if (compare(range.lastHi, range.lastLo, current.lastHi, current.lastLo) > 0) {
+                    current = new InetAddressRange(current.size, current.firstHi, current.firstLo,
+                            range.lastHi, range.lastLo);
+                }
+            } else {
+                if (current != null) {
+                    normalized.add(current);
+                }
+                current = range;
+            }
+        }
+
+        if (current != null) {
+            normalized.add(current);
+        }
+
+        return normalized;
+    }
+
+    /** Whether the address is in one of the ranges, which must be normalized */
+    static boolean contains(List<InetAddressRange> normalized, int size, long hi, long lo) {
+        int low = 0, high = normalized.size() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            InetAddressRange range = normalized.get(middle);
+
+            int order = size != range.size
+                    ? Integer.compare(size, range.size)
+                    : compare(hi, lo, range.firstHi, range.firstLo);
+
+            if (order < 0) {
+                high = middle - 1;
+            } else if (range.size == size && compare(hi, lo, range.lastHi, range.lastLo) <= 0) {
+                return true;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        return false;
+    }
+
+    /** Returns the parts of the range that are not in the holes, which must be normalized */
+    static List<InetAddressRange> subtract(InetAddressRange range, List<InetAddressRange> holes) {
+        List<InetAddressRange> remaining = new ArrayList<>();
+        int size = range.getAddressSize();
+        long hi = range.getFirstHi(), lo = range.getFirstLo();
+
+        for (InetAddressRange hole : holes) {
+            InetAddressRange overlap = hole.intersection(range);
+            if (overlap == null) {
+                continue;
+            }
+
+            if (compare(overlap.getFirstHi(), overlap.getFirstLo(), hi, lo) > 0) {
+                long beforeLo = overlap.getFirstLo() - 1;
+                long beforeHi = overlap.getFirstLo() == 0 ? overlap.getFirstHi() - 1 : overlap.getFirstHi();
+                remaining.add(of(size, hi, lo, beforeHi, beforeLo));
+            }
+
+            if (compare(overlap.getLastHi(), overlap.getLastLo(),
+                    range.getLastHi(), range.getLastLo()) >= 0) {
+                return remaining;
+            }
+
+            lo = overlap.getLastLo() + 1;
+            hi = lo == 0 ? overlap.getLastHi() + 1 : overlap.getLastHi();
+        }
+
+        remaining.add(of(size, hi, lo, range.getLastHi(), range.getLastLo()));
+        return remaining;
+    }
+
+    /** Returns the parts of the ranges that are not in the holes, normalized. Both must be normalized. */
+    static List<InetAddressRange> subtract(List<InetAddressRange> ranges, List<InetAddressRange> holes) {
+        List<InetAddressRange> remaining = new ArrayList<>();
+        for (InetAddressRange range : ranges) {
+            remaining.addAll(subtract(range, holes));
+        }
+        return remaining;
+    }
+
+    /** Total number of addresses in the ranges, counting addresses in more than one range once for each */
+    static BigInteger totalSize(Collection<InetAddressRange> ranges) {
+        BigInteger total = BigInteger.ZERO;
+        for (InetAddressRange range : ranges) {
+            total = total.add(range.size());
+        }
+        return total;
+    }
+
+    /** Whether the range, which must not begin before this one, overlaps or directly follows this one */
+    private boolean touches(InetAddressRange next) {
+        long afterLastLo = lastLo + 1;
+        long afterLastHi = afterLastLo == 0 ? lastHi + 1 : lastHi;
+        boolean lastIsMax = afterLastHi == 0 && afterLastLo == 0;
+
+        return lastIsMax || compare(next.firstHi, next.firstLo, afterLastHi, afterLastLo) <= 0;
+    }
+
+    /** Compares two addresses as unsigned 128-bit integers */
+    static int compare(long hi1, long lo1, long hi2, long lo2) {
+        int compareHi = Long.compareUnsigned(hi1, hi2);
+        return compareHi != 0 ? compareHi : Long.compareUnsigned(lo1, lo2);
+    }
+
+    /** Writes the address to the first size bytes of the array, in network byte order */
+    static void toBytes(int size, long hi, long lo, byte[] bytes) {
+        for (int i = 0; i < size; i++) {
+            int shift = (size - 1 - i) * 8;
+            bytes[i] = (byte) (shift >= 64 ? hi >>> (shift - 64) : lo >>> shift);
+        }
+    }
+
+    static InetAddress toAddress(int size, long hi, long lo) {
+        byte[] bytes = new byte[size];
+        toBytes(size, hi, lo, bytes);
+
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            throw new RuntimeException("Size is of illegal length", e);
+        }
+    }
+
+    private static BigInteger unsigned(long value) {
+        BigInteger result = BigInteger.valueOf(value & Long.MAX_VALUE);
+        return value < 0 ? result.setBit(63) : result;
+    }
+
+    /** High 64 bits of the address as an unsigned 128-bit integer, which are always zero for IPv4 */
+    static long hi(byte[] bytes) {
+        long hi = 0;
+        for (int i = 0; i < bytes.length - 8; i++) {
+            hi = (hi << 8) | (bytes[i] & 0xFF);
+        }
+        return hi;
+    }
+
+    /** Low 64 bits of the address as an unsigned 128-bit integer */
+    static long lo(byte[] bytes) {
+        long lo = 0;
+        for (int i = Math.max(0, bytes.length - 8); i < bytes.length; i++) {
+            lo = (lo << 8) | (bytes[i] & 0xFF);
+        }
+        return lo;
+    }
+
+    /** Creates a range from its first and last address, given as unsigned 128-bit integers */
+    static InetAddressRange of(int size, long firstHi, long firstLo, long lastHi, long lastLo) {
+        if (size != 4 && size != 16) {
+            throw new IllegalArgumentException("Addresses must be 4 or 16 bytes");
+        }
+        if (compare(firstHi, firstLo, lastHi, lastLo) > 0) {
+            throw new IllegalArgumentException("Range begins after it ends");
+        }
+        if (size == 4 && (lastHi != 0 || (lastLo >>> 32) != 0)) {
+            throw new IllegalArgumentException("IPv4 address out of range");
+        }
+
+        return new InetAddressRange(size, firstHi, firstLo, lastHi, lastLo);
+    }
+
     public static InetAddressRange inclusive(InetAddress begin, InetAddress end) {
         byte[] beginBytes = begin.getAddress();
         byte[] endBytes = end.getAddress();
@@ -65,46 +375,87 @@ class InetAddressRange implements Iterable<InetAddress> {
             throw new IllegalArgumentException("Addresses have different sizes");
         }
 
-        return new InetAddressRange(
-                beginBytes.length,
-                new BigInteger(1, beginBytes),
-                new BigInteger(1, endBytes).add(BigInteger.ONE)
-        );
+        return of(beginBytes.length, hi(beginBytes), lo(beginBytes), hi(endBytes), lo(endBytes));
     }
 
     public static InetAddressRange cidr(InetAddress address, int bits) {
         byte[] addressBytes = address.getAddress();
+        return cidr(addressBytes.length, hi(addressBytes), lo(addressBytes), bits);
+    }
 
-        if (bits < 0 || bits > addressBytes.length * 8) {
+    /** Creates the CIDR subnet with the given number of prefix bits containing the address */
+    static InetAddressRange cidr(int size, long hi, long lo, int bits) {
+        if (bits < 0 || bits > size * 8) {
             throw new IllegalArgumentException("Bits in CIDR notation must be non-negative and not be larger than" +
                     " the IP address size");
         }
 
-        int freeBits = addressBytes.length * 8 - bits;
-        BigInteger addressInt = new BigInteger(1, addressBytes);
+        int freeBits = size * 8 - bits;
 
-        BigInteger begin = addressInt.shiftRight(freeBits).shiftLeft(freeBits);
-        BigInteger end = begin.add(BigInteger.ONE.shiftLeft(freeBits));
+        // Masks of the free bits in each half, taking care that Java only uses the lower 6 bits of shift distances
+        long freeLo = freeBits >= 64 ? -1L : (1L << freeBits) - 1;
+        long freeHi = freeBits <= 64 ? 0 : freeBits == 128 ? -1L : (1L << (freeBits - 64)) - 1;
 
-        return new InetAddressRange(addressBytes.length, begin, end);
+        return of(size, hi & ~freeHi, lo & ~freeLo, hi | freeHi, lo | freeLo);
     }
 
-    public static InetAddressRange parse(String range) throws UnknownHostException {
-        int cidr = range.lastIndexOf('/');
-        if (cidr != -1) {
-            return cidr(
-                    InetAddress.getByName(range.substring(0, cidr)),
-                    Integer.parseInt(range.substring(cidr + 1)));
+    /**
+     * Parses a single address, CIDR subnet or inclusive range of IP address literals. Host names are not accepted, so
+     * this never does DNS lookups.
+     */
+    public static InetAddressRange parse(String range) {
+        return RangeParser.parseRange(range);
+    }
+
+    /** Receives addresses as unsigned 128-bit integers, with IPv4 addresses in the low 32 bits */
+    interface AddressVisitor {
+        void visit(long hi, long lo);
+    }
+
+    /** Mutable position in the range, which can be moved through it without allocating */
+    class Cursor {
+        private long hi, lo;
+        private boolean started, done;
+
+        /** Moves to the next address, returning false if there are no more */
+        boolean next() {
+            if (done) {
+                return false;
+            }
+
+            if (!started) {
+                started = true;
+                hi = firstHi;
+                lo = firstLo;
+                return true;
+            }
+
+            if (hi == lastHi && lo == lastLo) {
+                done = true;
+                return false;
+            }
+
+            lo++;
+            if (lo == 0) {
+                hi++;
+            }
+            return true;
+        }
+
+        long hi() {
+            return hi;
+        }
+
+        long lo() {
+            return lo;
         }
 
-        int split = range.indexOf('-');
-        if (split != -1) {
-            return inclusive(
-                    InetAddress.getByName(range.substring(0, split)),
-                    InetAddress.getByName(range.substring(split + 1)));
+        void toBytes(byte[] bytes) {
+            InetAddressRange.toBytes(size, hi, lo, bytes);
         }
 
-        InetAddress address = InetAddress.getByName(range);
-        return inclusive(address, address);
+        InetAddress toAddress() {
+            return InetAddressRange.toAddress(size, hi, lo);
+        }
     }
 }
@@ -0,0 +1,102 @@
+package com.humio.rdns;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in microseconds, which can be recorded to concurrently without locking. Every power of two
+ * is split into four equally wide buckets, so quantiles are at most 25% too high, and the bucket bounds include every
+ * power of two so they can be exported as Prometheus buckets exactly.
+ */
+class LatencyHistogram {
+    /** Buckets up to 2^40 microseconds, about 12 days, where the last bucket also counts anything longer */
+    private static final int BUCKETS = 160;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Records a duration measured with {@link System#nanoTime()} */
+    void recordNanos(long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    void record(long micros) {
+        counts.incrementAndGet(Math.min(bucket(micros), BUCKETS - 1));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long previousMax;
+        while ((previousMax = max.get()) < micros && !max.compareAndSet(previousMax, micros)) {
+            // Retry until this is not the max or has been stored as the max
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    /** Sum of the durations in microseconds */
+    long getSum() {
+        return sum.get();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /** Returns the duration in microseconds that the given fraction of durations were shorter than or equal to */
+    long quantile(double quantile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i) - 1, max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /** Number of durations shorter than 2^power microseconds, with power between 0 and 40 */
+    long countBelowPowerOfTwo(int power) {
+        int end = power < 2 ? 1 << power : 4 * (power - 1);
+        long below = 0;
+
+        for (int i = 0; i < end; i++) {
+            below += counts.get(i);
+        }
+
+        return below;
+    }
+
+    private static int bucket(long micros) {
+        if (micros < 4) {
+            return (int) micros;
+        }
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+        int quarter = (int) (micros >>> (highestBit - 2)) & 3;
+        return 4 * (highestBit - 1) + quarter;
+    }
+
+    /** The exclusive upper bound of the bucket in microseconds */
+    private static long upperBound(int bucket) {
+        if (bucket < 4) {
+            return bucket + 1;
+        }
+
+        int highestBit = bucket / 4 + 1;
+        int quarter = bucket % 4;
+        return (long) (5 + quarter) << (highestBit - 2);
+    }
+}
@@ -0,0 +1,347 @@
+package com.humio.rdns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs lookups against a {@link Resolver} with a bounded number of lookups in flight, and hands the results over one
+ * at a time in the order the addresses were submitted, as they are asked for. Addresses that could not be resolved are
+ * handled as having no host name.
+ * <p>
+ * Lookups that complete before the lookups submitted earlier are held back in a reorder window, so a slow lookup does
+ * not keep the others from running. Once the window holds more than its limit, the lookups in it are spilled to disk
+ * as a run sorted by submission order, and the runs are merged back in order as the slow lookups complete, so memory
+ * stays bounded however long a lookup takes. Once there are more than {@link #MAX_RUNS} runs they are merged into one,
+ * so the number of open files is bounded too.
+ */
+class LookupEngine implements Closeable {
+    /** Number of completed lookups held back in memory by default, at about 150 bytes each */
+    static final int DEFAULT_REORDER_LIMIT = 1 << 16;
+    /** Number of runs spilled to disk, each with an open file, before they are merged into one */
+    static final int MAX_RUNS = 16;
+
+    private final Resolver resolver;
+    private final int maxInFlight;
+    private final int reorderLimit;
+    private final Path spillDirectory;
+
+    /** Lookups that completed, in the order they completed, which are added to by the threads of the resolver */
+    private final LinkedBlockingQueue<Lookup> completions = new LinkedBlockingQueue<>();
+    /** Completed lookups that wait for lookups submitted before them, by sequence number */
+    private final Map<Long, Lookup> window = new HashMap<>();
+    /** Runs of completed lookups spilled to disk, by the sequence number of their next lookup */
+    private final PriorityQueue<Run> runs = new PriorityQueue<>((a, b) -> Long.compare(a.sequence, b.sequence));
+    /** The completed lookup that is next in order, kept out of the window as most lookups complete in order */
+    private Lookup next;
+    private long submitted;
+    private long handled;
+    private int inFlight;
+    private int maxHeld;
+
+    LookupEngine(Resolver resolver, int maxInFlight) {
+        this(resolver, maxInFlight, DEFAULT_REORDER_LIMIT, null);
+    }
+
+    /** Creates an engine spilling to the given directory, or to the default temporary directory if null */
+    LookupEngine(Resolver resolver, int maxInFlight, int reorderLimit, Path spillDirectory) {
+        if (maxInFlight < 1 || reorderLimit < 1) {
+            throw new IllegalArgumentException("Number of lookups in flight and reorder limit must be positive");
+        }
+
+        this.resolver = resolver;
+        this.maxInFlight = maxInFlight;
+        this.reorderLimit = reorderLimit;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /** Starts a lookup of the address, first waiting for any lookup to complete if too many are in flight */
+    void submit(InetAddress address) throws IOException {
+        while (inFlight >= maxInFlight) {
+            complete(take());
+        }
+
+        Lookup lookup = new Lookup(submitted++, address, resolver.resolve(address));
+        inFlight++;
+
+        if (lookup.result.isDone()) {
+            // Already answered, such as from the cache, so it skips the queue
+            complete(lookup);
+        } else {
+            lookup.result.whenComplete((resolution, e) -> completions.add(lookup));
+        }
+    }
+
+    /**
+     * Hands the result that is next in order to the handler if its lookup has completed, without waiting. Returns
+     * false if it has not.
+     */
+    boolean poll(ResultHandler handler) throws IOException {
+        for (Lookup lookup; (lookup = completions.poll()) != null; ) {
+            complete(lookup);
+        }
+        return handleNext(handler);
+    }
+
+    /**
+     * Hands the result that is next in order to the handler, waiting for its lookup to complete. Returns false if all
+     * results have been handed over.
+     */
+    boolean next(ResultHandler handler) throws IOException {
+        while (!poll(handler)) {
+            if (inFlight == 0) {
+                return false;
+            }
+            complete(take());
+        }
+        return true;
+    }
+
+    /** Most completed lookups held in memory at once, in the window and at the heads of the runs */
+    int getMaxHeld() {
+        return maxHeld;
+    }
+
+    /** Deletes the runs spilled to disk that were not merged, if the lookups did not complete */
+    @Override
+    public void close() throws IOException {
+        while (!runs.isEmpty()) {
+            runs.remove().close();
+        }
+    }
+
+    private Lookup take() throws IOException {
+        try {
+            return completions.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for lookups");
+        }
+    }
+
+    /** Adds the completed lookup to the window, and spills the window if it has grown past its limit */
+    private void complete(Lookup lookup) throws IOException {
+        inFlight--;
+
+        try {
+            lookup.hostName = lookup.result.join().hostNameOr(lookup.address);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                lookup.hostName = lookup.address.getHostAddress();
+            } else {
+                // Thrown when its turn comes, so the results before it are still handled
+                lookup.failure = cause instanceof RuntimeException || cause instanceof Error ? cause : e;
+            }
+        }
+
+        if (lookup.sequence == handled) {
+            next = lookup;
+        } else {
+            window.put(lookup.sequence, lookup);
+        }
+        maxHeld = Math.max(maxHeld, window.size() + runs.size() + (next != null ? 1 : 0));
+
+        if (window.size() > reorderLimit) {
+            spill();
+        }
+    }
+
+    /** Hands the result that is next in order, from the window or the runs, to the handler if it has completed */
+    private boolean handleNext(ResultHandler handler) throws IOException {
+        Lookup lookup = next != null ? next : window.isEmpty() ? null : window.remove(handled);
+        if (lookup != null) {
+            next = null;
+            if (lookup.failure != null) {
+                throwFailure(lookup.failure);
+            }
+            handled++;
+            handler.accept(lookup.address, lookup.hostName);
+            return true;
+        }
+
+        Run run = runs.peek();
+        if (run == null || run.sequence != handled) {
+            return false;
+        }
+
+        runs.remove();
+        handled++;
+        InetAddress address = run.address;
+        String hostName = run.hostName;
+
+        if (run.next()) {
+            runs.add(run);
+        } else {
+            run.close();
+        }
+
+        handler.accept(address, hostName);
+        return true;
+    }
+
+    /**
+     * Writes the lookups in the window to disk as a run sorted by sequence number, except failures that can not be
+     * written, and merges the runs into one if there are too many
+     */
+    private void spill() throws IOException {
+        List<Lookup> lookups = new ArrayList<>(window.size());
+        for (Iterator<Lookup> i = window.values().iterator(); i.hasNext(); ) {
+            Lookup lookup = i.next();
+            if (lookup.failure == null) {
+                lookups.add(lookup);
+                i.remove();
+            }
+        }
+        if (lookups.isEmpty()) {
+            return;
+        }
+        lookups.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+
+        Run run = createRun();
+        try (DataOutputStream out = run.create()) {
+            for (Lookup lookup : lookups) {
+                run.write(out, lookup.sequence, lookup.address, lookup.hostName);
+            }
+        } catch (IOException | RuntimeException e) {
+            run.close();
+            throw e;
+        }
+        run.open();
+        runs.add(run);
+
+        if (runs.size() > MAX_RUNS) {
+            merge();
+        }
+    }
+
+    /** Merges all runs into a single run, in order of sequence number */
+    private void merge() throws IOException {
+        Run merged = createRun();
+        try (DataOutputStream out = merged.create()) {
+            while (!runs.isEmpty()) {
+                Run run = runs.remove();
+                merged.write(out, run.sequence, run.address, run.hostName);
+                if (run.next()) {
+                    runs.add(run);
+                } else {
+                    run.close();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            merged.close();
+            throw e;
+        }
+        merged.open();
+        runs.add(merged);
+    }
+
+    private Run createRun() throws IOException {
+        return new Run(spillDirectory != null
+                ? Files.createTempFile(spillDirectory, "rdns-reorder", ".run")
+                : Files.createTempFile("rdns-reorder", ".run"));
+    }
+
+    private static void throwFailure(Throwable failure) {
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw (RuntimeException) failure;
+    }
+
+    interface ResultHandler {
+        void accept(InetAddress address, String hostName) throws IOException;
+    }
+
+    private static class Lookup {
+        final long sequence;
+        final InetAddress address;
+        final CompletableFuture<Resolution> result;
+        String hostName;
+        Throwable failure;
+
+        Lookup(long sequence, InetAddress address, CompletableFuture<Resolution> result) {
+            this.sequence = sequence;
+            this.address = address;
+            this.result = result;
+        }
+    }
+
+    /**
+     * A run of completed lookups spilled to disk, read one lookup at a time. Lookups are written as the sequence number
+     * as long, the length of the address, the address, and the host name in modified UTF-8.
+     */
+    private static class Run implements Closeable {
+        final Path file;
+        int remaining;
+        DataInputStream in;
+        long sequence;
+        InetAddress address;
+        String hostName;
+
+        Run(Path file) {
+            this.file = file;
+        }
+
+        DataOutputStream create() throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        }
+
+        void write(DataOutputStream out, long sequence, InetAddress address, String hostName) throws IOException {
+            byte[] bytes = address.getAddress();
+            out.writeLong(sequence);
+            out.writeByte(bytes.length);
+            out.write(bytes);
+            out.writeUTF(hostName);
+            remaining++;
+        }
+
+        /** Opens the written run and reads its first lookup */
+        void open() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            next();
+        }
+
+        /** Reads the next lookup, returning false if there are no more */
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+
+            sequence = in.readLong();
+            byte[] bytes = new byte[in.readUnsignedByte()];
+            in.readFully(bytes);
+            address = InetAddress.getByAddress(bytes);
+            hostName = in.readUTF();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
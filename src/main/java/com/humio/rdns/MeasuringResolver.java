@@ -0,0 +1,52 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/** Resolver that records the latency and outcome of the lookups of another resolver in {@link Metrics} */
+class MeasuringResolver implements Resolver {
+    private final Resolver resolver;
+    private final Metrics metrics;
+
+    MeasuringResolver(Resolver resolver, Metrics metrics) {
+        this.resolver = resolver;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletableFuture<Resolution> resolve(InetAddress address) {
+        long start = System.nanoTime();
+
+        return resolver.resolve(address).whenComplete((resolution, e) -> {
+            metrics.lookupLatency.recordNanos(System.nanoTime() - start);
+
+            if (e == null) {
+                if (resolution.hostName != null) {
+                    metrics.recordResolved();
+                } else {
+                    metrics.recordNoHostName();
+                }
+            } else if (unwrap(e) instanceof SocketTimeoutException) {
+                metrics.recordTimedOut();
+            } else if (unwrap(e) instanceof UnknownHostException) {
+                // The system resolver can not tell an address without a host name from a failed lookup
+                metrics.recordNoHostName();
+            } else {
+                metrics.recordFailed();
+            }
+        });
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    @Override
+    public void close() throws IOException {
+        resolver.close();
+    }
+}
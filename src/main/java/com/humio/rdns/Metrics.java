@@ -0,0 +1,203 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters, latency histograms and phase timings of a run, which can be written as a Prometheus text file or as a JSON
+ * summary. Recording is safe from any thread.
+ */
+class Metrics {
+    /** Exported Prometheus buckets are the powers of two from 2^MIN_POWER to 2^MAX_POWER microseconds */
+    private static final int MIN_POWER = 4, MAX_POWER = 26;
+
+    /** Latency of lookups from being started until they complete, including retries */
+    final LatencyHistogram lookupLatency = new LatencyHistogram();
+
+    /** Time spent writing each result row, including waiting for a streaming upload */
+    final LatencyHistogram rowWriteLatency = new LatencyHistogram();
+
+    private final AtomicLong resolved = new AtomicLong();
+    private final AtomicLong noHostName = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+    private final AtomicLong transferred = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+    void recordResolved() {
+        resolved.incrementAndGet();
+    }
+
+    void recordNoHostName() {
+        noHostName.incrementAndGet();
+    }
+
+    void recordTimedOut() {
+        timedOut.incrementAndGet();
+    }
+
+    void recordFailed() {
+        failed.incrementAndGet();
+    }
+
+    void recordCached(long lookups) {
+        cached.addAndGet(lookups);
+    }
+
+    void recordTransferred(long lookups) {
+        transferred.addAndGet(lookups);
+    }
+
+    /** Records that the result of an address has been handled, whether or not it had a host name */
+    void recordCompleted() {
+        completed.incrementAndGet();
+    }
+
+    void recordRow(long nanos) {
+        rows.incrementAndGet();
+        rowWriteLatency.recordNanos(nanos);
+    }
+
+    long getResolved() {
+        return resolved.get();
+    }
+
+    long getNoHostName() {
+        return noHostName.get();
+    }
+
+    long getTimedOut() {
+        return timedOut.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    long getCompleted() {
+        return completed.get();
+    }
+
+    long getRows() {
+        return rows.get();
+    }
+
+    /** Starts timing a phase of the run, which is recorded when the returned timer is closed */
+    Timer time(String phase) {
+        long start = System.nanoTime();
+        return () -> recordPhase(phase, System.nanoTime() - start);
+    }
+
+    synchronized void recordPhase(String phase, long nanos) {
+        phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    /** One line summary of the lookups */
+    String summary() {
+        return String.format(Locale.ROOT, "%d with host name, %d without, %d timed out, %d failed, %d from the " +
+                        "cache and %d from zone transfers, lookup latency p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                resolved.get(), noHostName.get(), timedOut.get(), failed.get(), cached.get(),
+                transferred.get(), lookupLatency.quantile(0.5) / 1000.0, lookupLatency.quantile(0.99) / 1000.0,
+                lookupLatency.getMax() / 1000.0);
+    }
+
+    void writePrometheus(Writer out) throws IOException {
+        out.write("# HELP rdns_lookups_total Lookups by outcome\n");
+        out.write("# TYPE rdns_lookups_total counter\n");
+        writeOutcome(out, "resolved", resolved.get());
+        writeOutcome(out, "no_host_name", noHostName.get());
+        writeOutcome(out, "timed_out", timedOut.get());
+        writeOutcome(out, "failed", failed.get());
+        writeOutcome(out, "cached", cached.get());
+        writeOutcome(out, "transferred", transferred.get());
+
+        out.write("# HELP rdns_rows_total Rows written to the lookup file\n");
+        out.write("# TYPE rdns_rows_total counter\n");
+        out.write("rdns_rows_total " + rows.get() + "\n");
+
+        writeHistogram(out, "rdns_lookup_duration_seconds", "Time from starting a lookup until it completed",
+                lookupLatency);
+        writeHistogram(out, "rdns_row_write_duration_seconds", "Time spent writing a row", rowWriteLatency);
+
+        out.write("# HELP rdns_phase_duration_seconds Wall-clock time spent in each phase of the run\n");
+        out.write("# TYPE rdns_phase_duration_seconds gauge\n");
+        for (Map.Entry<String, Long> phase : phases().entrySet()) {
+            out.write("rdns_phase_duration_seconds{phase=\"" + phase.getKey() + "\"} " +
+                    seconds(TimeUnit.NANOSECONDS.toMicros(phase.getValue())) + "\n");
+        }
+    }
+
+    void writeJson(Writer out) throws IOException {
+        out.write("{\n");
+        out.write("  \"lookups\": {\"resolved\": " + resolved.get() + ", \"noHostName\": " + noHostName.get() +
+                ", \"timedOut\": " + timedOut.get() + ", \"failed\": " + failed.get() +
+                ", \"cached\": " + cached.get() + ", \"transferred\": " + transferred.get() + "},\n");
+        out.write("  \"rows\": " + rows.get() + ",\n");
+        out.write("  \"lookupLatencySeconds\": " + json(lookupLatency) + ",\n");
+        out.write("  \"rowWriteLatencySeconds\": " + json(rowWriteLatency) + ",\n");
+        out.write("  \"phaseSeconds\": {");
+
+        String separator = "";
+        for (Map.Entry<String, Long> phase : phases().entrySet()) {
+            out.write(separator + "\"" + phase.getKey() + "\": " +
+                    seconds(TimeUnit.NANOSECONDS.toMicros(phase.getValue())));
+            separator = ", ";
+        }
+
+        out.write("}\n");
+        out.write("}\n");
+    }
+
+    private synchronized Map<String, Long> phases() {
+        return new LinkedHashMap<>(phaseNanos);
+    }
+
+    private static void writeOutcome(Writer out, String outcome, long count) throws IOException {
+        out.write("rdns_lookups_total{outcome=\"" + outcome + "\"} " + count + "\n");
+    }
+
+    private static void writeHistogram(Writer out, String name, String help, LatencyHistogram histogram)
+            throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " histogram\n");
+
+        for (int power = MIN_POWER; power <= MAX_POWER; power++) {
+            out.write(name + "_bucket{le=\"" + seconds(1L << power) + "\"} " +
+                    histogram.countBelowPowerOfTwo(power) + "\n");
+        }
+
+        out.write(name + "_bucket{le=\"+Inf\"} " + histogram.getCount() + "\n");
+        out.write(name + "_sum " + seconds(histogram.getSum()) + "\n");
+        out.write(name + "_count " + histogram.getCount() + "\n");
+    }
+
+    private static String json(LatencyHistogram histogram) {
+        long count = histogram.getCount();
+
+        return "{\"count\": " + count +
+                ", \"mean\": " + seconds(count == 0 ? 0 : histogram.getSum() / count) +
+                ", \"p50\": " + seconds(histogram.quantile(0.5)) +
+                ", \"p90\": " + seconds(histogram.quantile(0.9)) +
+                ", \"p99\": " + seconds(histogram.quantile(0.99)) +
+                ", \"p999\": " + seconds(histogram.quantile(0.999)) +
+                ", \"max\": " + seconds(histogram.getMax()) + "}";
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1e6);
+    }
+
+    /** Times a phase until closed */
+    interface Timer extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
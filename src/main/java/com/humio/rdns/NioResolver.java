@@ -0,0 +1,637 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous DNS client that sends queries over a few non-blocking datagram channels from a single thread. Replies
+ * are matched to queries by id, and queries without a reply are retried a number of times before they time out.
+ * <p>
+ * With several servers, each query goes to the better of two servers picked at random, by their moving average of
+ * latency times their queries in flight, and retries go to another server. With hedging, a query that has not been
+ * answered within the 95th percentile latency of its server is also sent to another server, and the first reply wins.
+ */
+class NioResolver implements Resolver {
+    /** Maximum number of queries in flight on each channel, keeping ids easy to pick at random */
+    static final int MAX_IN_FLIGHT_PER_CHANNEL = 16384;
+
+    /** Socket receive buffer size requested for each channel, so bursts of replies are not dropped */
+    private static final int RECEIVE_BUFFER_SIZE = 1 << 20;
+
+    /** Weight of a new latency in the moving average of a server */
+    private static final double EWMA_WEIGHT = 0.1;
+
+    /** Nanoseconds over which the average latency of a server without replies decays, so it is tried again */
+    private static final double EWMA_DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /** Number of replies before a hedge delay is used, and between updates of the delay */
+    private static final int HEDGE_SAMPLES = 128;
+
+    private final Server[] servers;
+    private final boolean hedge;
+    private final long timeoutNanos;
+    private final int retries;
+    private final Selector selector;
+    private final Channel[] channels;
+    private final ConcurrentLinkedQueue<Query> submitted = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Query> backlog = new ArrayDeque<>();
+    private final ArrayDeque<Timeout> timeouts = new ArrayDeque<>();
+    /** Latency of the replies from all servers, for the hedge delay of servers that have answered few queries */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long hedgeDelayNanos;
+    private final PriorityQueue<Timeout> hedges = new PriorityQueue<>((a, b) -> Long.signum(a.deadline - b.deadline));
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(4096);
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile long hedged;
+    private volatile long hedgesAnswered;
+    private int nextChannel;
+
+    NioResolver(InetSocketAddress server, long timeoutMillis, int retries, int channels) throws IOException {
+        this(Collections.singletonList(server), false, timeoutMillis, retries, channels);
+    }
+
+    NioResolver(List<InetSocketAddress> servers, boolean hedge, long timeoutMillis, int retries, int channels)
+            throws IOException {
+        if (servers.isEmpty() || servers.size() > Long.SIZE) {
+            throw new IllegalArgumentException("Between 1 and " + Long.SIZE + " DNS servers are required");
+        }
+        for (InetSocketAddress server : servers) {
+            if (server.isUnresolved()) {
+                throw new IllegalArgumentException("Unresolved DNS server " + server);
+            }
+            if (server.getAddress().getClass() != servers.get(0).getAddress().getClass()) {
+                // The channels are of one address family
+                throw new IllegalArgumentException("DNS servers must all be IPv4 or all be IPv6");
+            }
+        }
+        if (new HashSet<>(servers).size() != servers.size()) {
+            // Replies are attributed to servers by their address
+            throw new IllegalArgumentException("DNS servers must not be given more than once");
+        }
+        if (hedge && servers.size() < 2) {
+            throw new IllegalArgumentException("Hedging requires at least two DNS servers");
+        }
+        if (timeoutMillis <= 0 || retries < 0 || channels < 1) {
+            throw new IllegalArgumentException("Timeout and number of channels must be positive and retries " +
+                    "must not be negative");
+        }
+
+        this.servers = new Server[servers.size()];
+        for (int i = 0; i < servers.size(); i++) {
+            this.servers[i] = new Server(servers.get(i), i);
+        }
+        this.hedge = hedge;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.retries = retries;
+        this.selector = Selector.open();
+        this.channels = new Channel[channels];
+
+        StandardProtocolFamily family = servers.get(0).getAddress().getAddress().length == 4
+                ? StandardProtocolFamily.INET
+                : StandardProtocolFamily.INET6;
+
+        try {
+            for (int i = 0; i < channels; i++) {
+                DatagramChannel channel = DatagramChannel.open(family);
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+                channel.bind(null);
+                this.channels[i] = new Channel(channel);
+                channel.register(selector, SelectionKey.OP_READ, this.channels[i]);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+
+        this.thread = new Thread(this::run, "rdns-nio-resolver");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** Number of channels needed for the given number of queries in flight */
+    static int channelsFor(int maxInFlight) {
+        return Math.max(1, (maxInFlight + MAX_IN_FLIGHT_PER_CHANNEL - 1) / MAX_IN_FLIGHT_PER_CHANNEL);
+    }
+
+    @Override
+    public CompletableFuture<Resolution> resolve(InetAddress address) {
+        return query(DnsMessage.reverseName(address.getAddress()), DnsMessage.TYPE_PTR).thenApply(reply -> {
+            DnsMessage.Record ptr = reply.answer(DnsMessage.TYPE_PTR);
+            return ptr != null
+                    ? Resolution.of((String) ptr.data, ptr.ttl)
+                    : Resolution.none(reply.negativeTtl());
+        });
+    }
+
+    /**
+     * Sends a query for the name and type. The returned future completes with the reply if the server answered with
+     * NOERROR or NXDOMAIN, and otherwise fails with a {@link DnsException}, or a {@link SocketTimeoutException} if
+     * there was no reply.
+     */
+    CompletableFuture<DnsMessage> query(String name, int type) {
+        Query query = new Query(name, type);
+
+        if (closed) {
+            query.future.completeExceptionally(new IOException("Resolver is closed"));
+        } else {
+            submitted.add(query);
+            selector.wakeup();
+        }
+
+        return query.future;
+    }
+
+    /** Number of queries that were also sent to another server, since their server was slow to answer */
+    long getHedged() {
+        return hedged;
+    }
+
+    /** Number of hedged queries that the other server answered first */
+    long getHedgesAnswered() {
+        return hedgesAnswered;
+    }
+
+    /** The number of queries sent to each server, and its moving average of latency */
+    String describeServers() {
+        StringBuilder description = new StringBuilder();
+        for (Server server : servers) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(server.address).append(" ").append(server.queries).append(" queries averaging ")
+                    .append(String.format(Locale.ROOT, "%.1f", server.ewmaNanos / 1e6)).append(" ms");
+        }
+        return description.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        IOException closedException = new IOException("Resolver is closed");
+        for (Channel channel : channels) {
+            for (Query query : channel.queries) {
+                if (query != null) {
+                    query.future.completeExceptionally(closedException);
+                }
+            }
+        }
+        for (Query query : backlog) {
+            query.future.completeExceptionally(closedException);
+        }
+        for (Query query; (query = submitted.poll()) != null; ) {
+            query.future.completeExceptionally(closedException);
+        }
+
+        closeChannels();
+    }
+
+    private void closeChannels() throws IOException {
+        for (Channel channel : channels) {
+            if (channel != null) {
+                channel.channel.close();
+            }
+        }
+        selector.close();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                for (Query query; (query = submitted.poll()) != null; ) {
+                    backlog.add(query);
+                }
+                startBacklog();
+
+                long now = System.nanoTime();
+                expire(now);
+                expireHedges(now);
+
+                Timeout next = timeouts.peek();
+                Timeout nextHedge = hedges.peek();
+                if (next == null || (nextHedge != null && nextHedge.deadline - next.deadline < 0)) {
+                    next = nextHedge;
+                }
+                long wait = next == null ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.deadline - now));
+                selector.select(wait);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    Channel channel = (Channel) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        receive(channel);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(channel, key);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            closed = true;
+            IOException failure = new IOException("DNS resolver failed", e);
+            for (Channel channel : channels) {
+                for (Query query : channel.queries) {
+                    if (query != null) {
+                        query.future.completeExceptionally(failure);
+                    }
+                }
+            }
+            for (Query query : backlog) {
+                query.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /** Starts as many queries waiting in the backlog as the channels have room for */
+    private void startBacklog() throws IOException {
+        while (!backlog.isEmpty()) {
+            Channel channel = null;
+
+            for (int i = 0; i < channels.length && channel == null; i++) {
+                Channel candidate = channels[(nextChannel + i) % channels.length];
+                if (candidate.inFlight < MAX_IN_FLIGHT_PER_CHANNEL) {
+                    channel = candidate;
+                }
+            }
+
+            if (channel == null) {
+                return;
+            }
+
+            nextChannel = (nextChannel + 1) % channels.length;
+            Query query = backlog.remove();
+
+            if (query.future.isDone()) {
+                continue;
+            }
+
+            int id;
+            do {
+                id = ThreadLocalRandom.current().nextInt(0x10000);
+            } while (channel.queries[id] != null);
+
+            channel.queries[id] = query;
+            channel.inFlight++;
+            query.channel = channel;
+            query.server = pick(null, System.nanoTime());
+            query.server.inFlight++;
+            query.id = id;
+            query.packet = ByteBuffer.allocate(DnsMessage.MAX_UDP_SIZE);
+            DnsMessage.writeQuery(query.packet, id, query.name, query.type, true);
+            query.packet.flip();
+
+            send(query);
+        }
+    }
+
+    private void send(Query query) throws IOException {
+        long now = System.nanoTime();
+        query.attempts++;
+        query.sentAt = now;
+        query.sentTo |= 1L << query.server.index;
+        query.server.queries++;
+        timeouts.add(new Timeout(query, query.attempts, now + timeoutNanos));
+
+        long delay = query.server.hedgeDelayNanos > 0 ? query.server.hedgeDelayNanos : hedgeDelayNanos;
+        if (hedge && query.attempts == 1 && delay > 0) {
+            hedges.add(new Timeout(query, 1, now + delay));
+        }
+
+        Channel channel = query.channel;
+        if (!channel.unsent.isEmpty()) {
+            channel.unsent.add(query);
+            return;
+        }
+
+        if (!trySend(query)) {
+            channel.unsent.add(query);
+            channel.channel.keyFor(selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /** Tries sending the query, returning false if the channel has no room for it right now */
+    private boolean trySend(Query query) {
+        return trySend(query, query.server);
+    }
+
+    private boolean trySend(Query query, Server server) {
+        query.packet.rewind();
+
+        try {
+            return query.channel.channel.send(query.packet, server.address) != 0;
+        } catch (IOException e) {
+            finish(query);
+            query.future.completeExceptionally(e);
+            return true;
+        }
+    }
+
+    private void flush(Channel channel, SelectionKey key) {
+        while (!channel.unsent.isEmpty()) {
+            Query query = channel.unsent.peek();
+            if (query.future.isDone()) {
+                channel.unsent.remove();
+            } else if (trySend(query)) {
+                channel.unsent.remove();
+            } else {
+                return;
+            }
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void receive(Channel channel) throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress from = channel.channel.receive(receiveBuffer);
+            if (from == null) {
+                return;
+            }
+            receiveBuffer.flip();
+
+            int id = DnsMessage.peekId(receiveBuffer);
+            if (id == -1) {
+                continue;
+            }
+
+            Query query = channel.queries[id];
+            Server server = serverAt(from);
+            if (query == null || server == null || (query.sentTo & (1L << server.index)) == 0) {
+                continue;
+            }
+
+            DnsMessage reply;
+            try {
+                reply = DnsMessage.parse(receiveBuffer);
+            } catch (DnsException e) {
+                // Could be garbage or spoofed, so wait for a proper reply or time out
+                continue;
+            }
+
+            if (!reply.isResponse() || reply.questionType != query.type
+                    || !query.name.equalsIgnoreCase(reply.questionName)) {
+                continue;
+            }
+
+            int rcode = reply.rcode();
+            long now = System.nanoTime();
+            if (rcode == DnsMessage.RCODE_NOERROR || rcode == DnsMessage.RCODE_NXDOMAIN) {
+                finish(query);
+                if (server == query.server) {
+                    replied(server, now - query.sentAt, now);
+                } else if (server == query.hedgedTo) {
+                    replied(server, now - query.hedgedAt, now);
+                    hedgesAnswered++;
+                }
+                query.future.complete(reply);
+            } else {
+                // A failing server is avoided like one that does not answer
+                sampled(server, timeoutNanos, now);
+                failed(query, server, rcode, now);
+            }
+        }
+    }
+
+    /**
+     * Handles a failure reply from a server. The query keeps waiting while a copy sent to another server may still be
+     * answered, and is otherwise retried on another server if it has retries left.
+     */
+    private void failed(Query query, Server server, int rcode, long now) throws IOException {
+        query.sentTo &= ~(1L << server.index);
+        if (query.sentTo != 0) {
+            return;
+        }
+
+        if (servers.length > 1 && query.attempts <= retries) {
+            Server next = pick(server, now);
+            query.server.inFlight--;
+            next.inFlight++;
+            query.server = next;
+            send(query);
+        } else {
+            finish(query);
+            query.future.completeExceptionally(
+                    new DnsException("DNS query for " + query.name + " failed with rcode " + rcode, rcode));
+        }
+    }
+
+    private void expire(long now) throws IOException {
+        while (!timeouts.isEmpty() && timeouts.peek().deadline - now <= 0) {
+            Timeout timeout = timeouts.remove();
+            Query query = timeout.query;
+
+            if (query.future.isDone() || query.attempts != timeout.attempt) {
+                continue;
+            }
+
+            sampled(query.server, timeoutNanos, now);
+
+            if (query.attempts <= retries) {
+                if (servers.length > 1) {
+                    Server next = pick(query.server, now);
+                    query.server.inFlight--;
+                    next.inFlight++;
+                    query.server = next;
+                }
+                send(query);
+            } else {
+                finish(query);
+                query.future.completeExceptionally(new SocketTimeoutException(
+                        "DNS query for " + query.name + " timed out after " + query.attempts + " attempts"));
+            }
+        }
+    }
+
+    /** Sends a query that has not been answered within the hedge delay of its server to another server */
+    private void expireHedges(long now) {
+        while (!hedges.isEmpty() && hedges.peek().deadline - now <= 0) {
+            Query query = hedges.remove().query;
+
+            // Retries already go to another server
+            if (query.future.isDone() || query.attempts != 1 || !query.channel.unsent.isEmpty()) {
+                continue;
+            }
+
+            Server other = pick(query.server, now);
+            if (trySend(query, other) && !query.future.isDone()) {
+                query.hedgedTo = other;
+                query.hedgedAt = now;
+                query.sentTo |= 1L << other.index;
+                other.inFlight++;
+                other.queries++;
+                hedged++;
+            }
+        }
+    }
+
+    /**
+     * Picks the better of two servers picked at random, other than the excluded one if there are others. Servers are
+     * compared by their moving average of latency, decayed while they do not answer so they are tried again, times
+     * the number of queries in flight to them.
+     */
+    private Server pick(Server excluded, long now) {
+        int candidates = excluded != null ? servers.length - 1 : servers.length;
+        if (candidates <= 1) {
+            return servers[0] != excluded || servers.length == 1 ? servers[0] : servers[1];
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Server a, b;
+        do {
+            a = servers[random.nextInt(servers.length)];
+        } while (a == excluded);
+        do {
+            b = servers[random.nextInt(servers.length)];
+        } while (b == excluded || b == a);
+
+        return a.cost(now) <= b.cost(now) ? a : b;
+    }
+
+    /** Records the latency of a reply, and updates the hedge delays every so many replies */
+    private void replied(Server server, long latencyNanos, long now) {
+        sampled(server, latencyNanos, now);
+
+        if (hedge) {
+            server.latencies.recordNanos(latencyNanos);
+            latencies.recordNanos(latencyNanos);
+
+            if (server.latencies.getCount() % HEDGE_SAMPLES == 0) {
+                server.hedgeDelayNanos = hedgeDelay(server.latencies);
+            }
+            if (latencies.getCount() % HEDGE_SAMPLES == 0) {
+                hedgeDelayNanos = hedgeDelay(latencies);
+            }
+        }
+    }
+
+    private static long hedgeDelay(LatencyHistogram latencies) {
+        return TimeUnit.MICROSECONDS.toNanos(Math.max(1, latencies.quantile(0.95)));
+    }
+
+    private static void sampled(Server server, long latencyNanos, long now) {
+        server.ewmaNanos += EWMA_WEIGHT * (latencyNanos - server.ewmaNanos);
+        server.sampledAt = now;
+    }
+
+    private Server serverAt(SocketAddress address) {
+        for (Server server : servers) {
+            if (server.address.equals(address)) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    /** Releases the id of the query so it can be reused */
+    private void finish(Query query) {
+        Channel channel = query.channel;
+        if (channel.queries[query.id] == query) {
+            channel.queries[query.id] = null;
+            channel.inFlight--;
+            query.server.inFlight--;
+            if (query.hedgedTo != null) {
+                query.hedgedTo.inFlight--;
+            }
+        }
+    }
+
+    /** A DNS server, with the statistics to pick it by, which are only updated by the resolver thread */
+    private static class Server {
+        final InetSocketAddress address;
+        final int index;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        volatile double ewmaNanos;
+        volatile long queries;
+        long sampledAt = System.nanoTime();
+        int inFlight;
+        /** Nanoseconds after which queries are hedged, or 0 until the server has answered enough queries */
+        long hedgeDelayNanos;
+
+        Server(InetSocketAddress address, int index) {
+            this.address = address;
+            this.index = index;
+        }
+
+        double cost(long now) {
+            return ewmaNanos * Math.exp((sampledAt - now) / EWMA_DECAY_NANOS) * (inFlight + 1);
+        }
+    }
+
+    private static class Channel {
+        final DatagramChannel channel;
+        final Query[] queries = new Query[0x10000];
+        final ArrayDeque<Query> unsent = new ArrayDeque<>();
+        int inFlight;
+
+        Channel(DatagramChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private static class Query {
+        final String name;
+        final int type;
+        final CompletableFuture<DnsMessage> future = new CompletableFuture<>();
+        Channel channel;
+        Server server;
+        Server hedgedTo;
+        /** Servers the query was sent to, by their bit, which are the only ones replies are accepted from */
+        long sentTo;
+        long sentAt;
+        long hedgedAt;
+        int id;
+        int attempts;
+        ByteBuffer packet;
+
+        Query(String name, int type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    /** Timeouts all have the same length, so they expire in the order they are added, unlike hedges */
+    private static class Timeout {
+        final Query query;
+        final int attempt;
+        final long deadline;
+
+        Timeout(Query query, int attempt, long deadline) {
+            this.query = query;
+            this.attempt = attempt;
+            this.deadline = deadline;
+        }
+    }
+}
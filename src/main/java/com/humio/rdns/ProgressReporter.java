@@ -0,0 +1,52 @@
+package com.humio.rdns;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Periodically prints how many addresses have been looked up, the throughput and the estimated time left */
+class ProgressReporter implements AutoCloseable {
+    private final Metrics metrics;
+    private final long total;
+    private final PrintStream out;
+    private final long start = System.nanoTime();
+    private final ScheduledExecutorService scheduler;
+
+    ProgressReporter(Metrics metrics, long total, long intervalSeconds, PrintStream out) {
+        this.metrics = metrics;
+        this.total = total;
+        this.out = out;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rdns-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void report() {
+        out.println(progress(metrics.getCompleted(), total, System.nanoTime() - start));
+    }
+
+    static String progress(long completed, long total, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        double rate = seconds > 0 ? completed / seconds : 0;
+        String eta = rate > 0 ? duration((long) ((total - completed) / rate)) : "unknown";
+
+        return String.format(Locale.ROOT, "Looked up %d of %d addresses (%.1f%%), %.0f lookups/s, ETA %s",
+                completed, total, total > 0 ? 100.0 * completed / total : 100.0, rate, eta);
+    }
+
+    /** Formats seconds as h:mm:ss */
+    private static String duration(long seconds) {
+        return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
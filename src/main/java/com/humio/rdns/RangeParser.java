@@ -0,0 +1,314 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Parses ranges of IP address literals, without ever doing DNS lookups. Works directly on ASCII bytes, so range files
+ * can be streamed through a small buffer instead of being decoded into lines of text first.
+ */
+class RangeParser {
+    static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final int[] groups = new int[8];
+
+    // The last parsed address
+    private int size;
+    private long hi, lo;
+
+    private RangeParser() {
+    }
+
+    /** Parses a single address, CIDR subnet or inclusive range, such as "192.168.0.0-192.168.0.10" */
+    static InetAddressRange parseRange(String range) {
+        byte[] bytes = range.getBytes(StandardCharsets.US_ASCII);
+        InetAddressRange parsed = new RangeParser().parseLine(bytes, 0, bytes.length);
+
+        if (parsed == null) {
+            throw new IllegalArgumentException("Empty range");
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a file with one range per line, passing each range to the consumer. Blank lines and everything after a
+     * '#' are ignored. Errors are reported as an {@link IllegalArgumentException} with the line number.
+     */
+    static void parseFile(Path path, Consumer<InetAddressRange> consumer) throws IOException {
+        parseFile(path, consumer, DEFAULT_BUFFER_SIZE);
+    }
+
+    static void parseFile(Path path, Consumer<InetAddressRange> consumer, int bufferSize) throws IOException {
+        RangeParser parser = new RangeParser();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        byte[] bytes = buffer.array();
+        long lineNumber = 0;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            boolean eof = false;
+
+            while (!eof) {
+                eof = channel.read(buffer) == -1;
+
+                int end = buffer.position();
+                int lineStart = 0;
+
+                for (int i = 0; i < end; i++) {
+                    if (bytes[i] == '\n') {
+                        parser.parseLine(bytes, lineStart, i, ++lineNumber, consumer);
+                        lineStart = i + 1;
+                    }
+                }
+
+                if (eof) {
+                    if (lineStart < end) {
+                        parser.parseLine(bytes, lineStart, end, ++lineNumber, consumer);
+                    }
+                } else if (lineStart == 0 && end == bytes.length) {
+                    throw new IllegalArgumentException("Line " + (lineNumber + 1) + ": Line is longer than " +
+                            bytes.length + " bytes");
+                } else {
+                    // Move the incomplete last line to the start of the buffer
+                    System.arraycopy(bytes, lineStart, bytes, 0, end - lineStart);
+                    buffer.position(end - lineStart);
+                }
+            }
+        }
+    }
+
+    private void parseLine(byte[] bytes, int from, int to, long lineNumber, Consumer<InetAddressRange> consumer) {
+        InetAddressRange range;
+
+        try {
+            range = parseLine(bytes, from, to);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+        }
+
+        if (range != null) {
+            consumer.accept(range);
+        }
+    }
+
+    /** Parses one line, returning null if it is blank or a comment */
+    private InetAddressRange parseLine(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '#') {
+                to = i;
+                break;
+            }
+        }
+
+        from = skipWhitespace(bytes, from, to);
+        to = trimWhitespace(bytes, from, to);
+
+        if (from == to) {
+            return null;
+        }
+
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '/') {
+                parseAddress(bytes, from, trimWhitespace(bytes, from, i));
+                int bits = parseDecimal(bytes, skipWhitespace(bytes, i + 1, to), to);
+                return InetAddressRange.cidr(size, hi, lo, bits);
+            }
+
+            if (bytes[i] == '-') {
+                parseAddress(bytes, from, trimWhitespace(bytes, from, i));
+                int firstSize = size;
+                long firstHi = hi, firstLo = lo;
+
+                parseAddress(bytes, skipWhitespace(bytes, i + 1, to), to);
+                if (firstSize != size) {
+                    throw new IllegalArgumentException("Addresses have different sizes");
+                }
+                return InetAddressRange.of(size, firstHi, firstLo, hi, lo);
+            }
+        }
+
+        parseAddress(bytes, from, to);
+        return InetAddressRange.of(size, hi, lo, hi, lo);
+    }
+
+    private void parseAddress(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == ':') {
+                parseIpv6(bytes, from, to);
+                return;
+            }
+        }
+
+        size = 4;
+        hi = 0;
+        lo = parseIpv4(bytes, from, to);
+    }
+
+    private static long parseIpv4(byte[] bytes, int from, int to) {
+        long value = 0;
+        int parts = 0;
+        int i = from;
+
+        while (true) {
+            int start = i;
+            int part = 0;
+
+            while (i < to && isDigit(bytes[i]) && i - start < 3) {
+                part = part * 10 + (bytes[i] - '0');
+                i++;
+            }
+
+            if (i == start || part > 255) {
+                throw invalid("IPv4 address", bytes, from, to);
+            }
+
+            value = (value << 8) | part;
+            parts++;
+
+            if (i == to) {
+                break;
+            }
+            if (bytes[i] != '.' || parts == 4) {
+                throw invalid("IPv4 address", bytes, from, to);
+            }
+            i++;
+        }
+
+        if (parts != 4) {
+            throw invalid("IPv4 address", bytes, from, to);
+        }
+        return value;
+    }
+
+    private void parseIpv6(byte[] bytes, int from, int to) {
+        int count = 0;
+        int gap = -1;
+        int i = from;
+
+        if (to - from >= 2 && bytes[from] == ':' && bytes[from + 1] == ':') {
+            gap = 0;
+            i += 2;
+        }
+
+        while (i < to) {
+            int start = i;
+            int value = 0;
+
+            while (i < to && hexValue(bytes[i]) != -1 && i - start < 4) {
+                value = (value << 4) | hexValue(bytes[i]);
+                i++;
+            }
+
+            if (i < to && bytes[i] == '.') {
+                // Embedded IPv4 address in the last 32 bits, such as "::ffff:192.168.0.1"
+                if (count > 6) {
+                    throw invalid("IPv6 address", bytes, from, to);
+                }
+                long ipv4 = parseIpv4(bytes, start, to);
+                groups[count++] = (int) (ipv4 >>> 16);
+                groups[count++] = (int) (ipv4 & 0xFFFF);
+                break;
+            }
+
+            if (i == start || count == 8) {
+                throw invalid("IPv6 address", bytes, from, to);
+            }
+
+            groups[count++] = value;
+
+            if (i == to) {
+                break;
+            }
+            if (bytes[i] != ':' || ++i == to) {
+                throw invalid("IPv6 address", bytes, from, to);
+            }
+
+            if (bytes[i] == ':') {
+                if (gap != -1) {
+                    throw invalid("IPv6 address", bytes, from, to);
+                }
+                gap = count;
+                i++;
+            }
+        }
+
+        if (gap == -1 ? count != 8 : count > 7) {
+            throw invalid("IPv6 address", bytes, from, to);
+        }
+
+        int zeros = 8 - count;
+        hi = 0;
+        lo = 0;
+
+        for (int group = 0, parsed = 0; group < 8; group++) {
+            long value = gap != -1 && group >= gap && group < gap + zeros ? 0 : groups[parsed++];
+
+            if (group < 4) {
+                hi = (hi << 16) | value;
+            } else {
+                lo = (lo << 16) | value;
+            }
+        }
+
+        size = 16;
+    }
+
+    private static int parseDecimal(byte[] bytes, int from, int to) {
+        int value = 0;
+
+        if (from == to || to - from > 3) {
+            throw invalid("prefix length", bytes, from, to);
+        }
+
+        for (int i = from; i < to; i++) {
+            if (!isDigit(bytes[i])) {
+                throw invalid("prefix length", bytes, from, to);
+            }
+            value = value * 10 + (bytes[i] - '0');
+        }
+
+        return value;
+    }
+
+    private static int skipWhitespace(byte[] bytes, int from, int to) {
+        while (from < to && isWhitespace(bytes[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimWhitespace(byte[] bytes, int from, int to) {
+        while (to > from && isWhitespace(bytes[to - 1])) {
+            to--;
+        }
+        return to;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static IllegalArgumentException invalid(String what, byte[] bytes, int from, int to) {
+        return new IllegalArgumentException("Invalid " + what + " '" +
+                new String(bytes, from, to - from, StandardCharsets.US_ASCII) + "'");
+    }
+}
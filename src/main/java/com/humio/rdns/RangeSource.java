@@ -0,0 +1,75 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The ranges given as arguments, where arguments starting with '@' are files with one range per line. Remembers when
+ * the files were last modified, so a long-running process can pick up edits.
+ */
+class RangeSource {
+    private final String[] arguments;
+    private final Map<Path, FileTime> modified = new LinkedHashMap<>();
+
+    RangeSource(String[] arguments) {
+        this.arguments = arguments;
+    }
+
+    /**
+     * Parses the ranges and returns them normalized. Ranges that can not be parsed are reported as an
+     * {@link IllegalArgumentException} with a message naming the range or file.
+     */
+    List<InetAddressRange> load() throws IOException {
+        List<InetAddressRange> parsedRanges = new ArrayList<>();
+
+        for (String range : arguments) {
+            if (range.startsWith("@")) {
+                String path = range.substring(1);
+                Path file = Paths.get(path);
+                // Read before parsing, so an edit while parsing is seen by the next check
+                modified.put(file, lastModified(file));
+
+                try {
+                    RangeParser.parseFile(file, parsedRanges::add);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Error parsing range in '" +  path + "': " + e.getMessage(), e);
+                }
+            } else {
+                try {
+                    parsedRanges.add(InetAddressRange.parse(range));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Error parsing range '" + range + "': " + e.getMessage(), e);
+                }
+            }
+        }
+
+        return InetAddressRange.normalize(parsedRanges);
+    }
+
+    /** Whether any of the files has been modified, created or deleted since the ranges were last loaded */
+    boolean isModified() {
+        for (Map.Entry<Path, FileTime> file : modified.entrySet()) {
+            if (!Objects.equals(file.getValue(), lastModified(file.getKey()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The time the file was last modified, or null if it does not exist */
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
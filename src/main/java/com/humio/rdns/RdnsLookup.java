@@ -2,13 +2,17 @@ package com.humio.rdns;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -16,20 +20,41 @@ import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URL;
-import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
+import java.util.stream.Stream;
 
 @Command(name = "rdns-lookup", versionProvider = RdnsLookup.ManifestVersionProvider.class,
     description = "Does reverse DNS queries against a range of IP addresses and uploads the results " +
@@ -44,9 +69,91 @@ import java.util.jar.Manifest;
             " - CIDR notation, i.e. \"192.168.0.0/24\".\n" +
             " - a range, i.e. \"192.168.0.0-192.168.0.10\". The range is inclusive.\n" +
             " - @file, i.e. \"@path/to/file\". The file will be read and each line will be\n" +
-            "   interpreted as one of the above.\n" +
+            "   interpreted as one of the above. Blank lines and anything after \"#\" are\n" +
+            "   ignored.\n" +
             "\n" +
-            "Both IPv4 and IPv6 addresses are supported. \n" +
+            "Both IPv4 and IPv6 addresses are supported. Addresses must be given as IP\n" +
+            "address literals, not host names.\n" +
+            "\n" +
+            "Overlapping and adjacent ranges are merged, so each address is only looked up\n" +
+            "once. The rows in the uploaded file are sorted by address, with IPv4 addresses\n" +
+            "before IPv6 addresses, regardless of the order of the ranges.\n" +
+            "\n" +
+            "Up to \"--parallelism\" queries are run at the same time.\n" +
+            "\n" +
+            "With \"--cache\" lookups are stored in the given file and reused by later runs\n" +
+            "until their TTL or \"--cache-max-age\" has passed, whichever is first. The\n" +
+            "system resolver does not report TTLs, so only the max age applies to it.\n" +
+            "\n" +
+            "With \"--streaming-upload\" the results are uploaded while they are being\n" +
+            "looked up, instead of being written to a temporary file first.\n" +
+            "\n" +
+            "Progress is printed every \"--progress-interval\" seconds. With\n" +
+            "\"--metrics-file\" counts of lookups by outcome, latency histograms and the\n" +
+            "time spent parsing, looking up, comparing and uploading are written to the\n" +
+            "given file, in the Prometheus text format or as a JSON summary.\n" +
+            "\n" +
+            "With \"--skip-unchanged\" the results are compared with the last upload, and\n" +
+            "only uploaded if they changed. The digest of the last upload is read from\n" +
+            "\"--digest-file\" if given, and otherwise the lookup file is downloaded and\n" +
+            "compared row by row, reporting the number of added, removed and changed rows.\n" +
+            "\n" +
+            "With \"--prune-empty-zones\" the SOA of the reverse zone of every /8, /16\n" +
+            "and /24 of IPv4 ranges, and every nibble of IPv6 ranges, is queried before the\n" +
+            "lookups, starting with the largest block containing a range. Blocks answered\n" +
+            "with NXDOMAIN are skipped, and only blocks that exist are split further.\n" +
+            "\n" +
+            "With \"--axfr-server\" the reverse zones containing the ranges are transferred\n" +
+            "from the given authoritative server with AXFR over TCP, and addresses in them\n" +
+            "are answered from their PTR records. Addresses in zones that the server\n" +
+            "refuses to transfer, or that are delegated to other servers, are looked up\n" +
+            "one by one.\n" +
+            "\n" +
+            "With \"--adaptive\" the number of queries in flight starts at \"--parallelism\"\n" +
+            "and grows while queries are answered without the latency growing, up to\n" +
+            "\"--max-inflight\". It is halved when queries time out or the server fails,\n" +
+            "and reduced when the latency grows. \"--max-qps\" limits the number of\n" +
+            "queries started per second, with or without \"--adaptive\".\n" +
+            "\n" +
+            "By default the resolver of the JVM is used, which does one query per thread.\n" +
+            "With \"--resolver=nio\" queries are instead sent directly to the DNS server\n" +
+            "given by \"--dns-server\", and \"--parallelism\" is the number of queries in\n" +
+            "flight, which can be in the thousands. Several DNS servers can be given,\n" +
+            "separated by commas, and queries go to the fastest of them. With \"--hedge\"\n" +
+            "slow queries are also sent to another server.\n" +
+            "\n" +
+            "The resolver of the JVM confirms host names by looking up the addresses of the\n" +
+            "name. The nio resolver does not, unless \"--confirm=confirmed\" is given, in\n" +
+            "which case every name is looked up once per run.\n" +
+            "\n" +
+            "With \"--shard=i/n\" only the i-th of n equal parts of the addresses of the\n" +
+            "ranges is looked up, counting from 0, and the results are written to\n" +
+            "\"--output\" instead of being uploaded. Shards can run in separate processes,\n" +
+            "and the merge command then combines their results into one sorted file and\n" +
+            "uploads it:\n" +
+            "\n" +
+            "  java -jar rdns-lookup.jar [OPTIONS] <url> <repo> <filename> merge <files>...\n" +
+            "\n" +
+            "The serve command keeps running and looks up every address once per\n" +
+            "\"--refresh-interval\", spread evenly over the interval, and uploads the\n" +
+            "results whenever they changed. Edits of @file ranges are picked up while\n" +
+            "running:\n" +
+            "\n" +
+            "  java -jar rdns-lookup.jar [OPTIONS] <url> <repo> <filename> [<ranges>...] serve\n" +
+            "\n" +
+            "With \"--split-rows\" the results are split into lookup files of at most that\n" +
+            "many rows, rdns-0.csv, rdns-1.csv and so on for rdns.csv, which are uploaded in\n" +
+            "parallel and retried with backoff. Once all parts are uploaded, the manifest\n" +
+            "rdns-manifest.csv lists the first and last address of each part.\n" +
+            "\n" +
+            "With \"--index\" the results of a scan are also written to a binary index,\n" +
+            "which the query command looks up addresses in without parsing it:\n" +
+            "\n" +
+            "  java -jar rdns-lookup.jar query <index> [<addresses>...]\n" +
+            "\n" +
+            "With \"--journal\" the progress of a scan is checkpointed to the file, and with\n" +
+            "\"--resume\" a scan that stopped continues from its last checkpoint instead of\n" +
+            "starting over.\n" +
             "\n" +
             "Example:\n" +
             "\n" +
@@ -57,11 +164,25 @@ import java.util.jar.Manifest;
             "  java -jar rdns-lookup.jar https://cloud.humio.com myRepo rdns.csv 192.168.0.0/24")
 public class RdnsLookup implements Callable<Integer> {
     public static void main(String[] args) {
-        System.exit(new CommandLine(new RdnsLookup()).execute(args));
+        if (args.length > 0 && args[0].equals("query")) {
+            System.exit(new CommandLine(new IndexQuery()).execute(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
+        // Range files are read by RangeSource rather than expanded by picocli, so serve can watch them
+        System.exit(new CommandLine(new RdnsLookup()).setExpandAtFiles(false).execute(args));
     }
 
     public static String TOKEN_ENV_VAR = "HUMIO_TOKEN";
 
+    /** Bytes of results buffered between the lookups and a streaming upload */
+    private static final int STREAMING_BUFFER_SIZE = 1 << 20;
+
+    /** Nanoseconds between checkpoints of the journal, which is the most lookup work lost when a scan stops */
+    private static final long JOURNAL_CHECKPOINT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /** Milliseconds to wait before retrying a failed upload of a part, doubled for every further retry */
+    private static final long UPLOAD_BACKOFF_MILLIS = 1000;
+
     @Parameters(index = "0", description = "URL to Humio cluster to upload to")
     private URI url;
 
@@ -71,12 +192,129 @@ public class RdnsLookup implements Callable<Integer> {
     @Parameters(index = "2", description = "The filename in the repository to upload to")
     private String filename;
 
-    @Parameters(index = "3..*", description = "The IP ranges for which to perform reverse DNS", arity = "1..*")
+    @Parameters(index = "3..*", description = "The IP ranges for which to perform reverse DNS", arity = "0..*")
     private String[] ranges;
 
     @Option(names = {"-t", "--token"}, description = "API token to use", arity = "0..1", interactive = true)
     private String token;
 
+    @Option(names = {"-p", "--parallelism"}, description = "Number of reverse DNS queries to run concurrently " +
+            "(default: ${DEFAULT-VALUE})", defaultValue = "16")
+    private int parallelism;
+
+    @Option(names = "--resolver", description = "Resolver to use: ${COMPLETION-CANDIDATES} (default: " +
+            "${DEFAULT-VALUE})", defaultValue = "system")
+    private ResolverType resolverType;
+
+    @Option(names = "--dns-server", description = "DNS server to query with the nio resolver, as host[:port]. " +
+            "Several servers can be given, separated by commas, and queries go to the fastest of them.",
+            converter = DnsServerConverter.class, split = ",")
+    private List<InetSocketAddress> dnsServers;
+
+    @Option(names = "--hedge", description = "Also send queries that are not answered within the 95th percentile " +
+            "latency of their DNS server to another server, and use the first reply. Requires several " +
+            "\"--dns-server\".")
+    private boolean hedge;
+
+    @Option(names = "--timeout", description = "Milliseconds to wait for a reply with the nio resolver " +
+            "(default: ${DEFAULT-VALUE})", defaultValue = "2000")
+    private long timeoutMillis;
+
+    @Option(names = "--retries", description = "Number of times to retry a query with the nio resolver " +
+            "(default: ${DEFAULT-VALUE})", defaultValue = "2")
+    private int retries;
+
+    @Option(names = "--confirm", description = "Whether host names are confirmed by looking up their addresses: " +
+            "ptr-only or confirmed. Confirmed with the nio resolver looks up each name once per run. The system " +
+            "resolver always confirms, and nio defaults to ptr-only.", converter = ConfirmationConverter.class)
+    private Confirmation confirmation;
+
+    @Option(names = "--prune-empty-zones", description = "Skip blocks of addresses whose reverse zone does not " +
+            "exist, checked with SOA queries before the lookups. Requires the nio resolver.")
+    private boolean pruneEmptyZones;
+
+    @Option(names = "--axfr-server", description = "Authoritative DNS server to transfer the reverse zones of the " +
+            "ranges from with AXFR, as host[:port]. Zones it refuses to transfer are looked up address by address.",
+            converter = DnsServerConverter.class)
+    private InetSocketAddress axfrServer;
+
+    @Option(names = "--adaptive", description = "Adapt the number of queries in flight to the DNS server, " +
+            "starting at \"--parallelism\" and backing off on timeouts and server failures")
+    private boolean adaptive;
+
+    @Option(names = "--max-inflight", description = "Maximum number of queries in flight with \"--adaptive\" " +
+            "(default: ${DEFAULT-VALUE})", defaultValue = "4096")
+    private int maxInFlight;
+
+    @Option(names = "--max-qps", description = "Maximum number of queries to start per second, or 0 for no " +
+            "maximum (default: ${DEFAULT-VALUE})", defaultValue = "0")
+    private double maxQps;
+
+    @Option(names = "--cache", description = "File to cache lookups in between runs")
+    private Path cachePath;
+
+    @Option(names = "--cache-max-age", description = "Maximum number of seconds to use a cached lookup for, even " +
+            "if its TTL is longer (default: ${DEFAULT-VALUE})", defaultValue = "86400")
+    private long cacheMaxAgeSeconds;
+
+    @Option(names = "--streaming-upload", description = "Upload the results while they are being looked up, " +
+            "instead of writing them to a temporary file first")
+    private boolean streamingUpload;
+
+    @Option(names = "--split-rows", description = "Split the results into lookup files of at most this many rows " +
+            "each, named after the filename with the number of the part, and upload a manifest of the addresses in " +
+            "each part")
+    private Long splitRows;
+
+    @Option(names = "--upload-parallelism", description = "Number of parts of split results uploaded at the same " +
+            "time (default: ${DEFAULT-VALUE})", defaultValue = "4")
+    private int uploadParallelism;
+
+    @Option(names = "--upload-retries", description = "Number of retries of a part of split results that failed " +
+            "uploading, with exponential backoff (default: ${DEFAULT-VALUE})", defaultValue = "3")
+    private int uploadRetries;
+
+    @Option(names = "--shard", description = "Only look up shard i of n equal parts of the addresses of the ranges, " +
+            "counting from 0, as i/n. Requires \"--output\".", converter = ShardConverter.class)
+    private Shard shard;
+
+    @Option(names = "--output", description = "Write the results to this file instead of uploading them, for " +
+            "example as the partial results of a shard")
+    private Path output;
+
+    @Option(names = "--index", description = "Also write the results of the scan to this file as a binary index, " +
+            "for looking up addresses locally with the query command")
+    private Path indexFile;
+
+    @Option(names = "--journal", description = "Journal the progress and results of the scan to this file, so a " +
+            "scan that stopped can be continued with \"--resume\". Removed once the results are published. " +
+            "Not supported with \"--prune-empty-zones\".")
+    private Path journalFile;
+
+    @Option(names = "--resume", description = "Continue the scan in the \"--journal\" file, skipping the addresses " +
+            "it completed. Starts a new scan if there is no journal.")
+    private boolean resume;
+
+    @Option(names = "--skip-unchanged", description = "Skip the upload if the results are the same as the last " +
+            "upload, and otherwise report the changes")
+    private boolean skipUnchanged;
+
+    @Option(names = "--digest-file", description = "File to store the digest of the last upload in, so " +
+            "\"--skip-unchanged\" does not have to download the lookup file")
+    private Path digestFile;
+
+    @Option(names = "--metrics-file", description = "File to write counters, latency histograms and phase " +
+            "timings of the run to")
+    private Path metricsFile;
+
+    @Option(names = "--metrics-format", description = "Format of the metrics file: ${COMPLETION-CANDIDATES} " +
+            "(default: ${DEFAULT-VALUE})", defaultValue = "prometheus")
+    private MetricsFormat metricsFormat;
+
+    @Option(names = "--progress-interval", description = "Seconds between progress lines, or 0 to not print " +
+            "progress (default: ${DEFAULT-VALUE})", defaultValue = "10")
+    private long progressIntervalSeconds;
+
     @SuppressWarnings("unused")
     @Option(names = {"-V", "--version"}, versionHelp = true, description = "Display version info")
     boolean versionInfoRequested;
@@ -85,93 +323,922 @@ public class RdnsLookup implements Callable<Integer> {
     @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
     boolean usageHelpRequested;
 
+    private final Metrics metrics = new Metrics();
+
+    /** The resolver limiting the queries in flight and per second, if any */
+    private ThrottlingResolver throttlingResolver;
+
+    /** The resolver answering lookups from transferred zones, if any */
+    private ZoneTransferResolver transferResolver;
+
+    /** The resolver querying the DNS servers, if the nio resolver is used */
+    private NioResolver nioResolver;
+
+    /** The resolver confirming host names with the nio resolver, if any */
+    private ConfirmingResolver confirmingResolver;
+
+    private CloseableHttpClient httpClient;
+
     @Override
     public Integer call() throws Exception {
-        if (!filename.endsWith(".csv")) {
-            System.err.println("Filename must end with .csv");
+        if (!validUploadOptions() || !validLookupOptions()) {
             return -1;
         }
 
-        List<InetAddressRange> parsedRanges = new ArrayList<>();
+        if (progressIntervalSeconds < 0) {
+            System.err.println("Progress interval must not be negative");
+            return -1;
+        }
+
+        if (resume && journalFile == null) {
+            System.err.println("--resume requires --journal");
+            return -1;
+        }
+
+        try {
+            return lookUpAndUpload();
+        } finally {
+            closeHttpClient();
+            if (metricsFile != null) {
+                writeMetrics();
+            }
+        }
+    }
 
-        for (String range : ranges) {
-            if (range.startsWith("@")) {
-                String path = range.substring(1);
+    @Command(name = "serve", description = "Stays running and keeps the results in memory, looking up every " +
+            "address once per refresh interval, spread evenly over the interval, and uploading the results whenever " +
+            "they changed. Edits of @file ranges are picked up while running. Options are given before <url>.")
+    int serve(@Option(names = "--refresh-interval", description = "Seconds in which every address is looked up " +
+                      "once (default: ${DEFAULT-VALUE})", defaultValue = "3600") long refreshIntervalSeconds,
+              @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
+                      boolean usageHelpRequested) throws Exception {
+        if (!validUploadOptions() || !validLookupOptions()) {
+            return -1;
+        }
+
+        if (refreshIntervalSeconds <= 0) {
+            System.err.println("Refresh interval must be positive");
+            return -1;
+        }
+
+        if (indexFile != null || journalFile != null) {
+            System.err.println("--index and --journal are only supported by scans");
+            return -1;
+        }
+
+        RangeSource source = new RangeSource(ranges);
+        List<InetAddressRange> initialRanges;
+
+        try {
+            initialRanges = select(source.load());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        RefreshDaemon daemon = new RefreshDaemon(new RefreshDaemon.Callbacks() {
+            @Override
+            public List<InetAddressRange> checkRanges() throws IOException {
+                if (!source.isModified()) {
+                    return null;
+                }
 
                 try {
-                    for (String line : Files.readAllLines(Paths.get(path))) {
-                        parsedRanges.add(InetAddressRange.parse(line));
+                    return select(source.load());
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage() + ", keeping the previous ranges");
+                    return null;
+                }
+            }
+
+            @Override
+            public Resolver createResolver(List<InetAddressRange> ranges) throws IOException {
+                return RdnsLookup.this.createResolver(ranges);
+            }
+
+            @Override
+            public boolean publish(RefreshDaemon daemon) throws Exception {
+                return RdnsLookup.this.publish(daemon::writeTo) == 0;
+            }
+
+            @Override
+            public void swept() {
+                if (metricsFile != null) {
+                    writeMetrics();
+                }
+            }
+        }, TimeUnit.SECONDS.toNanos(refreshIntervalSeconds), engineWindow(), System.err);
+
+        System.err.println("Refreshing " + InetAddressRange.totalSize(initialRanges) + " addresses every " +
+                refreshIntervalSeconds + " seconds");
+
+        try {
+            daemon.run(initialRanges);
+            return 0;
+        } finally {
+            closeHttpClient();
+        }
+    }
+
+    /** Checks the options of how addresses are looked up, which are shared by scans and the daemon */
+    private boolean validLookupOptions() {
+        if (ranges == null || ranges.length == 0) {
+            System.err.println("At least one range is required");
+            return false;
+        }
+
+        if (parallelism < 1) {
+            System.err.println("Parallelism must be positive");
+            return false;
+        }
+
+        if (resolverType == ResolverType.nio && dnsServers == null) {
+            System.err.println("The nio resolver requires --dns-server");
+            return false;
+        }
+
+        if (dnsServers != null) {
+            if (new HashSet<>(dnsServers).size() != dnsServers.size()) {
+                System.err.println("DNS servers must not be given more than once");
+                return false;
+            }
+
+            for (InetSocketAddress server : dnsServers) {
+                if (server.getAddress().getClass() != dnsServers.get(0).getAddress().getClass()) {
+                    System.err.println("DNS servers must all be IPv4 or all be IPv6");
+                    return false;
+                }
+            }
+        }
+
+        if (hedge && (resolverType != ResolverType.nio || dnsServers.size() < 2)) {
+            System.err.println("--hedge requires the nio resolver and at least two DNS servers");
+            return false;
+        }
+
+        if (timeoutMillis <= 0 || retries < 0) {
+            System.err.println("Timeout must be positive and retries must not be negative");
+            return false;
+        }
+
+        if (confirmation == Confirmation.PTR_ONLY && resolverType != ResolverType.nio) {
+            System.err.println("The system resolver always confirms host names, --confirm=ptr-only requires the " +
+                    "nio resolver");
+            return false;
+        }
+
+        if (isConfirmedWithNio() && axfrServer != null) {
+            // Names from transferred zones would not be confirmed
+            System.err.println("--confirm=confirmed with the nio resolver can not be combined with --axfr-server");
+            return false;
+        }
+
+        if (pruneEmptyZones && resolverType != ResolverType.nio) {
+            System.err.println("--prune-empty-zones requires the nio resolver");
+            return false;
+        }
+
+        if (pruneEmptyZones && journalFile != null) {
+            // The journal is only valid for the same ranges, and which zones are empty depends on DNS at the time
+            System.err.println("--prune-empty-zones can not be combined with --journal");
+            return false;
+        }
+
+        if (maxInFlight < 1 || maxQps < 0) {
+            System.err.println("Max in flight must be positive and max queries per second must not be negative");
+            return false;
+        }
+
+        if (cacheMaxAgeSeconds < 0) {
+            System.err.println("Cache max age must not be negative");
+            return false;
+        }
+
+        if (shard != null && output == null) {
+            System.err.println("--shard requires --output");
+            return false;
+        }
+
+        return true;
+    }
+
+    @Command(name = "merge", description = "Merges the partial results written by the shards of a scan with " +
+            "\"--shard\" and \"--output\" into one lookup file, sorted by address, and uploads it. Options are " +
+            "given before <url>.")
+    int merge(@Parameters(paramLabel = "<files>", arity = "1..*", description = "The partial result files to merge")
+                      Path[] files,
+              @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
+                      boolean usageHelpRequested) throws Exception {
+        if (!validUploadOptions()) {
+            return -1;
+        }
+
+        if (indexFile != null || journalFile != null) {
+            System.err.println("--index and --journal are only supported by scans");
+            return -1;
+        }
+
+        try {
+            return publish(out -> {
+                List<Reader> inputs = new ArrayList<>();
+
+                try (Metrics.Timer ignored = metrics.time("merge")) {
+                    for (Path file : files) {
+                        inputs.add(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+                    }
+
+                    long rows = ResultMerger.merge(inputs, out);
+                    System.err.println("Merged " + rows + " rows from " + files.length + " files");
+                } finally {
+                    for (Reader input : inputs) {
+                        input.close();
                     }
-                } catch (IllegalArgumentException | UnknownHostException e) {
-                    System.err.println("Error parsing range in '" +  path + "': " + e.getMessage());
-                    return -1;
                 }
-            } else {
-                try {
-                    parsedRanges.add(InetAddressRange.parse(range));
-                } catch (IllegalArgumentException | UnknownHostException e) {
-                    System.err.println("Error parsing range '" + range + "': " + e.getMessage());
-                    return -1;
+            });
+        } finally {
+            closeHttpClient();
+            if (metricsFile != null) {
+                writeMetrics();
+            }
+        }
+    }
+
+    /** Checks the options of how results are uploaded, which are shared by scans and merges */
+    private boolean validUploadOptions() {
+        if (!filename.endsWith(".csv")) {
+            System.err.println("Filename must end with .csv");
+            return false;
+        }
+
+        if (streamingUpload && (skipUnchanged || digestFile != null)) {
+            System.err.println("--streaming-upload can not be combined with --skip-unchanged or --digest-file");
+            return false;
+        }
+
+        if (output != null && (streamingUpload || skipUnchanged || digestFile != null)) {
+            System.err.println("--output can not be combined with --streaming-upload, --skip-unchanged or " +
+                    "--digest-file");
+            return false;
+        }
+
+        if ((splitRows != null && splitRows < 1) || uploadParallelism < 1 || uploadRetries < 0) {
+            System.err.println("Rows per part and upload parallelism must be positive and upload retries must not " +
+                    "be negative");
+            return false;
+        }
+
+        if (splitRows != null && (streamingUpload || output != null)) {
+            System.err.println("--split-rows can not be combined with --streaming-upload or --output");
+            return false;
+        }
+
+        if (splitRows != null && skipUnchanged && digestFile == null) {
+            // The previous results are in parts, so they can not be downloaded as one lookup file to compare with
+            System.err.println("--split-rows requires --digest-file with --skip-unchanged");
+            return false;
+        }
+
+        return true;
+    }
+
+    private int lookUpAndUpload() throws Exception {
+        List<InetAddressRange> normalizedRanges;
+
+        try (Metrics.Timer ignored = metrics.time("parse")) {
+            normalizedRanges = new RangeSource(ranges).load();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        List<InetAddressRange> lookupRanges = select(normalizedRanges);
+        System.err.println("Looking up " + InetAddressRange.totalSize(lookupRanges) + " addresses in " +
+                lookupRanges.size() + " ranges");
+
+        ScanJournal journal;
+        try {
+            journal = journalFile != null
+                    ? ScanJournal.open(journalFile, lookupRanges, resume, JOURNAL_CHECKPOINT_NANOS)
+                    : null;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        ResultIndex.Builder index = indexFile != null ? new ResultIndex.Builder() : null;
+        int result;
+
+        try {
+            result = publish(out -> lookUp(lookupRanges, out, index, journal));
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+
+        if (journal != null && result == 0) {
+            // The results are published, so the next scan starts over
+            Files.delete(journalFile);
+        }
+
+        if (index != null && result == 0) {
+            try (Metrics.Timer ignored = metrics.time("index")) {
+                index.write(indexFile);
+            }
+            System.err.println("Wrote " + index.size() + " host names to index " + indexFile);
+        }
+
+        return result;
+    }
+
+    /** Selects the addresses of the shard, if any, and removes those in reverse zones that do not exist if enabled */
+    private List<InetAddressRange> select(List<InetAddressRange> normalizedRanges) throws IOException {
+        List<InetAddressRange> selected = normalizedRanges;
+
+        if (shard != null) {
+            System.err.println("Scanning shard " + shard + " of " + InetAddressRange.totalSize(selected) +
+                    " addresses");
+            selected = shard.select(selected);
+        }
+
+        if (pruneEmptyZones) {
+            selected = pruneEmptyZones(selected);
+        }
+
+        return selected;
+    }
+
+    /** Writes the results to the output file if there is one, and otherwise uploads them */
+    private int publish(Results results) throws Exception {
+        if (output != null) {
+            // Written next to the output and then moved, so a merge never sees partial results of a failed shard
+            Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                results.writeTo(out);
+            }
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return 0;
+        }
+
+        if (streamingUpload) {
+            return uploadStreaming(results) ? 0 : -1;
+        }
+
+        File temp = Files.createTempFile("rdns", "csv").toFile();
+
+        try {
+            return publish(results, temp);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /** Writes the results to the temporary file and uploads it, unless it is unchanged since the last upload */
+    private int publish(Results results, File temp) throws Exception {
+
+        // The rows are sorted by address, so this is also a digest of the set of results
+        MessageDigest resultDigest = Utils.sha256();
+
+        try (Writer out = new OutputStreamWriter(new DigestOutputStream(new FileOutputStream(temp), resultDigest),
+                StandardCharsets.UTF_8)) {
+            results.writeTo(out);
+        }
+
+        String digest = Utils.toHex(resultDigest.digest());
+
+        if (skipUnchanged) {
+            boolean unchanged;
+            try (Metrics.Timer ignored = metrics.time("compare")) {
+                unchanged = isUnchanged(temp, digest);
+            }
+
+            if (unchanged) {
+                System.err.println("Results are unchanged since the last upload, skipping upload");
+                return 0;
+            }
+        }
+
+        if (splitRows != null) {
+            if (!uploadSplit(temp)) {
+                return -1;
+            }
+        } else {
+            MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+            builder.addBinaryBody("file", temp, ContentType.create("text/csv"), filename);
+
+            if (!upload(builder.build())) {
+                return -1;
+            }
+        }
+
+        if (digestFile != null) {
+            Files.write(digestFile, digest.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return 0;
+    }
+
+    /** Removes the parts of the ranges in reverse zones that do not exist */
+    private List<InetAddressRange> pruneEmptyZones(List<InetAddressRange> ranges) throws IOException {
+        try (Metrics.Timer ignored = metrics.time("prune");
+             NioResolver resolver = new NioResolver(dnsServers, false, timeoutMillis, retries,
+                     NioResolver.channelsFor(parallelism))) {
+            ZonePruner pruner = new ZonePruner(resolver, parallelism);
+            List<InetAddressRange> pruned = pruner.prune(ranges);
+
+            BigInteger skipped = InetAddressRange.totalSize(ranges).subtract(InetAddressRange.totalSize(pruned));
+            System.err.println("Skipping " + skipped + " addresses in reverse zones that do not exist, found with " +
+                    pruner.getQueries() + " queries");
+            return pruned;
+        }
+    }
+
+    /**
+     * Looks up all addresses in the ranges, and writes those with a host name to the output as CSV and to the index if
+     * there is one. With a journal, the addresses completed by earlier runs are not looked up again.
+     */
+    private void lookUp(List<InetAddressRange> ranges, Writer out, ResultIndex.Builder index, ScanJournal journal)
+            throws IOException {
+        List<InetAddressRange> remaining = ranges;
+        if (journal != null && journal.getResumed() > 0) {
+            remaining = journal.remaining(ranges);
+            System.err.println("Resuming after " + journal.getResumed() + " addresses with " +
+                    journal.getResumedRows() + " host names completed in " + journalFile);
+        }
+
+        long total = InetAddressRange.totalSize(remaining).min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+
+        try (Metrics.Timer ignored = metrics.time("lookup");
+             Resolver resolver = createResolver(ranges);
+             ProgressReporter progress = progressIntervalSeconds > 0
+                     ? new ProgressReporter(metrics, total, progressIntervalSeconds, System.err)
+                     : null) {
+            lookUp(ranges, resolver, engineWindow(), out, index, journal, metrics);
+
+            if (resolver instanceof CachingResolver) {
+                CachingResolver cachingResolver = (CachingResolver) resolver;
+                metrics.recordCached(cachingResolver.getHits());
+                System.err.println("Answered " + cachingResolver.getHits() + " lookups from the cache and did " +
+                        cachingResolver.getMisses() + " lookups");
+            }
+
+            if (transferResolver != null) {
+                metrics.recordTransferred(transferResolver.getAnswered());
+            }
+
+            if (nioResolver != null && dnsServers.size() > 1) {
+                System.err.println("Queried DNS servers " + nioResolver.describeServers());
+                if (hedge) {
+                    System.err.println("Hedged " + nioResolver.getHedged() + " slow queries, " +
+                            nioResolver.getHedgesAnswered() + " were answered first by the other server");
                 }
             }
+
+            if (confirmingResolver != null) {
+                System.err.println("Confirmed host names with " + confirmingResolver.getForwardQueries() +
+                        " forward queries, " + confirmingResolver.getUnconfirmed() + " did not resolve back to " +
+                        "their address");
+            }
+
+            if (throttlingResolver != null && adaptive) {
+                System.err.println("Ended with up to " + throttlingResolver.getLimit() + " queries in flight after " +
+                        throttlingResolver.getBackoffs() + " backoffs");
+            }
         }
 
+        System.err.println("Looked up " + metrics.getCompleted() + " addresses: " + metrics.summary());
+    }
+
+    /**
+     * Looks up every address in the ranges and writes those with a host name as CSV rows, in order. Completed lookups
+     * and the time spent writing rows are recorded in the metrics.
+     */
+    static void lookUp(List<InetAddressRange> ranges, Resolver resolver, int maxInFlight, Writer out,
+                       Metrics metrics) throws IOException {
+        lookUp(ranges, resolver, maxInFlight, out, null, null, metrics);
+    }
+
+    /**
+     * Looks up every address like {@link #lookUp(List, Resolver, int, Writer, Metrics)}, also adding to the index.
+     * With a journal, the rows of the addresses completed by earlier runs are written first, only the remaining
+     * addresses are looked up, and their results are recorded in the journal.
+     */
+    static void lookUp(List<InetAddressRange> ranges, Resolver resolver, int maxInFlight, Writer out,
+                       ResultIndex.Builder index, ScanJournal journal, Metrics metrics) throws IOException {
         String[] headers = { "ip", "hostname"};
         CSVFormat format = CSVFormat.DEFAULT.withHeader(headers);
 
-        File temp = Files.createTempFile("rdns", "csv").toFile();
-        temp.deleteOnExit();
+        try (CSVPrinter printer = new CSVPrinter(out, format)) {
+            List<InetAddressRange> remaining = ranges;
+
+            if (journal != null) {
+                journal.replay((address, hostName) -> {
+                    printer.printRecord(address.getHostAddress(), hostName);
+                    if (index != null) {
+                        index.add(address, hostName);
+                    }
+                });
+                remaining = journal.remaining(ranges);
+            }
+
+            try (Stream<RdnsScanner.Result> results = RdnsScanner.stream(remaining, resolver, maxInFlight, true)) {
+                Iterator<RdnsScanner.Result> iterator = results.iterator();
+
+                while (iterator.hasNext()) {
+                    RdnsScanner.Result result = iterator.next();
 
-        try (FileWriter out = new FileWriter(temp);
-             CSVPrinter printer = new CSVPrinter(out, format)) {
-            for (InetAddressRange range : parsedRanges) {
-                for (InetAddress address : range) {
-                    String hostAddress = address.getHostAddress();
-                    String hostName = getCanonicalHostName(address);
+                    if (result.getHostName() != null) {
+                        long start = System.nanoTime();
+                        printer.printRecord(result.getHostAddress(), result.getHostName());
+                        metrics.recordRow(System.nanoTime() - start);
 
-                    if (!hostAddress.equals(hostName)) {
-                        printer.printRecord(hostAddress, hostName);
+                        if (index != null) {
+                            index.add(result.getAddress(), result.getHostName());
+                        }
                     }
+
+                    if (journal != null) {
+                        journal.record(result.getAddress(), result.getHostName());
+                    }
+
+                    metrics.recordCompleted();
                 }
             }
         }
+    }
+
+    /**
+     * Uploads the results while they are being looked up, by writing them to a bounded pipe that is read by the
+     * upload. Lookups are paused while the upload is not keeping up.
+     */
+    private boolean uploadStreaming(Results results) throws Exception {
+        BoundedPipe pipe = new BoundedPipe(STREAMING_BUFFER_SIZE);
+
+        FutureTask<Void> lookups = new FutureTask<>(() -> {
+            try (Writer out = new OutputStreamWriter(pipe.sink(), StandardCharsets.UTF_8)) {
+                results.writeTo(out);
+            } catch (Throwable e) {
+                pipe.fail(e);
+                throw e;
+            }
+            return null;
+        });
+
+        Thread thread = new Thread(lookups, "rdns-lookup-streaming");
+        thread.setDaemon(true);
+        thread.start();
+
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.addBinaryBody("file", pipe.source(), ContentType.create("text/csv"), filename);
+
+        boolean uploaded;
+
+        try {
+            uploaded = upload(builder.build());
+        } catch (IOException e) {
+            // If the upload failed because the lookups failed, report the failure of the lookups instead
+            if (lookups.isDone()) {
+                getResult(lookups);
+            }
+            throw e;
+        } finally {
+            pipe.source().close();
+        }
 
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            URI urlWithSlash = url.getPath().endsWith("/")
-                    ? url
-                    : URI.create(url + "/");
+        if (!uploaded) {
+            lookups.cancel(true);
+            return false;
+        }
 
-            URI resolve = urlWithSlash.resolve("api/v1/repositories/" + repo + "/files");
-            HttpPost request = new HttpPost(resolve);
+        getResult(lookups);
+        return true;
+    }
 
-            String authToken;
+    private static <T> T getResult(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
 
-            if (token != null) {
-                authToken = token;
+    /**
+     * Checks whether the results are the same as the last upload. The digest of the results is first compared with
+     * the digest file, if there is one. Otherwise, the current lookup file is downloaded and compared with the
+     * results, reporting the differences.
+     */
+    private boolean isUnchanged(File results, String digest) throws IOException {
+        if (digestFile != null && Files.exists(digestFile)) {
+            String uploadedDigest = new String(Files.readAllBytes(digestFile), StandardCharsets.UTF_8).trim();
+            if (uploadedDigest.equals(digest)) {
+                return true;
+            }
+        }
+
+        HttpGet request = new HttpGet(repositoryUri().resolve("files/" + filename));
+        authorize(request);
+
+        try (CloseableHttpResponse response = httpClient().execute(request)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == 404) {
+                System.err.println("There is no previous lookup file");
+                return false;
+            } else if (statusCode < 200 || statusCode >= 300) {
+                System.err.println("Failed fetching previous lookup file: " +
+                        EntityUtils.toString(response.getEntity()));
+                return false;
+            }
+
+            ResultDiff diff;
+
+            try (Reader uploaded = new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8);
+                 Reader current = new InputStreamReader(new FileInputStream(results), StandardCharsets.UTF_8)) {
+                diff = ResultDiff.compare(uploaded, current);
+            } catch (IOException | IllegalStateException e) {
+                System.err.println("Could not compare with previous lookup file: " + e.getMessage());
+                return false;
+            }
+
+            // The same rows count as unchanged even if the file was written differently, such as by an older version
+            if (diff.isEmpty()) {
+                if (digestFile != null) {
+                    Files.write(digestFile, digest.getBytes(StandardCharsets.UTF_8));
+                }
+                return true;
+            }
+
+            System.err.println("Results changed since the last upload: " + diff);
+            return false;
+        }
+    }
+
+    /** The HTTP client, which is created on first use and pools its connections to the cluster */
+    private CloseableHttpClient httpClient() {
+        if (httpClient == null) {
+            // Enough connections for the parts of split results to be uploaded at the same time
+            PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+            connections.setMaxTotal(uploadParallelism);
+            connections.setDefaultMaxPerRoute(uploadParallelism);
+            httpClient = HttpClients.custom().setConnectionManager(connections).build();
+        }
+        return httpClient;
+    }
+
+    private void closeHttpClient() throws IOException {
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+        }
+    }
+
+    /** URI of the repository in the API, ending with a slash */
+    private URI repositoryUri() {
+        URI urlWithSlash = url.getPath().endsWith("/")
+                ? url
+                : URI.create(url + "/");
+
+        return urlWithSlash.resolve("api/v1/repositories/" + repo + "/");
+    }
+
+    private void authorize(HttpRequestBase request) {
+        String authToken;
+
+        if (token != null) {
+            authToken = token;
+        } else {
+            authToken = getenv(TOKEN_ENV_VAR);
+        }
+
+        if (authToken != null) {
+            request.setHeader(HttpHeaders.AUTHORIZATION, Utils.basicAuthHeader("rdns-lookup", authToken));
+        }
+    }
+
+    /** Uploads the entity as the lookup file, returning false if the upload was rejected */
+    private boolean upload(HttpEntity entity) throws IOException {
+        try (Metrics.Timer ignored = metrics.time("upload")) {
+            int statusCode = post(entity, "results");
+            return statusCode >= 200 && statusCode < 300;
+        }
+    }
+
+    /** Posts the entity as a lookup file, returning the status code after reporting the response if it failed */
+    private int post(HttpEntity entity, String what) throws IOException {
+        HttpPost request = new HttpPost(repositoryUri().resolve("files"));
+        authorize(request);
+        request.setEntity(entity);
+
+        try (CloseableHttpResponse response = httpClient().execute(request)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode < 200 || statusCode >= 300) {
+                System.err.println("Failed uploading " + what + ": " + EntityUtils.toString(response.getEntity()));
             } else {
-                authToken = getenv(TOKEN_ENV_VAR);
+                // Read the rest of the response, so the connection can be reused
+                EntityUtils.consume(response.getEntity());
+            }
+            return statusCode;
+        }
+    }
+
+    /**
+     * Splits the results into parts, uploads them in parallel and then uploads the manifest, returning false if a
+     * part or the manifest was rejected. The manifest is only uploaded once all parts are, so it never lists a part
+     * that was not uploaded.
+     */
+    private boolean uploadSplit(File results) throws Exception {
+        List<File> files = new ArrayList<>();
+
+        try {
+            List<ResultSplitter.Part> parts;
+            try (Reader in = new InputStreamReader(new FileInputStream(results), StandardCharsets.UTF_8)) {
+                parts = ResultSplitter.split(in, splitRows, filename, index -> {
+                    File part = Files.createTempFile("rdns", "csv").toFile();
+                    files.add(part);
+                    return new OutputStreamWriter(new FileOutputStream(part), StandardCharsets.UTF_8);
+                });
             }
 
-            if (authToken != null) {
-                request.setHeader(HttpHeaders.AUTHORIZATION, Utils.basicAuthHeader("rdns-lookup", authToken));
+            File manifest = Files.createTempFile("rdns", "csv").toFile();
+            files.add(manifest);
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(manifest), StandardCharsets.UTF_8)) {
+                ResultSplitter.writeManifest(parts, out);
             }
 
+            // Created before the uploads, which share it
+            httpClient();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(uploadParallelism, parts.size()));
+
+            try (Metrics.Timer ignored = metrics.time("upload")) {
+                List<Future<Boolean>> uploads = new ArrayList<>();
+                for (int i = 0; i < parts.size(); i++) {
+                    File part = files.get(i);
+                    String name = parts.get(i).filename;
+                    uploads.add(executor.submit(() -> uploadWithRetries(part, name)));
+                }
+
+                boolean uploaded = true;
+                for (Future<Boolean> upload : uploads) {
+                    uploaded &= getResult(upload);
+                }
+
+                if (!uploaded) {
+                    System.err.println("Not uploading the manifest, since not all parts were uploaded");
+                    return false;
+                }
+
+                String manifestName = ResultSplitter.manifestName(filename);
+                if (!uploadWithRetries(manifest, manifestName)) {
+                    return false;
+                }
+
+                System.err.println("Uploaded " + parts.size() + " parts and the manifest " + manifestName);
+                return true;
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * Uploads the file as a lookup file, retrying with exponential backoff if the connection fails, or if the
+     * cluster fails or asks to slow down. Returns false if the upload was rejected or all retries failed.
+     */
+    private boolean uploadWithRetries(File file, String name) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
             MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-            builder.addBinaryBody("file", temp, ContentType.create("text/csv"), filename);
-            request.setEntity(builder.build());
+            builder.addBinaryBody("file", file, ContentType.create("text/csv"), name);
 
-            try (CloseableHttpResponse response = httpClient.execute(request)) {
-                int statusCode = response.getStatusLine().getStatusCode();
-                if (statusCode < 200 || statusCode >= 300) {
-                    System.err.println("Failed uploading results: " + EntityUtils.toString(response.getEntity()));
-                    return -1;
+            try {
+                int statusCode = post(builder.build(), name);
+                if (statusCode >= 200 && statusCode < 300) {
+                    return true;
+                }
+                if ((statusCode < 500 && statusCode != 429) || attempt == uploadRetries) {
+                    return false;
+                }
+            } catch (IOException e) {
+                if (attempt == uploadRetries) {
+                    throw e;
                 }
+                System.err.println("Failed uploading " + name + ": " + e);
             }
+
+            // Jittered, so parts that failed together are not retried together
+            long backoff = UPLOAD_BACKOFF_MILLIS << attempt;
+            long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            System.err.println("Retrying upload of " + name + " in " + delay + " ms");
+            Thread.sleep(delay);
         }
+    }
 
-        return 0;
+    /** Whether host names are confirmed by the nio resolver, rather than by the JVM or not at all */
+    private boolean isConfirmedWithNio() {
+        return resolverType == ResolverType.nio && confirmation == Confirmation.CONFIRMED;
+    }
+
+    /** Number of lookups the engine keeps going, which the throttling resolver may hold back some of */
+    private int engineWindow() {
+        if (resolverType == ResolverType.nio) {
+            return adaptive ? maxInFlight : parallelism;
+        }
+        return parallelism * SystemResolver.IN_FLIGHT_PER_THREAD;
+    }
+
+    private Resolver createResolver(List<InetAddressRange> ranges) throws IOException {
+        Resolver resolver;
+
+        switch (resolverType) {
+            case nio:
+                nioResolver = new NioResolver(dnsServers, hedge, timeoutMillis, retries,
+                        NioResolver.channelsFor(parallelism));
+                resolver = isConfirmedWithNio()
+                        ? confirmingResolver = new ConfirmingResolver(nioResolver)
+                        : nioResolver;
+                break;
+            case system:
+            default:
+                resolver = new SystemResolver(this::getCanonicalHostName, parallelism);
+                break;
+        }
+
+        resolver = new MeasuringResolver(resolver, metrics);
+
+        if (adaptive || maxQps > 0) {
+            // The system resolver can not have more queries in flight than it has threads
+            int max = resolverType == ResolverType.nio ? maxInFlight : Math.min(maxInFlight, parallelism);
+            AdaptiveLimit limit = adaptive
+                    ? new AdaptiveLimit(Math.min(parallelism, max), max)
+                    : AdaptiveLimit.fixed(engineWindow());
+            TokenBucket rate = maxQps > 0 ? new TokenBucket(maxQps, System.nanoTime()) : null;
+
+            resolver = throttlingResolver = new ThrottlingResolver(resolver, limit, rate);
+        }
+
+        if (axfrServer != null) {
+            try {
+                resolver = transferZones(ranges, resolver);
+            } catch (IOException | RuntimeException e) {
+                resolver.close();
+                throw e;
+            }
+        }
+
+        if (cachePath != null) {
+            try {
+                resolver = new CachingResolver(resolver, ResolutionCache.open(cachePath, cacheMaxAgeSeconds));
+            } catch (IOException e) {
+                resolver.close();
+                throw e;
+            }
+        }
+
+        return resolver;
+    }
+
+    /** Transfers the reverse zones of the ranges, looking up addresses in other zones with the resolver */
+    private Resolver transferZones(List<InetAddressRange> ranges, Resolver resolver) throws IOException {
+        try (Metrics.Timer ignored = metrics.time("transfer");
+             NioResolver soaResolver = new NioResolver(axfrServer, timeoutMillis, retries, 1)) {
+            transferResolver = ZoneTransferResolver.transfer(ranges, soaResolver,
+                    new AxfrClient(axfrServer, (int) Math.min(timeoutMillis, Integer.MAX_VALUE)), resolver);
+
+            for (String failure : transferResolver.getFailures()) {
+                System.err.println(failure + ", looking up its addresses one by one");
+            }
+            System.err.println("Transferred " + transferResolver.getZones() + " zones with " +
+                    transferResolver.getRecords() + " PTR records, covering " +
+                    InetAddressRange.totalSize(transferResolver.getTransferred()) + " addresses");
+            return transferResolver;
+        }
     }
 
+    private void writeMetrics() {
+        try (Writer out = Files.newBufferedWriter(metricsFile, StandardCharsets.UTF_8)) {
+            switch (metricsFormat) {
+                case json:
+                    metrics.writeJson(out);
+                    break;
+                case prometheus:
+                default:
+                    metrics.writePrometheus(out);
+                    break;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed writing metrics: " + e.getMessage());
+        }
+    }
+
+    /** Looks up the host name of the address. May be called concurrently from multiple threads. */
     protected String getCanonicalHostName(InetAddress address) {
         return address.getCanonicalHostName();
     }
@@ -180,6 +1247,96 @@ public class RdnsLookup implements Callable<Integer> {
         return System.getenv(name);
     }
 
+    enum ResolverType {
+        /** The resolver of the JVM, using {@link #getCanonicalHostName(InetAddress)} */
+        system,
+        /** The built-in asynchronous resolver, querying a given DNS server */
+        nio
+    }
+
+    enum Confirmation {
+        /** Host names are taken from the PTR records as they are */
+        PTR_ONLY("ptr-only"),
+        /** Only host names that resolve back to the address are kept */
+        CONFIRMED("confirmed");
+
+        private final String value;
+
+        Confirmation(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    enum MetricsFormat {
+        /** The Prometheus text format, as read by the node exporter textfile collector */
+        prometheus,
+        /** A JSON summary with quantiles of the latencies */
+        json
+    }
+
+    /** Writes results as CSV, sorted by address */
+    private interface Results {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    /** Converts ptr-only or confirmed to a confirmation mode */
+    static class ConfirmationConverter implements CommandLine.ITypeConverter<Confirmation> {
+        @Override
+        public Confirmation convert(String value) {
+            for (Confirmation confirmation : Confirmation.values()) {
+                if (confirmation.value.equals(value)) {
+                    return confirmation;
+                }
+            }
+            throw new CommandLine.TypeConversionException("Expected ptr-only or confirmed, but was '" + value + "'");
+        }
+    }
+
+    /** Converts i/n to a shard */
+    static class ShardConverter implements CommandLine.ITypeConverter<Shard> {
+        @Override
+        public Shard convert(String value) {
+            try {
+                return Shard.parse(value);
+            } catch (IllegalArgumentException e) {
+                throw new CommandLine.TypeConversionException(e.getMessage());
+            }
+        }
+    }
+
+    /** Converts host[:port] to the address of a DNS server, defaulting to port 53 */
+    static class DnsServerConverter implements CommandLine.ITypeConverter<InetSocketAddress> {
+        @Override
+        public InetSocketAddress convert(String value) throws Exception {
+            String host = value;
+            int port = 53;
+
+            if (value.startsWith("[")) {
+                int close = value.indexOf(']');
+                if (close == -1) {
+                    throw new CommandLine.TypeConversionException("Missing ']' in '" + value + "'");
+                }
+                host = value.substring(1, close);
+                if (close + 1 < value.length()) {
+                    if (value.charAt(close + 1) != ':') {
+                        throw new CommandLine.TypeConversionException("Expected ':' after ']' in '" + value + "'");
+                    }
+                    port = Integer.parseInt(value.substring(close + 2));
+                }
+            } else if (value.indexOf(':') == value.lastIndexOf(':') && value.indexOf(':') != -1) {
+                host = value.substring(0, value.indexOf(':'));
+                port = Integer.parseInt(value.substring(value.indexOf(':') + 1));
+            }
+
+            return new InetSocketAddress(InetAddress.getByName(host), port);
+        }
+    }
+
     /** Version provider that reads the version added by maven in the manifest */
     static class ManifestVersionProvider implements CommandLine.IVersionProvider {
         public String[] getVersion() throws Exception {
@@ -0,0 +1,304 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Looks up the host names of the addresses in ranges, for use as a library. Results are streamed in address order as
+ * they are consumed, so a slow consumer slows down the lookups instead of results piling up in memory. Lookups run
+ * ahead of the consumer by the number of lookups in flight, and while a slow lookup holds back the results after it,
+ * by up to 65536 results held in memory, after which further results are spilled to temporary files until the slow
+ * lookup completes.
+ *
+ * <pre>
+ *   RdnsScanner scanner = RdnsScanner.builder()
+ *           .ranges(InetAddressRange.parse("10.0.0.0/16"))
+ *           .dnsServers(new InetSocketAddress("10.0.0.53", 53))
+ *           .parallelism(1000)
+ *           .build();
+ *
+ *   try (Stream&lt;RdnsScanner.Result&gt; results = scanner.stream()) {
+ *       results.forEach(result -&gt; ...);
+ *   }
+ * </pre>
+ *
+ * Every stream queries the DNS servers on its own, and must be closed to release them.
+ */
+public class RdnsScanner {
+    private final List<InetAddressRange> ranges;
+    private final List<InetSocketAddress> dnsServers;
+    private final int parallelism;
+    private final long timeoutMillis;
+    private final int retries;
+    private final boolean hedge;
+    private final boolean confirm;
+    private final boolean includeUnresolved;
+
+    private RdnsScanner(Builder builder) {
+        this.ranges = InetAddressRange.normalize(builder.ranges);
+        this.dnsServers = builder.dnsServers;
+        this.parallelism = builder.parallelism;
+        this.timeoutMillis = builder.timeoutMillis;
+        this.retries = builder.retries;
+        this.hedge = builder.hedge;
+        this.confirm = builder.confirm;
+        this.includeUnresolved = builder.includeUnresolved;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts looking up the addresses of the ranges, returning the results in address order. Addresses that could not
+     * be resolved are handled as having no host name.
+     *
+     * @throws UncheckedIOException if the DNS client could not be started
+     */
+    public Stream<Result> stream() {
+        Resolver resolver;
+        int maxInFlight;
+
+        if (dnsServers.isEmpty()) {
+            resolver = new SystemResolver(InetAddress::getCanonicalHostName, parallelism);
+            maxInFlight = parallelism * SystemResolver.IN_FLIGHT_PER_THREAD;
+        } else {
+            try {
+                NioResolver nioResolver = new NioResolver(dnsServers, hedge, timeoutMillis, retries,
+                        NioResolver.channelsFor(parallelism));
+                resolver = confirm ? new ConfirmingResolver(nioResolver) : nioResolver;
+                maxInFlight = parallelism;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return stream(ranges, resolver, maxInFlight, includeUnresolved).onClose(() -> {
+            try {
+                resolver.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Streams the results of looking up the addresses of the normalized ranges with the resolver, which is not closed
+     * with the stream
+     */
+    static Stream<Result> stream(List<InetAddressRange> ranges, Resolver resolver, int maxInFlight,
+                                 boolean includeUnresolved) {
+        return stream(new Lookups(ranges, resolver, maxInFlight, LookupEngine.DEFAULT_REORDER_LIMIT, null,
+                includeUnresolved));
+    }
+
+    /** Streams the results of the lookups, deleting what they spilled to disk when the stream is closed */
+    static Stream<Result> stream(Lookups lookups) {
+        return StreamSupport.stream(lookups, false).onClose(lookups::close);
+    }
+
+    /** The host name of an address */
+    public static final class Result {
+        private final InetAddress address;
+        private final String hostAddress;
+        private final String hostName;
+
+        Result(InetAddress address, String hostAddress, String hostName) {
+            this.address = address;
+            this.hostAddress = hostAddress;
+            this.hostName = hostName;
+        }
+
+        public InetAddress getAddress() {
+            return address;
+        }
+
+        /** The address as text, like {@link InetAddress#getHostAddress()} */
+        public String getHostAddress() {
+            return hostAddress;
+        }
+
+        /** The host name, or null if the address has none */
+        public String getHostName() {
+            return hostName;
+        }
+
+        @Override
+        public String toString() {
+            return hostAddress + "=" + hostName;
+        }
+    }
+
+    public static final class Builder {
+        private final List<InetAddressRange> ranges = new ArrayList<>();
+        private List<InetSocketAddress> dnsServers = Collections.emptyList();
+        private int parallelism = 16;
+        private long timeoutMillis = 2000;
+        private int retries = 2;
+        private boolean hedge;
+        private boolean confirm;
+        private boolean includeUnresolved;
+
+        private Builder() {
+        }
+
+        /** Adds ranges to look up the addresses of, which may overlap */
+        public Builder ranges(InetAddressRange... ranges) {
+            return ranges(Arrays.asList(ranges));
+        }
+
+        public Builder ranges(Collection<InetAddressRange> ranges) {
+            this.ranges.addAll(ranges);
+            return this;
+        }
+
+        /**
+         * Queries these DNS servers directly, spreading the queries over them, instead of using the resolver of the
+         * JVM, which does one query per thread
+         */
+        public Builder dnsServers(InetSocketAddress... dnsServers) {
+            return dnsServers(Arrays.asList(dnsServers));
+        }
+
+        public Builder dnsServers(List<InetSocketAddress> dnsServers) {
+            this.dnsServers = new ArrayList<>(dnsServers);
+            return this;
+        }
+
+        /**
+         * Number of lookups in flight when querying DNS servers, and otherwise the number of threads doing lookups
+         * (default: 16)
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /** Milliseconds to wait for a reply from a DNS server (default: 2000) */
+        public Builder timeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /** Number of times to retry a query to the DNS servers (default: 2) */
+        public Builder retries(int retries) {
+            this.retries = retries;
+            return this;
+        }
+
+        /** Whether queries that are slow to be answered are also sent to another of the DNS servers */
+        public Builder hedge(boolean hedge) {
+            this.hedge = hedge;
+            return this;
+        }
+
+        /**
+         * Whether host names from DNS servers are only kept if they resolve back to the address. The resolver of the
+         * JVM always confirms host names.
+         */
+        public Builder confirm(boolean confirm) {
+            this.confirm = confirm;
+            return this;
+        }
+
+        /** Whether addresses without a host name are included in the results, with a null host name */
+        public Builder includeUnresolved(boolean includeUnresolved) {
+            this.includeUnresolved = includeUnresolved;
+            return this;
+        }
+
+        /** @throws IllegalArgumentException if the settings are not valid */
+        public RdnsScanner build() {
+            if (parallelism < 1 || timeoutMillis <= 0 || retries < 0) {
+                throw new IllegalArgumentException("Parallelism and timeout must be positive and retries must not " +
+                        "be negative");
+            }
+            if (hedge && dnsServers.size() < 2) {
+                throw new IllegalArgumentException("Hedging requires at least two DNS servers");
+            }
+            return new RdnsScanner(this);
+        }
+    }
+
+    /**
+     * Submits lookups as results are taken, keeping up to the maximum number in flight, so the consumer drives the
+     * lookups. Results are taken from the engine one at a time, so only the results the engine holds back are kept.
+     */
+    static class Lookups extends Spliterators.AbstractSpliterator<Result> {
+        private final Iterator<InetAddressRange> ranges;
+        private final LookupEngine engine;
+        private final boolean includeUnresolved;
+        private final LookupEngine.ResultHandler handler = this::handle;
+        private Iterator<InetAddress> addresses = Collections.emptyIterator();
+        private Result result;
+
+        Lookups(List<InetAddressRange> ranges, Resolver resolver, int maxInFlight, int reorderLimit,
+                Path spillDirectory, boolean includeUnresolved) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+            this.ranges = ranges.iterator();
+            this.engine = new LookupEngine(resolver, maxInFlight, reorderLimit, spillDirectory);
+            this.includeUnresolved = includeUnresolved;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Result> action) {
+            try {
+                while (true) {
+                    if (addresses.hasNext()) {
+                        if (!engine.poll(handler)) {
+                            engine.submit(addresses.next());
+                            continue;
+                        }
+                    } else if (ranges.hasNext()) {
+                        addresses = ranges.next().iterator();
+                        continue;
+                    } else if (!engine.next(handler)) {
+                        return false;
+                    }
+
+                    Result taken = result;
+                    result = null;
+                    if (taken.hostName != null || includeUnresolved) {
+                        action.accept(taken);
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /** Most results held in memory at once while waiting for slower lookups */
+        int getMaxHeld() {
+            return engine.getMaxHeld();
+        }
+
+        /** Deletes the results the engine spilled to disk, if the stream was not read to the end */
+        void close() {
+            try {
+                engine.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void handle(InetAddress address, String hostName) {
+            String hostAddress = address.getHostAddress();
+            result = new Result(address, hostAddress, hostAddress.equals(hostName) ? null : hostName);
+        }
+    }
+}
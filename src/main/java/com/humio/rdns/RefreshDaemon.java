@@ -0,0 +1,342 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the results of looking up the ranges in memory and refreshes them for as long as it runs. Every address is
+ * looked up once per refresh interval, at an even pace over the interval instead of in one burst, and the results are
+ * published after each sweep if they changed. A lookup that fails keeps the previous result of the address, so a DNS
+ * outage does not empty the lookup file, and only a lookup that completes without a host name removes it. Resolvers
+ * must therefore fail lookups they do not know the answer to, as {@link SystemResolver} does.
+ *
+ * <p>The ranges are checked for changes every second. Results of addresses that are no longer in the ranges are
+ * dropped, and addresses that were added are looked up right away, without waiting for the next sweep.
+ */
+class RefreshDaemon {
+    /** Nanoseconds between checks of whether the ranges changed */
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Lookups are not delayed for the pace if they are less than this ahead of it */
+    private static final long MIN_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Callbacks callbacks;
+    private final long intervalNanos;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final PrintStream log;
+
+    /** Host names of the addresses that have one */
+    private final ResultStore hostNames = new ResultStore();
+    private final AtomicLong changes = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile List<InetAddressRange> ranges;
+    private long nextCheck;
+    private long sweeps;
+
+    /** The number of changes when the results were last published */
+    private long published = -1;
+
+    RefreshDaemon(Callbacks callbacks, long intervalNanos, int maxInFlight, PrintStream log) {
+        if (intervalNanos <= 0 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Interval and number of lookups in flight must be positive");
+        }
+
+        this.callbacks = callbacks;
+        this.intervalNanos = intervalNanos;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.log = log;
+    }
+
+    /** Refreshes the results of the normalized ranges until stopped */
+    void run(List<InetAddressRange> initialRanges) throws Exception {
+        ranges = initialRanges;
+        nextCheck = System.nanoTime() + CHECK_INTERVAL_NANOS;
+
+        while (!isStopped()) {
+            long start = System.nanoTime();
+            long end = start + intervalNanos;
+            sweep(start, end);
+
+            if (isStopped()) {
+                return;
+            }
+
+            log.println("Refreshed " + InetAddressRange.totalSize(ranges) + " addresses in " +
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " s, " + hostNames.size() +
+                    " have a host name");
+            sweeps++;
+            publishIfChanged();
+            callbacks.swept();
+
+            // The last lookups are paced to start just before the end, so this only waits for stragglers
+            while (!isStopped() && System.nanoTime() - end < 0) {
+                pause(Math.min(end, nextCheck) - System.nanoTime());
+                if (System.nanoTime() - nextCheck >= 0) {
+                    checkRanges(null);
+                }
+            }
+        }
+    }
+
+    /** Stops refreshing, letting the current lookups complete */
+    void stop() {
+        stopped.countDown();
+    }
+
+    /** Writes the current results as CSV, sorted by address */
+    void writeTo(Writer out) throws IOException {
+        hostNames.writeTo(out);
+    }
+
+    /** Number of addresses that currently have a host name */
+    int size() {
+        return hostNames.size();
+    }
+
+    /** Number of times a result changed so far */
+    long getChanges() {
+        return changes.get();
+    }
+
+    private boolean isStopped() {
+        return stopped.getCount() == 0;
+    }
+
+    /** Looks up every address of the ranges, spreading the lookups evenly until the end */
+    private void sweep(long start, long end) throws Exception {
+        try (Resolver resolver = callbacks.createResolver(ranges)) {
+            Position position = new Position(ranges);
+            boolean more = position.next();
+            long paceStart = start;
+            BigInteger paceTotal = InetAddressRange.totalSize(ranges);
+            long paceDone = 0;
+
+            while (more && !isStopped()) {
+                long now = System.nanoTime();
+
+                if (now - nextCheck >= 0) {
+                    List<InetAddressRange> previous = ranges;
+                    checkRanges(resolver);
+
+                    if (ranges != previous) {
+                        // Continue with the new ranges after the same address, at a pace that still ends on time
+                        position = position.continueIn(ranges);
+                        more = position.next();
+                        paceStart = now;
+                        paceTotal = position.remaining();
+                        paceDone = 0;
+                    }
+                    continue;
+                }
+
+                long due = paceStart + BigInteger.valueOf(end - paceStart).multiply(BigInteger.valueOf(paceDone))
+                        .divide(paceTotal.max(BigInteger.ONE)).longValue();
+                if (due - now >= MIN_PAUSE_NANOS) {
+                    pause(Math.min(due, nextCheck) - now);
+                    continue;
+                }
+
+                lookUp(resolver, position.size, position.hi, position.lo);
+                paceDone++;
+                more = position.next();
+            }
+
+            // Wait for the lookups in flight, which use the resolver
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        }
+    }
+
+    /**
+     * Checks whether the ranges changed. If they did, results of removed addresses are dropped, added addresses are
+     * looked up, and the results are published unless the first sweep is still running.
+     *
+     * @param resolver the resolver of the current sweep, or null to create one for the added addresses
+     */
+    private void checkRanges(Resolver resolver) throws Exception {
+        nextCheck = System.nanoTime() + CHECK_INTERVAL_NANOS;
+
+        List<InetAddressRange> changed = callbacks.checkRanges();
+        if (changed == null) {
+            return;
+        }
+
+        List<InetAddressRange> added = InetAddressRange.subtract(changed, ranges);
+        ranges = changed;
+
+        changes.addAndGet(hostNames.retainAll(changed));
+
+        log.println("Ranges changed, looking up " + InetAddressRange.totalSize(added) + " added addresses");
+        if (resolver != null) {
+            lookUpAll(added, resolver);
+        } else if (!added.isEmpty()) {
+            try (Resolver addedResolver = callbacks.createResolver(added)) {
+                lookUpAll(added, addedResolver);
+            }
+        }
+
+        if (sweeps > 0) {
+            publishIfChanged();
+        }
+    }
+
+    /** Looks up all addresses of the ranges as fast as the lookups in flight allow, and waits for them */
+    private void lookUpAll(List<InetAddressRange> addresses, Resolver resolver) throws InterruptedException {
+        for (InetAddressRange range : addresses) {
+            InetAddressRange.Cursor cursor = range.cursor();
+            while (!isStopped() && cursor.next()) {
+                lookUp(resolver, range.getAddressSize(), cursor.hi(), cursor.lo());
+            }
+        }
+
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    private void publishIfChanged() {
+        long current = changes.get();
+        if (current == published) {
+            return;
+        }
+
+        try {
+            if (callbacks.publish(this)) {
+                published = current;
+            }
+        } catch (Exception e) {
+            // Tried again after the next sweep or change of the ranges
+            log.println("Failed publishing results: " + e);
+        }
+    }
+
+    private void lookUp(Resolver resolver, int size, long hi, long lo) throws InterruptedException {
+        inFlight.acquire();
+
+        InetAddress address = InetAddressRange.toAddress(size, hi, lo);
+
+        try {
+            resolver.resolve(address).whenComplete((resolution, e) -> {
+                try {
+                    if (e == null) {
+                        update(size, hi, lo, address, resolution.hostName);
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void update(int size, long hi, long lo, InetAddress address, String hostName) {
+        // The ranges may have changed while the lookup was in flight
+        if (!InetAddressRange.contains(ranges, size, hi, lo)) {
+            return;
+        }
+
+        if (hostName == null || hostName.equals(address.getHostAddress())) {
+            if (hostNames.remove(size, hi, lo)) {
+                changes.incrementAndGet();
+            }
+        } else if (hostNames.put(size, hi, lo, hostName)) {
+            changes.incrementAndGet();
+        }
+    }
+
+    private void pause(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            stopped.await(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** What the daemon needs from its host */
+    interface Callbacks {
+        /** Returns the new normalized ranges if they changed since the last call, and otherwise null */
+        List<InetAddressRange> checkRanges() throws IOException;
+
+        /** Creates the resolver for a sweep over the ranges, which is closed at the end of the sweep */
+        Resolver createResolver(List<InetAddressRange> ranges) throws IOException;
+
+        /** Publishes the results, returning false if that failed and should be retried */
+        boolean publish(RefreshDaemon daemon) throws Exception;
+
+        /** Called after every sweep */
+        void swept();
+    }
+
+    /** An address in the ranges, moving through them in order */
+    private static class Position {
+        private final List<InetAddressRange> ranges;
+        private int index = -1;
+        private InetAddressRange.Cursor cursor;
+
+        int size;
+        long hi, lo;
+
+        Position(List<InetAddressRange> ranges) {
+            this.ranges = ranges;
+        }
+
+        /** Moves to the next address, returning false if there are no more */
+        boolean next() {
+            while (cursor == null || !cursor.next()) {
+                if (++index >= ranges.size()) {
+                    return false;
+                }
+                cursor = ranges.get(index).cursor();
+            }
+
+            size = ranges.get(index).getAddressSize();
+            hi = cursor.hi();
+            lo = cursor.lo();
+            return true;
+        }
+
+        /** Returns a position before the addresses of the other ranges from this address on */
+        Position continueIn(List<InetAddressRange> other) {
+            List<InetAddressRange> rest = new ArrayList<>();
+
+            for (InetAddressRange range : other) {
+                int order = range.getAddressSize() != size
+                        ? Integer.compare(range.getAddressSize(), size)
+                        : InetAddressRange.compare(range.getLastHi(), range.getLastLo(), hi, lo);
+
+                if (order < 0) {
+                    continue;
+                }
+
+                if (range.getAddressSize() == size
+                        && InetAddressRange.compare(range.getFirstHi(), range.getFirstLo(), hi, lo) < 0) {
+                    rest.add(InetAddressRange.of(size, hi, lo, range.getLastHi(), range.getLastLo()));
+                } else {
+                    rest.add(range);
+                }
+            }
+
+            return new Position(rest);
+        }
+
+        /** Number of addresses from the current one on, right after the first call to {@link #next()} */
+        BigInteger remaining() {
+            BigInteger remaining = BigInteger.ZERO;
+            for (int i = Math.max(index, 0); i < ranges.size(); i++) {
+                remaining = remaining.add(ranges.get(i).size());
+            }
+            return remaining;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.humio.rdns;
+
+import java.net.InetAddress;
+
+/** The result of a reverse lookup: the host name of an address, if it has one, and how long it may be cached */
+class Resolution {
+    /** Time to live of results where the resolver does not know it */
+    static final long UNKNOWN_TTL = -1;
+
+    private static final Resolution NONE = new Resolution(null, UNKNOWN_TTL);
+
+    /** The host name, or null if the address has none */
+    final String hostName;
+
+    /** Seconds the result may be cached for, or {@link #UNKNOWN_TTL} */
+    final long ttl;
+
+    private Resolution(String hostName, long ttl) {
+        this.hostName = hostName;
+        this.ttl = ttl;
+    }
+
+    static Resolution of(String hostName, long ttl) {
+        return new Resolution(hostName, ttl);
+    }
+
+    static Resolution none(long ttl) {
+        return ttl == UNKNOWN_TTL ? NONE : new Resolution(null, ttl);
+    }
+
+    /** Returns the host name, or the textual representation of the address if it has none */
+    String hostNameOr(InetAddress address) {
+        return hostName != null ? hostName : address.getHostAddress();
+    }
+}
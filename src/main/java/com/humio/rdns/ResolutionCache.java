@@ -0,0 +1,334 @@
+package com.humio.rdns;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent cache of reverse lookups in a single memory-mapped file. The file has a header, an open addressing hash
+ * table of fixed-size slots keyed by address, and a heap with the host names the slots point into.
+ *
+ * <p>Each slot stores when the entry was stored and the TTL it was stored with, so the maximum age can differ between
+ * runs. Entries without a host name record negative results.
+ */
+class ResolutionCache implements Closeable {
+    private static final long MAGIC = 0x52444e5343414348L; // "RDNSCACH"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int COUNT_OFFSET = 16;
+    private static final int HEAP_USED_OFFSET = 20;
+
+    private static final int SLOT_SIZE = 32;
+    private static final int SLOT_HI = 0;
+    private static final int SLOT_LO = 8;
+    private static final int SLOT_STORED_AT = 16;
+    private static final int SLOT_TTL = 20;
+    private static final int SLOT_NAME_OFFSET = 24;
+    private static final int SLOT_NAME_LENGTH = 28;
+    private static final int SLOT_FLAGS = 30;
+
+    private static final short FLAG_USED = 1;
+    private static final short FLAG_IPV6 = 2;
+    private static final short FLAG_NEGATIVE = 4;
+
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int INITIAL_HEAP_SIZE = 1 << 16;
+
+    /** The table is grown when more than this fraction of it is used */
+    private static final double MAX_LOAD = 0.6;
+
+    private final Path path;
+    private final long maxAgeSeconds;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private int heapStart;
+    private int heapUsed;
+
+    private ResolutionCache(Path path, long maxAgeSeconds) {
+        this.path = path;
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * Opens the cache in the file, creating it if it does not exist. Entries are considered stale once they are older
+     * than their TTL or the maximum age, whichever is shorter.
+     */
+    static ResolutionCache open(Path path, long maxAgeSeconds) throws IOException {
+        if (maxAgeSeconds < 0) {
+            throw new IllegalArgumentException("Maximum age must not be negative");
+        }
+
+        ResolutionCache cache = new ResolutionCache(path, maxAgeSeconds);
+
+        if (Files.exists(path) && Files.size(path) > 0) {
+            cache.map();
+        } else {
+            create(path, INITIAL_CAPACITY, INITIAL_HEAP_SIZE);
+            cache.map();
+        }
+
+        return cache;
+    }
+
+    /** Number of entries in the cache, both fresh and stale */
+    synchronized int size() {
+        return count;
+    }
+
+    /** Returns the cached result for the address, or null if there is none or it is stale */
+    synchronized Resolution get(int size, long hi, long lo, long nowMillis) {
+        int slot = find(size, hi, lo);
+        if (slot == -1) {
+            return null;
+        }
+
+        int position = slotPosition(slot);
+        long storedAt = buffer.getInt(position + SLOT_STORED_AT) & 0xFFFFFFFFL;
+        long ttl = buffer.getInt(position + SLOT_TTL);
+        long lifetime = ttl == Resolution.UNKNOWN_TTL ? maxAgeSeconds : Math.min(ttl, maxAgeSeconds);
+        long remaining = storedAt + lifetime - nowMillis / 1000;
+
+        if (remaining <= 0) {
+            return null;
+        }
+
+        if ((buffer.getShort(position + SLOT_FLAGS) & FLAG_NEGATIVE) != 0) {
+            return Resolution.none(remaining);
+        }
+
+        int nameOffset = buffer.getInt(position + SLOT_NAME_OFFSET);
+        int nameLength = buffer.getShort(position + SLOT_NAME_LENGTH) & 0xFFFF;
+        byte[] name = new byte[nameLength];
+        for (int i = 0; i < nameLength; i++) {
+            name[i] = buffer.get(heapStart + nameOffset + i);
+        }
+
+        return Resolution.of(new String(name, StandardCharsets.UTF_8), remaining);
+    }
+
+    /** Stores the result for the address, replacing any previous entry. Does nothing for absurdly long names. */
+    synchronized void put(int size, long hi, long lo, Resolution resolution, long nowMillis) throws IOException {
+        byte[] name = resolution.hostName == null ? null : resolution.hostName.getBytes(StandardCharsets.UTF_8);
+        if (name != null && name.length > 0xFFFF) {
+            return;
+        }
+
+        int slot = find(size, hi, lo);
+        boolean reuseName = slot != -1 && name != null && isStoredName(slotPosition(slot), name);
+        boolean tableFull = slot == -1 && count + 1 > capacity * MAX_LOAD;
+        boolean heapFull = name != null && !reuseName && heapStart + heapUsed + name.length > buffer.capacity();
+
+        if (tableFull || heapFull) {
+            rehash(tableFull ? capacity * 2 : capacity, name == null ? 0 : name.length);
+            slot = find(size, hi, lo);
+        }
+
+        if (slot == -1) {
+            slot = findFree(hi, lo);
+            count++;
+            buffer.putInt(COUNT_OFFSET, count);
+        }
+
+        int position = slotPosition(slot);
+        int nameOffset = 0;
+
+        if (reuseName) {
+            nameOffset = buffer.getInt(position + SLOT_NAME_OFFSET);
+        } else if (name != null) {
+            nameOffset = heapUsed;
+            for (int i = 0; i < name.length; i++) {
+                buffer.put(heapStart + heapUsed + i, name[i]);
+            }
+            heapUsed += name.length;
+            buffer.putInt(HEAP_USED_OFFSET, heapUsed);
+        }
+
+        long ttl = Math.min(resolution.ttl, Integer.MAX_VALUE);
+        short flags = (short) (FLAG_USED | (size == 16 ? FLAG_IPV6 : 0) | (name == null ? FLAG_NEGATIVE : 0));
+
+        buffer.putLong(position + SLOT_HI, hi);
+        buffer.putLong(position + SLOT_LO, lo);
+        buffer.putInt(position + SLOT_STORED_AT, (int) (nowMillis / 1000));
+        buffer.putInt(position + SLOT_TTL, (int) ttl);
+        buffer.putInt(position + SLOT_NAME_OFFSET, nameOffset);
+        buffer.putShort(position + SLOT_NAME_LENGTH, (short) (name == null ? 0 : name.length));
+        buffer.putShort(position + SLOT_FLAGS, flags);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private boolean isStoredName(int position, byte[] name) {
+        short flags = buffer.getShort(position + SLOT_FLAGS);
+        if ((flags & FLAG_USED) == 0 || (flags & FLAG_NEGATIVE) != 0
+                || (buffer.getShort(position + SLOT_NAME_LENGTH) & 0xFFFF) != name.length) {
+            return false;
+        }
+
+        int nameOffset = buffer.getInt(position + SLOT_NAME_OFFSET);
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(heapStart + nameOffset + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the slot with the address, or -1 if it is not in the table */
+    private int find(int size, long hi, long lo) {
+        short family = size == 16 ? FLAG_IPV6 : 0;
+
+        for (int slot = hash(hi, lo) & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+            int position = slotPosition(slot);
+            short flags = buffer.getShort(position + SLOT_FLAGS);
+
+            if ((flags & FLAG_USED) == 0) {
+                return -1;
+            }
+            if ((flags & FLAG_IPV6) == family && buffer.getLong(position + SLOT_HI) == hi
+                    && buffer.getLong(position + SLOT_LO) == lo) {
+                return slot;
+            }
+        }
+    }
+
+    private int findFree(long hi, long lo) {
+        for (int slot = hash(hi, lo) & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+            if ((buffer.getShort(slotPosition(slot) + SLOT_FLAGS) & FLAG_USED) == 0) {
+                return slot;
+            }
+        }
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L + lo;
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Copies all entries to a new file with the given capacity and room for at least the given number of extra heap
+     * bytes, dropping host names that are no longer used, and replaces the current file with it.
+     */
+    private void rehash(int newCapacity, int extraHeap) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long heapSize = Math.max(INITIAL_HEAP_SIZE, 2L * (heapUsed + extraHeap));
+
+        if ((long) HEADER_SIZE + (long) newCapacity * SLOT_SIZE + heapSize > Integer.MAX_VALUE) {
+            throw new IOException("Resolution cache " + path + " is full");
+        }
+
+        create(temp, newCapacity, (int) heapSize);
+
+        try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer target = tempChannel.map(FileChannel.MapMode.READ_WRITE, 0, tempChannel.size());
+            int targetHeapStart = HEADER_SIZE + newCapacity * SLOT_SIZE;
+            int targetHeapUsed = 0;
+
+            for (int slot = 0; slot < capacity; slot++) {
+                int position = slotPosition(slot);
+                short flags = buffer.getShort(position + SLOT_FLAGS);
+                if ((flags & FLAG_USED) == 0) {
+                    continue;
+                }
+
+                long hi = buffer.getLong(position + SLOT_HI);
+                long lo = buffer.getLong(position + SLOT_LO);
+                int targetSlot = hash(hi, lo) & (newCapacity - 1);
+                while ((target.getShort(slotPosition(targetSlot) + SLOT_FLAGS) & FLAG_USED) != 0) {
+                    targetSlot = (targetSlot + 1) & (newCapacity - 1);
+                }
+
+                int targetPosition = slotPosition(targetSlot);
+                int nameOffset = buffer.getInt(position + SLOT_NAME_OFFSET);
+                int nameLength = buffer.getShort(position + SLOT_NAME_LENGTH) & 0xFFFF;
+
+                for (int i = 0; i < nameLength; i++) {
+                    target.put(targetHeapStart + targetHeapUsed + i, buffer.get(heapStart + nameOffset + i));
+                }
+
+                for (int i = 0; i < SLOT_SIZE; i++) {
+                    target.put(targetPosition + i, buffer.get(position + i));
+                }
+                target.putInt(targetPosition + SLOT_NAME_OFFSET, targetHeapUsed);
+                targetHeapUsed += nameLength;
+            }
+
+            target.putInt(COUNT_OFFSET, count);
+            target.putInt(HEAP_USED_OFFSET, targetHeapUsed);
+            target.force();
+        }
+
+        close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map();
+    }
+
+    private static void create(Path path, int capacity, int heapSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC_OFFSET, MAGIC);
+            header.putInt(VERSION_OFFSET, VERSION);
+            header.putInt(CAPACITY_OFFSET, capacity);
+            header.putInt(COUNT_OFFSET, 0);
+            header.putInt(HEAP_USED_OFFSET, 0);
+            channel.write(header);
+
+            // Extend the file with zeros, which are empty slots
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) capacity * SLOT_SIZE + heapSize - 1);
+        }
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a resolution cache");
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+
+            if (buffer.getLong(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION) {
+                throw new IOException(path + " is not a resolution cache");
+            }
+
+            capacity = buffer.getInt(CAPACITY_OFFSET);
+            count = buffer.getInt(COUNT_OFFSET);
+            heapUsed = buffer.getInt(HEAP_USED_OFFSET);
+            heapStart = HEADER_SIZE + capacity * SLOT_SIZE;
+
+            if (Integer.bitCount(capacity) != 1 || heapStart + (long) heapUsed > buffer.capacity()) {
+                throw new IOException(path + " is corrupt");
+            }
+        } catch (IOException e) {
+            channel.close();
+            channel = null;
+            throw e;
+        }
+    }
+}
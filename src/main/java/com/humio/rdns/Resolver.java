@@ -0,0 +1,14 @@
+package com.humio.rdns;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+
+/** Resolves the host name of an address, possibly asynchronously */
+interface Resolver extends Closeable {
+    /**
+     * Starts resolving the host name of the address. If the lookup could not be completed, for example because it
+     * timed out, the returned future fails with an {@link java.io.IOException}.
+     */
+    CompletableFuture<Resolution> resolve(InetAddress address);
+}
@@ -0,0 +1,71 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Differences between two result files, counted by merging them row by row. Both files must be sorted by address as
+ * written by {@link RdnsLookup}, so neither has to fit in memory.
+ */
+class ResultDiff {
+    private long added, removed, changed;
+
+    private ResultDiff() {
+    }
+
+    /** Compares the rows of the previous results with those of the current results */
+    static ResultDiff compare(Reader previous, Reader current) throws IOException {
+        ResultDiff diff = new ResultDiff();
+
+        ResultRows previousRows = new ResultRows(previous);
+        ResultRows currentRows = new ResultRows(current);
+
+        while (previousRows.current != null || currentRows.current != null) {
+            int order;
+            if (previousRows.current == null) {
+                order = 1;
+            } else if (currentRows.current == null) {
+                order = -1;
+            } else {
+                order = previousRows.current.compareTo(currentRows.current);
+            }
+
+            if (order < 0) {
+                diff.removed++;
+                previousRows.next();
+            } else if (order > 0) {
+                diff.added++;
+                currentRows.next();
+            } else {
+                if (!previousRows.current.hostName.equals(currentRows.current.hostName)) {
+                    diff.changed++;
+                }
+                previousRows.next();
+                currentRows.next();
+            }
+        }
+
+        return diff;
+    }
+
+    long getAdded() {
+        return added;
+    }
+
+    long getRemoved() {
+        return removed;
+    }
+
+    long getChanged() {
+        return changed;
+    }
+
+    boolean isEmpty() {
+        return added == 0 && removed == 0 && changed == 0;
+    }
+
+    @Override
+    public String toString() {
+        return added + " added, " + removed + " removed and " + changed + " changed rows";
+    }
+}
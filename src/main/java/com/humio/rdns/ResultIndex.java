@@ -0,0 +1,287 @@
+package com.humio.rdns;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary index of the host names of addresses, for looking up results locally without parsing the lookup file. The
+ * file is memory-mapped and searched in place, so opening it does not depend on its size. All numbers are big endian:
+ *
+ * <pre>
+ *   magic "RDNS", version, number of IPv4 entries, number of IPv6 entries, size of the name heap, all as int
+ *   IPv4 entries of the address and the offset of its name in the heap, as int, sorted by unsigned address
+ *   IPv6 entries of the high and low 64 bits of the address as long and the offset of its name as int, sorted
+ *   the name heap, where every distinct host name is stored once as its length in unsigned short and UTF-8 bytes
+ * </pre>
+ */
+class ResultIndex {
+    private static final int MAGIC = 0x52444e53;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int IPV4_ENTRY_SIZE = 4 + 4;
+    private static final int IPV6_ENTRY_SIZE = 8 + 8 + 4;
+
+    private final ByteBuffer buffer;
+    private final int ipv4Count;
+    private final int ipv6Count;
+    private final int ipv6Start;
+    private final int heapStart;
+
+    private ResultIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an index of results");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported index version " + buffer.getInt(4));
+        }
+
+        long ipv6Start = HEADER_SIZE + (long) buffer.getInt(8) * IPV4_ENTRY_SIZE;
+        long heapStart = ipv6Start + (long) buffer.getInt(12) * IPV6_ENTRY_SIZE;
+        if (buffer.getInt(8) < 0 || buffer.getInt(12) < 0 || heapStart + buffer.getInt(16) != buffer.limit()) {
+            throw new IOException("Index is truncated or corrupt");
+        }
+
+        this.buffer = buffer;
+        this.ipv4Count = buffer.getInt(8);
+        this.ipv6Count = buffer.getInt(12);
+        this.ipv6Start = (int) ipv6Start;
+        this.heapStart = (int) heapStart;
+    }
+
+    /** Maps the index file into memory */
+    static ResultIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index is larger than 2 GB");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ResultIndex(buffer);
+        }
+    }
+
+    /** Returns the host name of the address, or null if it does not have one. Safe to call from several threads. */
+    String lookUp(InetAddress address) {
+        byte[] bytes = address.getAddress();
+
+        if (bytes.length == 4) {
+            int key = (int) InetAddressRange.lo(bytes);
+            int low = 0;
+            int high = ipv4Count - 1;
+
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int entry = HEADER_SIZE + middle * IPV4_ENTRY_SIZE;
+                int order = Integer.compareUnsigned(buffer.getInt(entry), key);
+
+                if (order < 0) {
+                    low = middle + 1;
+                } else if (order > 0) {
+                    high = middle - 1;
+                } else {
+                    return name(buffer.getInt(entry + 4));
+                }
+            }
+        } else {
+            long hi = InetAddressRange.hi(bytes);
+            long lo = InetAddressRange.lo(bytes);
+            int low = 0;
+            int high = ipv6Count - 1;
+
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int entry = ipv6Start + middle * IPV6_ENTRY_SIZE;
+                int order = InetAddressRange.compare(buffer.getLong(entry), buffer.getLong(entry + 8), hi, lo);
+
+                if (order < 0) {
+                    low = middle + 1;
+                } else if (order > 0) {
+                    high = middle - 1;
+                } else {
+                    return name(buffer.getInt(entry + 16));
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /** Number of addresses in the index */
+    int size() {
+        return ipv4Count + ipv6Count;
+    }
+
+    private String name(int offset) {
+        int position = heapStart + offset;
+        byte[] bytes = new byte[buffer.getShort(position) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(position + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Collects the host names of addresses and writes them as an index */
+    static class Builder {
+        private final Map<String, Integer> nameOffsets = new HashMap<>();
+        private final DynamicBytes heap = new DynamicBytes();
+
+        /** IPv4 entries as the address with the sign bit flipped, so signed order is unsigned order, and the offset */
+        private long[] ipv4 = new long[16];
+        private int ipv4Count;
+
+        /** IPv6 entries as the high and low bits and the offset, in three longs */
+        private long[] ipv6 = new long[3 * 16];
+        private int ipv6Count;
+
+        /** Adds the host name of an address. If an address is added more than once, one of its names is kept. */
+        void add(InetAddress address, String hostName) {
+            byte[] bytes = address.getAddress();
+            int offset = nameOffset(hostName);
+
+            if (bytes.length == 4) {
+                if (ipv4Count == ipv4.length) {
+                    ipv4 = Arrays.copyOf(ipv4, ipv4.length * 2);
+                }
+                ipv4[ipv4Count++] = ((InetAddressRange.lo(bytes) ^ 0x80000000L) << 32) | offset;
+            } else {
+                if (3 * ipv6Count == ipv6.length) {
+                    ipv6 = Arrays.copyOf(ipv6, ipv6.length * 2);
+                }
+                ipv6[3 * ipv6Count] = InetAddressRange.hi(bytes);
+                ipv6[3 * ipv6Count + 1] = InetAddressRange.lo(bytes);
+                ipv6[3 * ipv6Count + 2] = offset;
+                ipv6Count++;
+            }
+        }
+
+        /** Number of addresses added so far */
+        int size() {
+            return ipv4Count + ipv6Count;
+        }
+
+        /** Writes the index next to the file and then moves it there, so readers never see a partial index */
+        void write(Path file) throws IOException {
+            Arrays.sort(ipv4, 0, ipv4Count);
+            sortIpv6();
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                int ipv4Written = distinctIpv4();
+                int ipv6Written = distinctIpv6();
+
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ipv4Written);
+                out.writeInt(ipv6Written);
+                out.writeInt(heap.size());
+
+                for (int i = 0; i < ipv4Written; i++) {
+                    out.writeInt((int) (ipv4[i] >>> 32) ^ 0x80000000);
+                    out.writeInt((int) ipv4[i]);
+                }
+                for (int i = 0; i < ipv6Written; i++) {
+                    out.writeLong(ipv6[3 * i]);
+                    out.writeLong(ipv6[3 * i + 1]);
+                    out.writeInt((int) ipv6[3 * i + 2]);
+                }
+                heap.writeTo(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private int nameOffset(String hostName) {
+            Integer offset = nameOffsets.get(hostName);
+            if (offset == null) {
+                byte[] bytes = hostName.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xFFFF) {
+                    throw new IllegalArgumentException("Host name is too long: " + hostName);
+                }
+
+                offset = heap.size();
+                heap.writeShort(bytes.length);
+                heap.append(bytes);
+                nameOffsets.put(hostName, offset);
+            }
+            return offset;
+        }
+
+        /** Sorts the IPv6 entries by address, which lookups usually add in order already */
+        private void sortIpv6() {
+            boolean sorted = true;
+            for (int i = 1; sorted && i < ipv6Count; i++) {
+                sorted = compareIpv6(i - 1, i) <= 0;
+            }
+            if (sorted) {
+                return;
+            }
+
+            Integer[] order = new Integer[ipv6Count];
+            for (int i = 0; i < ipv6Count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, this::compareIpv6);
+
+            long[] sortedEntries = new long[3 * ipv6Count];
+            for (int i = 0; i < ipv6Count; i++) {
+                System.arraycopy(ipv6, 3 * order[i], sortedEntries, 3 * i, 3);
+            }
+            ipv6 = sortedEntries;
+        }
+
+        private int compareIpv6(int first, int second) {
+            return InetAddressRange.compare(ipv6[3 * first], ipv6[3 * first + 1], ipv6[3 * second],
+                    ipv6[3 * second + 1]);
+        }
+
+        /** Removes entries of the same address from the sorted IPv4 entries, returning how many are left */
+        private int distinctIpv4() {
+            int count = 0;
+            for (int i = 0; i < ipv4Count; i++) {
+                if (count == 0 || ipv4[i] >>> 32 != ipv4[count - 1] >>> 32) {
+                    ipv4[count++] = ipv4[i];
+                }
+            }
+            ipv4Count = count;
+            return count;
+        }
+
+        /** Removes entries of the same address from the sorted IPv6 entries, returning how many are left */
+        private int distinctIpv6() {
+            int count = 0;
+            for (int i = 0; i < ipv6Count; i++) {
+                if (count == 0 || compareIpv6(i, count - 1) != 0) {
+                    System.arraycopy(ipv6, 3 * i, ipv6, 3 * count, 3);
+                    count++;
+                }
+            }
+            ipv6Count = count;
+            return count;
+        }
+    }
+
+    /** Byte array output with access to the size, for building the name heap */
+    private static class DynamicBytes extends ByteArrayOutputStream {
+        void writeShort(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+
+        void append(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.humio.rdns;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges result files that are each sorted by address, such as the partial results of the shards of a scan, into one
+ * sorted result file. Only the current row of each file is held in memory, so the files can be of any size.
+ */
+class ResultMerger {
+    private ResultMerger() {
+    }
+
+    /**
+     * Writes the rows of all the inputs to the output as CSV, sorted by address, and returns the number of rows
+     * written. If an address is in more than one input, only the row of the first of them is written.
+     */
+    static long merge(List<Reader> inputs, Writer out) throws IOException {
+        PriorityQueue<Input> queue = new PriorityQueue<>(Math.max(1, inputs.size()));
+
+        for (int i = 0; i < inputs.size(); i++) {
+            Input input = new Input(i, new ResultRows(inputs.get(i)));
+            if (input.rows.current != null) {
+                queue.add(input);
+            }
+        }
+
+        CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader("ip", "hostname"));
+        ResultRows.Row last = null;
+        long rows = 0;
+
+        while (!queue.isEmpty()) {
+            Input input = queue.remove();
+            ResultRows.Row row = input.rows.current;
+
+            if (last == null || last.compareTo(row) != 0) {
+                printer.printRecord(row.ip, row.hostName);
+                rows++;
+                last = row;
+            }
+
+            input.rows.next();
+            if (input.rows.current != null) {
+                queue.add(input);
+            }
+        }
+
+        printer.flush();
+        return rows;
+    }
+
+    private static class Input implements Comparable<Input> {
+        final int index;
+        final ResultRows rows;
+
+        Input(int index, ResultRows rows) {
+            this.index = index;
+            this.rows = rows;
+        }
+
+        @Override
+        public int compareTo(Input other) {
+            int order = rows.current.compareTo(other.rows.current);
+            return order != 0 ? order : Integer.compare(index, other.index);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.humio.rdns;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+
+/** Iterates the rows of a result file written by {@link RdnsLookup}, checking that they are sorted by address */
+class ResultRows {
+    private final Iterator<CSVRecord> records;
+
+    /** The current row, or null after the last row */
+    Row current;
+
+    ResultRows(Reader in) throws IOException {
+        this.records = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(in).iterator();
+        next();
+    }
+
+    void next() throws IOException {
+        Row previous = current;
+
+        if (!records.hasNext()) {
+            current = null;
+            return;
+        }
+
+        CSVRecord record = records.next();
+        if (record.size() < 2) {
+            throw new IOException("Row " + record.getRecordNumber() + " does not have an address and host name");
+        }
+
+        try {
+            current = new Row(record.get(0), InetAddressRange.parse(record.get(0)), record.get(1));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Row " + record.getRecordNumber() + ": " + e.getMessage(), e);
+        }
+
+        if (previous != null && previous.compareTo(current) >= 0) {
+            throw new IOException("Row " + record.getRecordNumber() + " is not sorted by address");
+        }
+    }
+
+    static class Row implements Comparable<Row> {
+        /** The address as written in the file */
+        final String ip;
+        final InetAddressRange address;
+        final String hostName;
+
+        Row(String ip, InetAddressRange address, String hostName) {
+            this.ip = ip;
+            this.address = address;
+            this.hostName = hostName;
+        }
+
+        @Override
+        public int compareTo(Row other) {
+            return InetAddressRange.ORDER.compare(address, other.address);
+        }
+    }
+}
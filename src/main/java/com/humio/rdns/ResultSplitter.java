@@ -0,0 +1,107 @@
+package com.humio.rdns;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits results sorted by address into parts of at most a number of rows, so each part is a lookup file of its own.
+ * As the parts are split in address order, each holds the addresses between its first and last, which the manifest
+ * lists so queries know which part to look an address up in.
+ */
+class ResultSplitter {
+    private ResultSplitter() {
+    }
+
+    /** Opens the writer of a part */
+    interface Parts {
+        Writer open(int index) throws IOException;
+    }
+
+    /**
+     * Writes the rows to parts of at most the given number of rows each, returning the parts written. Results
+     * without rows are written as one empty part, so the lookup file is still replaced.
+     */
+    static List<Part> split(Reader in, long rowsPerPart, String filename, Parts parts) throws IOException {
+        if (rowsPerPart < 1) {
+            throw new IllegalArgumentException("Rows per part must be positive");
+        }
+
+        List<Part> written = new ArrayList<>();
+        CSVPrinter printer = null;
+        Part part = null;
+
+        try {
+            for (CSVRecord record : CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(in)) {
+                if (part == null || part.rows == rowsPerPart) {
+                    if (printer != null) {
+                        printer.close();
+                    }
+                    part = new Part(partName(filename, written.size()));
+                    written.add(part);
+                    printer = new CSVPrinter(parts.open(written.size() - 1),
+                            CSVFormat.DEFAULT.withHeader("ip", "hostname"));
+                }
+
+                if (part.first == null) {
+                    part.first = record.get(0);
+                }
+                part.last = record.get(0);
+                part.rows++;
+                printer.printRecord(record.get(0), record.get(1));
+            }
+
+            if (written.isEmpty()) {
+                written.add(new Part(partName(filename, 0)));
+                printer = new CSVPrinter(parts.open(0), CSVFormat.DEFAULT.withHeader("ip", "hostname"));
+            }
+        } finally {
+            if (printer != null) {
+                printer.close();
+            }
+        }
+
+        return written;
+    }
+
+    /** Writes the manifest, with the file name, first and last address and number of rows of each part */
+    static void writeManifest(List<Part> parts, Writer out) throws IOException {
+        CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader("file", "first", "last", "rows"));
+        for (Part part : parts) {
+            printer.printRecord(part.filename, part.first != null ? part.first : "",
+                    part.last != null ? part.last : "", part.rows);
+        }
+        printer.flush();
+    }
+
+    /** Name of a part of the lookup file, where the part number is added before ".csv" */
+    static String partName(String filename, int index) {
+        return stem(filename) + "-" + index + ".csv";
+    }
+
+    /** Name of the manifest of the parts of the lookup file */
+    static String manifestName(String filename) {
+        return stem(filename) + "-manifest.csv";
+    }
+
+    private static String stem(String filename) {
+        return filename.endsWith(".csv") ? filename.substring(0, filename.length() - ".csv".length()) : filename;
+    }
+
+    static class Part {
+        final String filename;
+        /** The first and last address as written in the part, or null if it is empty */
+        String first, last;
+        long rows;
+
+        Part(String filename) {
+            this.filename = filename;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.humio.rdns;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Host names of addresses kept in memory in a fraction of the space of objects per row. Addresses are kept as
+ * primitives in parallel arrays sorted by address. Host names are split after their first label: the labels are
+ * appended to a shared byte array, and the rest of the names, which few distinct domains share, are kept once in a
+ * dictionary. Results are written as CSV without creating strings per row.
+ *
+ * <p>Lookups of a sweep complete in nearly the order of the addresses, so most entries are added at or near the end of
+ * the arrays. Safe to use from several threads.
+ */
+class ResultStore {
+    /** Suffix of host names without a dot */
+    private static final int NO_SUFFIX = -1;
+
+    /** Bytes of labels that are no longer used before they are compacted, if they are also most of the labels */
+    private static final int MIN_COMPACTED_BYTES = 1 << 20;
+
+    private byte[] sizes = new byte[16];
+    private long[] his = new long[16];
+    private long[] los = new long[16];
+    private int[] labels = new int[16];
+    private int[] suffixes = new int[16];
+    private int count;
+
+    /** The labels, each as its length in a byte followed by its UTF-8 bytes, only ever appended to */
+    private byte[] labelBytes = new byte[1024];
+    private int labelBytesUsed;
+    private int labelBytesUnused;
+
+    private final Map<String, Integer> suffixIds = new HashMap<>();
+    private final List<String> suffixNames = new ArrayList<>();
+
+    /**
+     * Sets the host name of an address, returning false if it already had that name
+     *
+     * @param size 4 for IPv4 and 16 for IPv6
+     */
+    synchronized boolean put(int size, long hi, long lo, String hostName) {
+        int dot = hostName.indexOf('.');
+        String label = dot != -1 ? hostName.substring(0, dot) : hostName;
+        int suffix = dot != -1 ? suffixId(hostName.substring(dot + 1)) : NO_SUFFIX;
+        byte[] labelUtf8 = label.getBytes(StandardCharsets.UTF_8);
+        if (labelUtf8.length > 255) {
+            // Labels are at most 63 bytes in DNS, so this is not a name from a PTR record
+            throw new IllegalArgumentException("Host name has a label longer than 255 bytes: " + hostName);
+        }
+
+        int index = find(size, hi, lo);
+        if (index >= 0) {
+            if (suffixes[index] == suffix && labelEquals(labels[index], labelUtf8)) {
+                return false;
+            }
+            labelBytesUnused += 1 + (labelBytes[labels[index]] & 0xFF);
+        } else {
+            index = -index - 1;
+            insert(index);
+            sizes[index] = (byte) size;
+            his[index] = hi;
+            los[index] = lo;
+        }
+
+        labels[index] = appendLabel(labelUtf8);
+        suffixes[index] = suffix;
+
+        compactIfWasteful();
+        return true;
+    }
+
+    /** Removes the host name of an address, returning false if it did not have one */
+    synchronized boolean remove(int size, long hi, long lo) {
+        int index = find(size, hi, lo);
+        if (index < 0) {
+            return false;
+        }
+
+        labelBytesUnused += 1 + (labelBytes[labels[index]] & 0xFF);
+        delete(index);
+        compactIfWasteful();
+        return true;
+    }
+
+    /** Returns the host name of an address, or null if it does not have one */
+    synchronized String get(int size, long hi, long lo) {
+        int index = find(size, hi, lo);
+        if (index < 0) {
+            return null;
+        }
+
+        StringBuilder hostName = new StringBuilder();
+        appendHostName(labelBytes, labels[index], suffixes[index] != NO_SUFFIX
+                ? suffixNames.get(suffixes[index]) : null, hostName);
+        return hostName.toString();
+    }
+
+    /** Removes the host names of addresses that are not in the normalized ranges, returning how many were removed */
+    synchronized int retainAll(List<InetAddressRange> ranges) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (InetAddressRange.contains(ranges, sizes[i], his[i], los[i])) {
+                move(i, kept++);
+            } else {
+                labelBytesUnused += 1 + (labelBytes[labels[i]] & 0xFF);
+            }
+        }
+
+        int removed = count - kept;
+        count = kept;
+        compactIfWasteful();
+        return removed;
+    }
+
+    /** Number of addresses that have a host name */
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Writes the host names as CSV, sorted by address. Works on a copy of the arrays, so changes are not blocked while
+     * the results are written.
+     */
+    void writeTo(Writer out) throws IOException {
+        byte[] sizes;
+        long[] his, los;
+        int[] labels, suffixes;
+        byte[] labelBytes;
+        String[] suffixNames;
+        int count;
+
+        synchronized (this) {
+            count = this.count;
+            sizes = Arrays.copyOf(this.sizes, count);
+            his = Arrays.copyOf(this.his, count);
+            los = Arrays.copyOf(this.los, count);
+            labels = Arrays.copyOf(this.labels, count);
+            suffixes = Arrays.copyOf(this.suffixes, count);
+            // Only ever appended to, and replaced rather than changed when compacted
+            labelBytes = this.labelBytes;
+            suffixNames = this.suffixNames.toArray(new String[0]);
+        }
+
+        CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader("ip", "hostname"));
+        StringBuilder ip = new StringBuilder(39);
+        StringBuilder hostName = new StringBuilder(64);
+
+        for (int i = 0; i < count; i++) {
+            ip.setLength(0);
+            appendAddress(sizes[i], his[i], los[i], ip);
+            hostName.setLength(0);
+            appendHostName(labelBytes, labels[i], suffixes[i] != NO_SUFFIX ? suffixNames[suffixes[i]] : null,
+                    hostName);
+
+            printer.print(ip);
+            printer.print(hostName);
+            printer.println();
+        }
+        printer.flush();
+    }
+
+    /** Appends the address as written by {@link java.net.InetAddress#getHostAddress()} */
+    static void appendAddress(int size, long hi, long lo, StringBuilder out) {
+        if (size == 4) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                out.append((lo >>> shift) & 0xFF);
+                if (shift > 0) {
+                    out.append('.');
+                }
+            }
+        } else {
+            for (int group = 0; group < 8; group++) {
+                long bits = group < 4 ? hi : lo;
+                int value = (int) (bits >>> (48 - (group % 4) * 16)) & 0xFFFF;
+                for (int shift = 12; shift >= 0; shift -= 4) {
+                    if (value >>> shift != 0 || shift == 0) {
+                        out.append(Character.forDigit((value >>> shift) & 0xF, 16));
+                    }
+                }
+                if (group < 7) {
+                    out.append(':');
+                }
+            }
+        }
+    }
+
+    private static void appendHostName(byte[] labelBytes, int label, String suffix, StringBuilder out) {
+        int length = labelBytes[label] & 0xFF;
+        boolean ascii = true;
+
+        for (int i = label + 1; i <= label + length; i++) {
+            if (labelBytes[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+
+        if (ascii) {
+            for (int i = label + 1; i <= label + length; i++) {
+                out.append((char) labelBytes[i]);
+            }
+        } else {
+            out.append(new String(labelBytes, label + 1, length, StandardCharsets.UTF_8));
+        }
+
+        if (suffix != null) {
+            out.append('.').append(suffix);
+        }
+    }
+
+    /** Returns the index of the address, or -(insertion point) - 1 if it is not there */
+    private int find(int size, long hi, long lo) {
+        // Most lookups complete in order, so check the end first
+        if (count == 0 || compare(count - 1, size, hi, lo) < 0) {
+            return -count - 1;
+        }
+
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = compare(middle, size, hi, lo);
+
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -low - 1;
+    }
+
+    private int compare(int index, int size, long hi, long lo) {
+        return sizes[index] != size
+                ? Integer.compare(sizes[index], size)
+                : InetAddressRange.compare(his[index], los[index], hi, lo);
+    }
+
+    private void insert(int index) {
+        if (count == sizes.length) {
+            int capacity = count * 2;
+            sizes = Arrays.copyOf(sizes, capacity);
+            his = Arrays.copyOf(his, capacity);
+            los = Arrays.copyOf(los, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            suffixes = Arrays.copyOf(suffixes, capacity);
+        }
+
+        int moved = count - index;
+        System.arraycopy(sizes, index, sizes, index + 1, moved);
+        System.arraycopy(his, index, his, index + 1, moved);
+        System.arraycopy(los, index, los, index + 1, moved);
+        System.arraycopy(labels, index, labels, index + 1, moved);
+        System.arraycopy(suffixes, index, suffixes, index + 1, moved);
+        count++;
+    }
+
+    private void delete(int index) {
+        int moved = count - index - 1;
+        System.arraycopy(sizes, index + 1, sizes, index, moved);
+        System.arraycopy(his, index + 1, his, index, moved);
+        System.arraycopy(los, index + 1, los, index, moved);
+        System.arraycopy(labels, index + 1, labels, index, moved);
+        System.arraycopy(suffixes, index + 1, suffixes, index, moved);
+        count--;
+    }
+
+    private void move(int from, int to) {
+        sizes[to] = sizes[from];
+        his[to] = his[from];
+        los[to] = los[from];
+        labels[to] = labels[from];
+        suffixes[to] = suffixes[from];
+    }
+
+    private int suffixId(String suffix) {
+        Integer id = suffixIds.get(suffix);
+        if (id == null) {
+            id = suffixNames.size();
+            suffixIds.put(suffix, id);
+            suffixNames.add(suffix);
+        }
+        return id;
+    }
+
+    private boolean labelEquals(int label, byte[] utf8) {
+        if ((labelBytes[label] & 0xFF) != utf8.length) {
+            return false;
+        }
+        for (int i = 0; i < utf8.length; i++) {
+            if (labelBytes[label + 1 + i] != utf8[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int appendLabel(byte[] utf8) {
+        if (labelBytesUsed + 1 + utf8.length > labelBytes.length) {
+            labelBytes = Arrays.copyOf(labelBytes, Math.max(labelBytes.length * 2, labelBytesUsed + 1 + utf8.length));
+        }
+
+        int offset = labelBytesUsed;
+        labelBytes[offset] = (byte) utf8.length;
+        System.arraycopy(utf8, 0, labelBytes, offset + 1, utf8.length);
+        labelBytesUsed += 1 + utf8.length;
+        return offset;
+    }
+
+    /** Copies the labels in use to a new array when most of the bytes are labels of replaced or removed names */
+    private void compactIfWasteful() {
+        if (labelBytesUnused < MIN_COMPACTED_BYTES || labelBytesUnused < labelBytesUsed / 2) {
+            return;
+        }
+
+        byte[] compacted = new byte[Math.max(1024, (labelBytesUsed - labelBytesUnused) * 2)];
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            int length = 1 + (labelBytes[labels[i]] & 0xFF);
+            System.arraycopy(labelBytes, labels[i], compacted, used, length);
+            labels[i] = used;
+            used += length;
+        }
+
+        labelBytes = compacted;
+        labelBytesUsed = used;
+        labelBytesUnused = 0;
+    }
+}
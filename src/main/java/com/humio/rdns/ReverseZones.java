@@ -0,0 +1,139 @@
+package com.humio.rdns;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Blocks of addresses named in in-addr.arpa and ip6.arpa, which are subnets on octet boundaries for IPv4 and nibble
+ * boundaries for IPv6.
+ */
+class ReverseZones {
+    private static final String IPV4_SUFFIX = ".in-addr.arpa";
+    private static final String IPV6_SUFFIX = ".ip6.arpa";
+
+    private ReverseZones() {
+    }
+
+    /** Number of prefix bits per label of reverse names */
+    static int step(int size) {
+        return size == 4 ? 8 : 4;
+    }
+
+    /** Number of prefix bits of the smallest blocks that are named, a /24 for IPv4 and a /124 for IPv6 */
+    static int leafBits(int size) {
+        return size * 8 - step(size);
+    }
+
+    /**
+     * Number of prefix bits of the smallest named block containing the whole range, or of the largest named blocks
+     * below the root if there is no such block
+     */
+    static int startBits(InetAddressRange range) {
+        int step = step(range.getAddressSize());
+        return Math.min(leafBits(range.getAddressSize()), Math.max(step, commonPrefix(range) / step * step));
+    }
+
+    /** Adds the subnets with the given number of prefix bits that contain the addresses of the range */
+    static void split(InetAddressRange range, int bits, List<InetAddressRange> subnets) {
+        long hi = range.getFirstHi(), lo = range.getFirstLo();
+
+        while (true) {
+            InetAddressRange subnet = InetAddressRange.cidr(range.getAddressSize(), hi, lo, bits);
+            subnets.add(subnet);
+
+            if (InetAddressRange.compare(subnet.getLastHi(), subnet.getLastLo(),
+                    range.getLastHi(), range.getLastLo()) >= 0) {
+                return;
+            }
+
+            lo = subnet.getLastLo() + 1;
+            hi = lo == 0 ? subnet.getLastHi() + 1 : subnet.getLastHi();
+        }
+    }
+
+    /** Name of the subnet with the given number of prefix bits, which must be a multiple of the step */
+    static String name(InetAddressRange subnet, int bits) {
+        byte[] address = new byte[subnet.getAddressSize()];
+        InetAddressRange.toBytes(address.length, subnet.getFirstHi(), subnet.getFirstLo(), address);
+        return DnsMessage.reverseName(address, bits);
+    }
+
+    /**
+     * Returns the subnet named by a name in in-addr.arpa or ip6.arpa, or null if it is not such a name, for example
+     * because it is a classless delegation (RFC 2317)
+     */
+    static InetAddressRange parse(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".")) {
+            lower = lower.substring(0, lower.length() - 1);
+        }
+
+        int size;
+        String labels;
+
+        if (lower.endsWith(IPV4_SUFFIX)) {
+            size = 4;
+            labels = lower.substring(0, lower.length() - IPV4_SUFFIX.length());
+        } else if (lower.endsWith(IPV6_SUFFIX)) {
+            size = 16;
+            labels = lower.substring(0, lower.length() - IPV6_SUFFIX.length());
+        } else {
+            return null;
+        }
+
+        String[] parts = labels.split("\\.");
+        int step = step(size);
+        if (parts.length * step > size * 8) {
+            return null;
+        }
+
+        long hi = 0, lo = 0;
+
+        // Labels are from the least significant, so the first label is the last part of the prefix
+        for (int i = parts.length - 1, bit = size * 8 - step; i >= 0; i--, bit -= step) {
+            int value = parseLabel(parts[i], size);
+            if (value < 0) {
+                return null;
+            }
+
+            if (bit >= 64) {
+                hi |= (long) value << (bit - 64);
+            } else {
+                lo |= (long) value << bit;
+            }
+        }
+
+        return InetAddressRange.cidr(size, hi, lo, parts.length * step);
+    }
+
+    /** Parses an octet in decimal for IPv4 or a nibble in hex for IPv6, returning -1 if it is not one */
+    private static int parseLabel(String label, int size) {
+        if (size == 4) {
+            if (label.isEmpty() || label.length() > 3 || (label.length() > 1 && label.charAt(0) == '0')) {
+                return -1;
+            }
+
+            int value = 0;
+            for (int i = 0; i < label.length(); i++) {
+                char c = label.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value <= 255 ? value : -1;
+        }
+
+        return label.length() == 1 ? Character.digit(label.charAt(0), 16) : -1;
+    }
+
+    /** Number of leading bits the first and last address of the range have in common */
+    private static int commonPrefix(InetAddressRange range) {
+        long hi = range.getFirstHi() ^ range.getLastHi();
+        long lo = range.getFirstLo() ^ range.getLastLo();
+        int common = hi != 0 ? Long.numberOfLeadingZeros(hi) : 64 + Long.numberOfLeadingZeros(lo);
+
+        // IPv4 addresses are in the low 32 bits
+        return range.isIpv4() ? common - 96 : common;
+    }
+}
@@ -0,0 +1,261 @@
+package com.humio.rdns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only journal of the progress of a scan, so a restarted scan continues where it stopped instead of starting
+ * over. Results are handled in the order the addresses were submitted, so the completed addresses are always the first
+ * addresses of the ranges, and progress is a count of them. All numbers are big endian:
+ *
+ * <pre>
+ *   magic "RDNJ" and version as int, and the SHA-256 digest of the ranges of the scan
+ *   rows of a completed address with a host name: 'R', the length of the address, the address, and the host name as
+ *   its length in unsigned short and UTF-8 bytes
+ *   checkpoints of the number of completed addresses: 'C' and the number as long
+ * </pre>
+ *
+ * Checkpoints are written periodically, and the rows before them are forced to disk with them. Rows after the last
+ * checkpoint are dropped when the journal is resumed, so their addresses are looked up again.
+ */
+class ScanJournal implements Closeable {
+    private static final int MAGIC = 0x52444e4a;
+    private static final int VERSION = 1;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int HEADER_SIZE = 4 + 4 + DIGEST_LENGTH;
+    private static final int ROW = 'R';
+    private static final int CHECKPOINT = 'C';
+
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final long checkpointIntervalNanos;
+    private final Path file;
+    private final Progress resumed;
+    private long completed;
+    private long lastCheckpoint;
+
+    private ScanJournal(Path file, FileChannel channel, Progress resumed, long checkpointIntervalNanos) {
+        this.file = file;
+        this.channel = channel;
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        this.resumed = resumed;
+        this.checkpointIntervalNanos = checkpointIntervalNanos;
+        this.completed = resumed.completed;
+        this.lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Opens the journal of a scan of the normalized ranges. If resuming and the file exists, the progress up to its
+     * last checkpoint is kept, and otherwise the file is replaced with an empty journal.
+     *
+     * @throws IllegalArgumentException if the journal to resume is of a scan of other ranges
+     */
+    static ScanJournal open(Path file, List<InetAddressRange> ranges, boolean resume, long checkpointIntervalNanos)
+            throws IOException {
+        byte[] digest = digest(ranges);
+
+        if (resume && Files.exists(file)) {
+            Progress progress = read(file, digest, Long.MAX_VALUE, null);
+            if (progress != null) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+                channel.truncate(progress.length);
+                channel.position(progress.length);
+                return new ScanJournal(file, channel, progress, checkpointIntervalNanos);
+            }
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ScanJournal journal = new ScanJournal(file, channel, new Progress(0, 0, HEADER_SIZE), checkpointIntervalNanos);
+        journal.out.writeInt(MAGIC);
+        journal.out.writeInt(VERSION);
+        journal.out.write(digest);
+        return journal;
+    }
+
+    /** Number of addresses completed by the runs before this one */
+    long getResumed() {
+        return resumed.completed;
+    }
+
+    /** Number of rows of the addresses completed by the runs before this one */
+    long getResumedRows() {
+        return resumed.rows;
+    }
+
+    /** Hands the rows of the addresses completed by the runs before this one to the handler, in order */
+    void replay(LookupEngine.ResultHandler handler) throws IOException {
+        read(file, null, resumed.length, handler);
+    }
+
+    /** Returns the addresses of the normalized ranges that were not completed by the runs before this one */
+    List<InetAddressRange> remaining(List<InetAddressRange> ranges) {
+        BigInteger skip = BigInteger.valueOf(resumed.completed);
+        List<InetAddressRange> remaining = new ArrayList<>();
+
+        for (InetAddressRange range : ranges) {
+            if (skip.signum() == 0) {
+                remaining.add(range);
+            } else if (skip.compareTo(range.size()) < 0) {
+                remaining.add(range.slice(skip, range.size().subtract(BigInteger.ONE)));
+                skip = BigInteger.ZERO;
+            } else {
+                skip = skip.subtract(range.size());
+            }
+        }
+
+        return remaining;
+    }
+
+    /**
+     * Records that the lookup of the next address completed, with its host name or null if it has none, and writes a
+     * checkpoint if it is time to
+     */
+    void record(InetAddress address, String hostName) throws IOException {
+        if (hostName != null) {
+            byte[] bytes = address.getAddress();
+            byte[] name = hostName.getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF) {
+                throw new IllegalArgumentException("Host name of " + address.getHostAddress() + " is too long");
+            }
+
+            out.writeByte(ROW);
+            out.writeByte(bytes.length);
+            out.write(bytes);
+            out.writeShort(name.length);
+            out.write(name);
+        }
+
+        completed++;
+
+        if (System.nanoTime() - lastCheckpoint >= checkpointIntervalNanos) {
+            checkpoint();
+        }
+    }
+
+    /** Writes a checkpoint of the addresses completed so far, and forces it and the rows before it to disk */
+    void checkpoint() throws IOException {
+        out.writeByte(CHECKPOINT);
+        out.writeLong(completed);
+        out.flush();
+        channel.force(false);
+        lastCheckpoint = System.nanoTime();
+    }
+
+    /** Writes a last checkpoint and closes the journal */
+    @Override
+    public void close() throws IOException {
+        try {
+            checkpoint();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] digest(List<InetAddressRange> ranges) {
+        MessageDigest digest = Utils.sha256();
+        for (InetAddressRange range : ranges) {
+            digest.update((range + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Reads the journal up to its last checkpoint or the limit, handing the rows to the handler if there is one.
+     * Returns the progress, or null if the header is incomplete.
+     */
+    private static Progress read(Path file, byte[] digest, long limit, LookupEngine.ResultHandler handler)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] header = new byte[HEADER_SIZE];
+            try {
+                in.readFully(header);
+            } catch (EOFException e) {
+                // The journal of a scan that stopped right after it started
+                return null;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a scan journal");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported scan journal version in " + file);
+            }
+            if (digest != null
+                    && !Arrays.equals(digest, Arrays.copyOfRange(header, HEADER_SIZE - DIGEST_LENGTH, HEADER_SIZE))) {
+                throw new IllegalArgumentException("Journal " + file + " is of a scan of other ranges, remove it to " +
+                        "start over");
+            }
+
+            Progress progress = new Progress(0, 0, HEADER_SIZE);
+            long position = HEADER_SIZE;
+            long rows = 0;
+
+            try {
+                while (position < limit) {
+                    int type = in.read();
+                    if (type == -1) {
+                        break;
+                    } else if (type == ROW) {
+                        int size = in.readUnsignedByte();
+                        if (size != 4 && size != 16) {
+                            throw new IOException("Scan journal " + file + " is corrupt at " + position);
+                        }
+                        byte[] address = new byte[size];
+                        in.readFully(address);
+                        byte[] name = new byte[in.readUnsignedShort()];
+                        in.readFully(name);
+
+                        position += 1 + 1 + size + 2 + name.length;
+                        rows++;
+                        if (handler != null) {
+                            handler.accept(InetAddress.getByAddress(address), new String(name, StandardCharsets.UTF_8));
+                        }
+                    } else if (type == CHECKPOINT) {
+                        long completed = in.readLong();
+                        position += 1 + 8;
+                        progress = new Progress(completed, rows, position);
+                    } else {
+                        throw new IOException("Scan journal " + file + " is corrupt at " + position);
+                    }
+                }
+            } catch (EOFException e) {
+                // The last record was not completely written, and is after the last checkpoint
+            }
+
+            return progress;
+        }
+    }
+
+    /** Number of completed addresses and of their rows at a checkpoint, and the length of the journal up to it */
+    private static class Progress {
+        final long completed;
+        final long rows;
+        final long length;
+
+        Progress(long completed, long rows, long length) {
+            this.completed = completed;
+            this.rows = rows;
+            this.length = length;
+        }
+    }
+}
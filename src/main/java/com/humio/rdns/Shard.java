@@ -0,0 +1,72 @@
+package com.humio.rdns;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of a number of equal parts of the addresses of the ranges, so a scan can be split across processes. The
+ * addresses are counted in the order of the normalized ranges, and shard i of n gets the i-th n-th of them, so every
+ * process given the same ranges agrees on the parts without coordinating.
+ */
+class Shard {
+    /** Index of the shard, from zero */
+    final int index;
+    final int count;
+
+    Shard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard must be i/n with 0 <= i < n, but was " + index + "/" + count);
+        }
+
+        this.index = index;
+        this.count = count;
+    }
+
+    /** Parses a shard written as i/n */
+    static Shard parse(String value) {
+        int slash = value.indexOf('/');
+        if (slash == -1) {
+            throw new IllegalArgumentException("Shard must be i/n, but was '" + value + "'");
+        }
+
+        try {
+            return new Shard(Integer.parseInt(value.substring(0, slash).trim()),
+                    Integer.parseInt(value.substring(slash + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Shard must be i/n, but was '" + value + "'", e);
+        }
+    }
+
+    /** Returns the addresses of the normalized ranges that are in this shard, normalized */
+    List<InetAddressRange> select(List<InetAddressRange> ranges) {
+        BigInteger total = InetAddressRange.totalSize(ranges);
+        BigInteger start = total.multiply(BigInteger.valueOf(index)).divide(BigInteger.valueOf(count));
+        BigInteger end = total.multiply(BigInteger.valueOf(index + 1)).divide(BigInteger.valueOf(count));
+
+        List<InetAddressRange> selected = new ArrayList<>();
+        BigInteger offset = BigInteger.ZERO;
+
+        for (InetAddressRange range : ranges) {
+            BigInteger rangeEnd = offset.add(range.size());
+            BigInteger from = start.max(offset);
+            BigInteger to = end.min(rangeEnd);
+
+            if (from.compareTo(to) < 0) {
+                selected.add(range.slice(from.subtract(offset), to.subtract(offset).subtract(BigInteger.ONE)));
+            }
+
+            if (rangeEnd.compareTo(end) >= 0) {
+                break;
+            }
+            offset = rangeEnd;
+        }
+
+        return selected;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
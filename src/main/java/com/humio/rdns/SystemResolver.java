@@ -0,0 +1,64 @@
+package com.humio.rdns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/** Resolver that runs a blocking lookup, such as the JVM resolver, on a fixed number of threads */
+class SystemResolver implements Resolver {
+    /** Number of lookups to keep in flight per thread, so threads never wait for the next address */
+    static final int IN_FLIGHT_PER_THREAD = 4;
+
+    private final Function<InetAddress, String> lookup;
+    private final ExecutorService executor;
+
+    SystemResolver(Function<InetAddress, String> lookup, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+
+        this.lookup = lookup;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "rdns-lookup-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Looks up the host name of the address. The lookup returns the textual representation of the address both if it
+     * has no host name and if the lookup failed, so the result then fails with {@link UnknownHostException}, since it
+     * is not known whether the address has a host name.
+     */
+    @Override
+    public CompletableFuture<Resolution> resolve(InetAddress address) {
+        CompletableFuture<Resolution> result = new CompletableFuture<>();
+
+        executor.execute(() -> {
+            try {
+                String hostName = lookup.apply(address);
+                if (hostName.equals(address.getHostAddress())) {
+                    result.completeExceptionally(
+                            new UnknownHostException("No host name found for " + address.getHostAddress()));
+                } else {
+                    result.complete(Resolution.of(hostName, Resolution.UNKNOWN_TTL));
+                }
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
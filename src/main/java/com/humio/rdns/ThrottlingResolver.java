@@ -0,0 +1,176 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolver that holds lookups back until another resolver may take them, keeping the lookups in flight below an
+ * {@link AdaptiveLimit} and, optionally, the lookups started per second below a {@link TokenBucket}. Timeouts and
+ * server failures make the limit back off, and lookups that complete in a healthy time let it grow.
+ */
+class ThrottlingResolver implements Resolver {
+    private final Resolver resolver;
+    private final AdaptiveLimit limit;
+    private final TokenBucket rate;
+    private final ScheduledExecutorService scheduler;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private int inFlight;
+    private boolean dispatching;
+    private boolean dispatchScheduled;
+
+    /** Creates a resolver limited by the given limit and, if rate is not null, rate */
+    ThrottlingResolver(Resolver resolver, AdaptiveLimit limit, TokenBucket rate) {
+        this.resolver = resolver;
+        this.limit = limit;
+        this.rate = rate;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rdns-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Resolution> resolve(InetAddress address) {
+        Pending lookup = new Pending(address);
+
+        synchronized (this) {
+            pending.add(lookup);
+        }
+
+        dispatch();
+        return lookup.result;
+    }
+
+    /** Current limit of lookups in flight */
+    synchronized int getLimit() {
+        return limit.get();
+    }
+
+    /** Number of times the limit has backed off */
+    synchronized long getBackoffs() {
+        return limit.getDecreases();
+    }
+
+    /**
+     * Starts pending lookups while the limits allow it. Only one thread dispatches at a time, and lookups that
+     * complete immediately are started from the loop rather than recursively, so the stack does not grow with them.
+     */
+    private void dispatch() {
+        synchronized (this) {
+            if (dispatching) {
+                return;
+            }
+            dispatching = true;
+        }
+
+        while (true) {
+            Pending next;
+
+            synchronized (this) {
+                next = nextToStart();
+                if (next == null) {
+                    dispatching = false;
+                    return;
+                }
+                inFlight++;
+            }
+
+            start(next);
+        }
+    }
+
+    /** Returns the next lookup to start, or null if there is none or the limits do not allow it now */
+    private Pending nextToStart() {
+        if (pending.isEmpty() || inFlight >= limit.get()) {
+            return null;
+        }
+
+        if (rate != null) {
+            long now = System.nanoTime();
+
+            if (!rate.tryAcquire(now)) {
+                if (!dispatchScheduled) {
+                    dispatchScheduled = true;
+                    scheduler.schedule(() -> {
+                        synchronized (this) {
+                            dispatchScheduled = false;
+                        }
+                        dispatch();
+                    }, rate.nanosUntilAvailable(now), TimeUnit.NANOSECONDS);
+                }
+                return null;
+            }
+        }
+
+        return pending.remove();
+    }
+
+    private void start(Pending lookup) {
+        long start = System.nanoTime();
+        CompletableFuture<Resolution> result;
+
+        try {
+            result = resolver.resolve(lookup.address);
+        } catch (RuntimeException | Error e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+
+        result.whenComplete((resolution, e) -> {
+            synchronized (this) {
+                inFlight--;
+
+                if (e == null) {
+                    limit.onSuccess(start, System.nanoTime());
+                } else if (isCongestion(e)) {
+                    limit.onCongestion(start, System.nanoTime());
+                }
+            }
+
+            dispatch();
+
+            if (e == null) {
+                lookup.result.complete(resolution);
+            } else {
+                lookup.result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            }
+        });
+    }
+
+    /** Whether the failure means the DNS server is overloaded */
+    private static boolean isCongestion(Throwable e) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+
+        if (cause instanceof SocketTimeoutException) {
+            return true;
+        }
+        if (cause instanceof DnsException) {
+            int rcode = ((DnsException) cause).getRcode();
+            return rcode == DnsMessage.RCODE_SERVFAIL || rcode == DnsMessage.RCODE_REFUSED;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        resolver.close();
+    }
+
+    private static class Pending {
+        final InetAddress address;
+        final CompletableFuture<Resolution> result = new CompletableFuture<>();
+
+        Pending(InetAddress address) {
+            this.address = address;
+        }
+    }
+}
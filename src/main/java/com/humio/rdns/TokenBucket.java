@@ -0,0 +1,48 @@
+package com.humio.rdns;
+
+/**
+ * Token bucket allowing a number of operations per second on average, with bursts of up to a tenth of a second of
+ * operations. Not thread safe.
+ */
+class TokenBucket {
+    private static final double BURST_SECONDS = 0.1;
+
+    private final double perNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double perSecond, long nowNanos) {
+        if (perSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+
+        this.perNano = perSecond / 1e9;
+        this.capacity = Math.max(1, perSecond * BURST_SECONDS);
+        this.tokens = capacity;
+        this.lastRefill = nowNanos;
+    }
+
+    /** Takes a token if one is available */
+    boolean tryAcquire(long nowNanos) {
+        refill(nowNanos);
+
+        if (tokens < 1) {
+            return false;
+        }
+
+        tokens--;
+        return true;
+    }
+
+    /** Nanoseconds until a token is available, which is 0 if one is available now */
+    long nanosUntilAvailable(long nowNanos) {
+        refill(nowNanos);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / perNano);
+    }
+
+    private void refill(long nowNanos) {
+        tokens = Math.min(capacity, tokens + (nowNanos - lastRefill) * perNano);
+        lastRefill = nowNanos;
+    }
+}
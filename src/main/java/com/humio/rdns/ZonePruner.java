@@ -0,0 +1,134 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Removes the parts of ranges whose reverse zones do not exist, so their addresses are not looked up one by one.
+ *
+ * <p>Ranges are split into blocks on octet boundaries for IPv4 and nibble boundaries for IPv6, which are the
+ * boundaries of names in in-addr.arpa and ip6.arpa. The SOA of the name of each block is queried, and since NXDOMAIN
+ * means that no names exist below a name (RFC 8020), blocks answered with NXDOMAIN are dropped. Blocks that exist are
+ * split into their 256 or 16 sub-blocks, which are checked in turn, down to blocks of a /24 or a /124. Blocks that
+ * could not be checked, because of a timeout or a server failure, are kept whole.
+ */
+class ZonePruner {
+    private final NioResolver resolver;
+    private final int maxInFlight;
+    private long queries;
+
+    ZonePruner(NioResolver resolver, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Number of queries in flight must be positive");
+        }
+
+        this.resolver = resolver;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /** Number of queries sent so far */
+    long getQueries() {
+        return queries;
+    }
+
+    /** Returns the parts of the ranges that may have reverse DNS, normalized */
+    List<InetAddressRange> prune(List<InetAddressRange> ranges) {
+        List<InetAddressRange> kept = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+
+        for (InetAddressRange range : ranges) {
+            // Names above the smallest name containing the whole range tell nothing more than that name
+            split(range, range, ReverseZones.startBits(range), blocks);
+        }
+
+        while (!blocks.isEmpty()) {
+            List<Block> subBlocks = new ArrayList<>();
+            ArrayDeque<Check> inFlight = new ArrayDeque<>();
+
+            for (Block block : blocks) {
+                while (inFlight.size() >= maxInFlight) {
+                    complete(inFlight.remove(), kept, subBlocks);
+                }
+
+                queries++;
+                inFlight.add(new Check(block, resolver.query(ReverseZones.name(block.subnet, block.bits),
+                        DnsMessage.TYPE_SOA)));
+            }
+
+            while (!inFlight.isEmpty()) {
+                complete(inFlight.remove(), kept, subBlocks);
+            }
+
+            blocks = subBlocks;
+        }
+
+        return InetAddressRange.normalize(kept);
+    }
+
+    private void complete(Check check, List<InetAddressRange> kept, List<Block> subBlocks) {
+        Block block = check.block;
+        boolean exists;
+        boolean known;
+
+        try {
+            exists = check.reply.join().rcode() != DnsMessage.RCODE_NXDOMAIN;
+            known = true;
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof IOException)) {
+                throw e;
+            }
+            exists = true;
+            known = false;
+        }
+
+        if (!exists) {
+            return;
+        }
+
+        InetAddressRange part = block.subnet.intersection(block.range);
+        int size = block.range.getAddressSize();
+
+        if (!known || block.bits >= ReverseZones.leafBits(size)) {
+            kept.add(part);
+        } else {
+            split(block.range, part, block.bits + ReverseZones.step(size), subBlocks);
+        }
+    }
+
+    /** Adds the blocks with the given number of prefix bits that contain the addresses of the part of the range */
+    private static void split(InetAddressRange range, InetAddressRange part, int bits, List<Block> blocks) {
+        List<InetAddressRange> subnets = new ArrayList<>();
+        ReverseZones.split(part, bits, subnets);
+
+        for (InetAddressRange subnet : subnets) {
+            blocks.add(new Block(range, subnet, bits));
+        }
+    }
+
+    private static class Block {
+        /** The range the block is part of */
+        final InetAddressRange range;
+        final InetAddressRange subnet;
+        final int bits;
+
+        Block(InetAddressRange range, InetAddressRange subnet, int bits) {
+            this.range = range;
+            this.subnet = subnet;
+            this.bits = bits;
+        }
+    }
+
+    private static class Check {
+        final Block block;
+        final CompletableFuture<DnsMessage> reply;
+
+        Check(Block block, CompletableFuture<DnsMessage> reply) {
+            this.block = block;
+            this.reply = reply;
+        }
+    }
+}
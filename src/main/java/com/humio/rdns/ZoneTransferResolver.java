@@ -0,0 +1,215 @@
+package com.humio.rdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolver that answers lookups of addresses in reverse zones transferred with AXFR from the PTR records of the
+ * zones, and passes lookups of all other addresses on to another resolver.
+ */
+class ZoneTransferResolver implements Resolver {
+    private final Resolver resolver;
+    private final List<InetAddressRange> transferred;
+    private final Map<InetAddress, DnsMessage.Record> records;
+    private final int zones;
+    private final List<String> failures;
+    private final LongAdder answered = new LongAdder();
+
+    private ZoneTransferResolver(Resolver resolver, List<InetAddressRange> transferred,
+                                 Map<InetAddress, DnsMessage.Record> records, int zones, List<String> failures) {
+        this.resolver = resolver;
+        this.transferred = transferred;
+        this.records = records;
+        this.zones = zones;
+        this.failures = failures;
+    }
+
+    /**
+     * Transfers the reverse zones containing the ranges from an authoritative server. The zone of the smallest named
+     * block containing each range is found by querying the SOA of the block, which the server answers with the SOA
+     * of the zone the block is in. Parts of zones that are delegated to other servers, and zones that could not be
+     * transferred, are left to the given resolver.
+     *
+     * @param ranges normalized ranges, where only PTR records of addresses in them are kept
+     * @param soaResolver resolver to query the SOA of blocks with, which should query the same server as the client
+     */
+    static ZoneTransferResolver transfer(List<InetAddressRange> ranges, NioResolver soaResolver, AxfrClient client,
+                                         Resolver resolver) {
+        List<String> failures = new ArrayList<>();
+        List<InetAddressRange> transferred = new ArrayList<>();
+        Map<String, List<InetAddressRange>> partsByZone = new LinkedHashMap<>();
+
+        List<InetAddressRange> blocks = new ArrayList<>();
+        List<InetAddressRange> parts = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<CompletableFuture<DnsMessage>> replies = new ArrayList<>();
+
+        for (InetAddressRange range : ranges) {
+            int bits = ReverseZones.startBits(range);
+            List<InetAddressRange> subnets = new ArrayList<>();
+            ReverseZones.split(range, bits, subnets);
+
+            for (InetAddressRange subnet : subnets) {
+                String name = ReverseZones.name(subnet, bits);
+                blocks.add(subnet);
+                parts.add(subnet.intersection(range));
+                names.add(name);
+                replies.add(soaResolver.query(name, DnsMessage.TYPE_SOA));
+            }
+        }
+
+        for (int i = 0; i < blocks.size(); i++) {
+            DnsMessage reply;
+
+            try {
+                reply = replies.get(i).join();
+            } catch (CompletionException e) {
+                if (!(e.getCause() instanceof IOException)) {
+                    throw e;
+                }
+                failures.add("Could not find the zone of " + names.get(i) + ": " + e.getCause().getMessage());
+                continue;
+            }
+
+            if (reply.rcode() == DnsMessage.RCODE_NXDOMAIN) {
+                // There are no names at all in the block, so nothing to transfer
+                transferred.add(parts.get(i));
+                continue;
+            }
+
+            DnsMessage.Record soa = soaRecord(reply);
+            if (soa == null) {
+                failures.add("Could not find the zone of " + names.get(i) + ": the server did not return its SOA");
+                continue;
+            }
+
+            partsByZone.computeIfAbsent(soa.name.toLowerCase(Locale.ROOT), zone -> new ArrayList<>())
+                    .add(parts.get(i));
+        }
+
+        Map<InetAddress, DnsMessage.Record> records = new HashMap<>();
+        int zones = 0;
+
+        for (Map.Entry<String, List<InetAddressRange>> entry : partsByZone.entrySet()) {
+            String zone = entry.getKey();
+            InetAddressRange apex = ReverseZones.parse(zone);
+
+            if (apex == null) {
+                failures.add("Zone " + zone + " is not named after a block of addresses");
+                continue;
+            }
+
+            List<InetAddressRange> delegated = new ArrayList<>();
+            Map<InetAddress, DnsMessage.Record> zoneRecords = new HashMap<>();
+
+            try {
+                client.transfer(zone, record -> {
+                    InetAddressRange subnet = ReverseZones.parse(record.name);
+
+                    if (record.type == DnsMessage.TYPE_NS && !record.name.equalsIgnoreCase(zone)) {
+                        if (subnet != null) {
+                            delegated.add(subnet);
+                        }
+                    } else if (subnet != null && subnet.getFirst().equals(subnet.getLast())
+                            && InetAddressRange.contains(ranges, subnet.getAddressSize(), subnet.getFirstHi(),
+                            subnet.getFirstLo())) {
+                        if (record.type == DnsMessage.TYPE_PTR) {
+                            zoneRecords.put(subnet.getFirst(), record);
+                        } else if (record.type == DnsMessage.TYPE_CNAME) {
+                            // Classless delegation (RFC 2317), where the PTR record is in another zone
+                            delegated.add(subnet);
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                failures.add("Zone transfer of " + zone + " failed: " + e.getMessage());
+                continue;
+            }
+
+            List<InetAddressRange> holes = InetAddressRange.normalize(delegated);
+
+            for (InetAddressRange part : entry.getValue()) {
+                if (!part.equals(part.intersection(apex))) {
+                    failures.add("Zone " + zone + " does not contain " + part);
+                    continue;
+                }
+
+                transferred.addAll(InetAddressRange.subtract(part, holes));
+            }
+
+            records.putAll(zoneRecords);
+            zones++;
+        }
+
+        return new ZoneTransferResolver(resolver, InetAddressRange.normalize(transferred), records, zones, failures);
+    }
+
+    private static DnsMessage.Record soaRecord(DnsMessage reply) {
+        for (DnsMessage.Record record : reply.answers) {
+            if (record.type == DnsMessage.TYPE_SOA) {
+                return record;
+            }
+        }
+        for (DnsMessage.Record record : reply.authorities) {
+            if (record.type == DnsMessage.TYPE_SOA) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<Resolution> resolve(InetAddress address) {
+        byte[] bytes = address.getAddress();
+
+        if (!InetAddressRange.contains(transferred, bytes.length, InetAddressRange.hi(bytes),
+                InetAddressRange.lo(bytes))) {
+            return resolver.resolve(address);
+        }
+
+        answered.increment();
+        DnsMessage.Record ptr = records.get(address);
+        return CompletableFuture.completedFuture(ptr != null
+                ? Resolution.of((String) ptr.data, ptr.ttl)
+                : Resolution.none(Resolution.UNKNOWN_TTL));
+    }
+
+    /** Number of zones that were transferred */
+    int getZones() {
+        return zones;
+    }
+
+    /** Number of PTR records of addresses in the ranges */
+    int getRecords() {
+        return records.size();
+    }
+
+    /** Number of lookups answered from the transferred zones */
+    long getAnswered() {
+        return answered.sum();
+    }
+
+    /** The normalized ranges answered from the transferred zones */
+    List<InetAddressRange> getTransferred() {
+        return transferred;
+    }
+
+    /** Why zones could not be found or transferred, for each zone that was left to the other resolver */
+    List<String> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public void close() throws IOException {
+        resolver.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedPipeTest {
+    @Test
+    public void transfersEverything() throws Exception {
+        BoundedPipe pipe = new BoundedPipe(7);
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+
+        Thread writer = new Thread(() -> {
+            try (OutputStream out = pipe.sink()) {
+                for (int i = 0; i < data.length; i += 13) {
+                    out.write(data, i, Math.min(13, data.length - i));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[5];
+        InputStream in = pipe.source();
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            read.write(buffer, 0, n);
+        }
+
+        writer.join();
+        assertArrayEquals(data, read.toByteArray());
+    }
+
+    @Test
+    public void writerBlocksWhileFull() throws Exception {
+        BoundedPipe pipe = new BoundedPipe(4);
+        AtomicInteger written = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 8; i++) {
+                    pipe.sink().write(i);
+                    written.incrementAndGet();
+                }
+                done.countDown();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(4, written.get());
+
+        byte[] buffer = new byte[8];
+        int read = 0;
+        while (read < 8) {
+            read += pipe.source().read(buffer, read, 8 - read);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 }, Arrays.copyOf(buffer, read));
+    }
+
+    @Test
+    public void failureReachesReader() throws IOException {
+        BoundedPipe pipe = new BoundedPipe(16);
+        IllegalStateException cause = new IllegalStateException("lookups failed");
+
+        pipe.sink().write(new byte[] { 1, 2 });
+        pipe.fail(cause);
+
+        byte[] buffer = new byte[16];
+        assertEquals(2, pipe.source().read(buffer));
+        IOException e = assertThrows(IOException.class, () -> pipe.source().read(buffer));
+        assertSame(cause, e.getCause());
+    }
+
+    @Test
+    public void closedReaderFailsWriter() throws IOException {
+        BoundedPipe pipe = new BoundedPipe(1);
+
+        pipe.sink().write(1);
+        pipe.source().close();
+
+        assertThrows(IOException.class, () -> pipe.sink().write(2));
+    }
+}
@@ -0,0 +1,110 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfirmingResolverTest {
+    @Test
+    public void keepsNamesThatResolveBackAndLooksUpEachNameOnce() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(ConfirmingResolverTest::answer);
+             ConfirmingResolver resolver = new ConfirmingResolver(new NioResolver(server.getAddress(), 1000, 0, 1))) {
+            List<CompletableFuture<Resolution>> lookups = new ArrayList<>();
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/29")) {
+                lookups.add(resolver.resolve(address));
+            }
+
+            assertEquals("10.0.0.0", hostName(lookups.get(0), "10.0.0.0"));
+            for (int i = 1; i <= 4; i++) {
+                assertEquals("shared.example.com", hostName(lookups.get(i), "10.0.0." + i));
+            }
+            assertEquals("10.0.0.5", hostName(lookups.get(5), "10.0.0.5"));
+            assertEquals("Alias.example.com", hostName(lookups.get(6), "10.0.0.6"));
+            assertEquals("10.0.0.7", hostName(lookups.get(7), "10.0.0.7"));
+
+            // The shared name is looked up once, the other names and the name without an IPv4 address once each
+            assertEquals(4, resolver.getForwardQueries());
+            assertEquals(2, resolver.getUnconfirmed());
+            assertEquals(8 + 4, server.getQueries());
+        }
+    }
+
+    @Test
+    public void looksUpNamesAgainAfterFailures() throws IOException {
+        AtomicInteger forwardQueries = new AtomicInteger();
+
+        try (StubDnsServer server = new StubDnsServer(query -> {
+            if (query.questionType == DnsMessage.TYPE_PTR) {
+                return StubDnsServer.Reply.ptr(query, "flaky.example.com");
+            }
+            return forwardQueries.incrementAndGet() == 1
+                    ? new StubDnsServer.Reply(DnsMessage.RCODE_SERVFAIL)
+                    : new StubDnsServer.Reply(DnsMessage.RCODE_NOERROR)
+                    .answer(query.questionName, DnsMessage.TYPE_A, 60, address("10.0.0.1"));
+        });
+             ConfirmingResolver resolver = new ConfirmingResolver(new NioResolver(server.getAddress(), 1000, 0, 1))) {
+            CompletionException e = assertThrows(CompletionException.class,
+                    () -> resolver.resolve(address("10.0.0.1")).join());
+            assertTrue(e.getCause() instanceof DnsException, e.toString());
+
+            assertEquals("flaky.example.com", hostName(resolver.resolve(address("10.0.0.1")), "10.0.0.1"));
+            assertEquals(2, resolver.getForwardQueries());
+        }
+    }
+
+    private static StubDnsServer.Reply answer(DnsMessage query) {
+        if (query.questionType == DnsMessage.TYPE_PTR) {
+            switch (query.questionName) {
+                case "0.0.0.10.in-addr.arpa":
+                    return StubDnsServer.Reply.ptr(query, "v6-only.example.com");
+                case "1.0.0.10.in-addr.arpa":
+                case "2.0.0.10.in-addr.arpa":
+                case "3.0.0.10.in-addr.arpa":
+                case "4.0.0.10.in-addr.arpa":
+                    return StubDnsServer.Reply.ptr(query, "shared.example.com");
+                case "5.0.0.10.in-addr.arpa":
+                    return StubDnsServer.Reply.ptr(query, "spoofed.example.com");
+                case "6.0.0.10.in-addr.arpa":
+                    return StubDnsServer.Reply.ptr(query, "Alias.example.com");
+                default:
+                    return StubDnsServer.Reply.nxdomain();
+            }
+        }
+
+        StubDnsServer.Reply reply = new StubDnsServer.Reply(DnsMessage.RCODE_NOERROR);
+        switch (query.questionName.toLowerCase(Locale.ROOT) + " " + query.questionType) {
+            case "shared.example.com 1":
+                for (int i = 1; i <= 4; i++) {
+                    reply.answer(query.questionName, DnsMessage.TYPE_A, 60, address("10.0.0." + i));
+                }
+                return reply;
+            case "spoofed.example.com 1":
+                return reply.answer(query.questionName, DnsMessage.TYPE_A, 60, address("192.0.2.1"));
+            case "alias.example.com 1":
+                // The CNAME is followed like a recursive server does, and the name is looked up in lower case
+                return reply.answer(query.questionName, DnsMessage.TYPE_CNAME, 60, "target.example.com")
+                        .answer("target.example.com", DnsMessage.TYPE_A, 60, address("10.0.0.6"));
+            default:
+                return reply;
+        }
+    }
+
+    private static String hostName(CompletableFuture<Resolution> lookup, String address) {
+        return lookup.join().hostNameOr(address(address));
+    }
+
+    private static InetAddress address(String address) {
+        return InetAddressRange.parse(address).getFirst();
+    }
+}
@@ -2,13 +2,19 @@ package com.humio.rdns;
 
 import org.junit.jupiter.api.Test;
 
+import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 class InetAddressRangeTest {
@@ -125,4 +131,133 @@ class InetAddressRangeTest {
         InetAddressRange range = InetAddressRange.parse("2001:db8:85a3:8d3:1319:8a2e:370:7349");
         assertRangeMatches(range, "2001:db8:85a3:8d3:1319:8a2e:370:7349");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void cidrWholeSpace() {
+        InetAddressRange range = InetAddressRange.cidr(address("::"), 0);
+
+        assertEquals(BigInteger.ONE.shiftLeft(128), range.size());
+        assertEquals(Long.MAX_VALUE, range.sizeSaturated());
+        assertEquals(address("::"), range.getFirst());
+        assertEquals(address("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"), range.getLast());
+    }
+
+    @Test
+    public void cidrAcrossHalves() {
+        InetAddressRange range = InetAddressRange.cidr(address("2001:db8:85a3:8d3:1319:8a2e:370:7349"), 60);
+
+        assertEquals(BigInteger.ONE.shiftLeft(68), range.size());
+        assertEquals(address("2001:db8:85a3:8d0::"), range.getFirst());
+        assertEquals(address("2001:db8:85a3:8df:ffff:ffff:ffff:ffff"), range.getLast());
+    }
+
+    @Test
+    public void size() throws UnknownHostException {
+        assertEquals(BigInteger.valueOf(256), InetAddressRange.parse("10.0.0.0/24").size());
+        assertEquals(256, InetAddressRange.parse("10.0.0.0/24").sizeSaturated());
+        assertEquals(BigInteger.ONE.shiftLeft(32), InetAddressRange.parse("0.0.0.0/0").size());
+        assertEquals(BigInteger.ONE.shiftLeft(64).add(BigInteger.ONE),
+                InetAddressRange.parse("::-::1:0:0:0:0").size());
+        assertEquals(Long.MAX_VALUE, InetAddressRange.parse("::/65").sizeSaturated());
+        assertEquals(Long.MAX_VALUE - 1, InetAddressRange.parse("::-::7fff:ffff:ffff:fffd").sizeSaturated());
+    }
+
+    @Test
+    public void visitAcrossHalves() throws UnknownHostException {
+        InetAddressRange range = InetAddressRange.parse("::ffff:ffff:ffff:fffe-::1:0:0:0:1");
+        List<InetAddress> visited = new ArrayList<>();
+
+        range.forEachAddress((hi, lo) -> visited.add(InetAddressRange.toAddress(16, hi, lo)));
+
+        assertIterableEquals(Arrays.asList(
+                address("::ffff:ffff:ffff:fffe"),
+                address("::ffff:ffff:ffff:ffff"),
+                address("::1:0:0:0:0"),
+                address("::1:0:0:0:1")), visited);
+        assertIterableEquals(visited, range);
+    }
+
+    @Test
+    public void reversed() {
+        assertThrows(IllegalArgumentException.class, () -> InetAddressRange.parse("1.2.3.5-1.2.3.4"));
+    }
+
+    private static List<InetAddressRange> parseAll(String... ranges) throws UnknownHostException {
+        List<InetAddressRange> parsed = new ArrayList<>();
+        for (String range : ranges) {
+            parsed.add(InetAddressRange.parse(range));
+        }
+        return parsed;
+    }
+
+    @Test
+    public void normalizeMergesOverlapping() throws UnknownHostException {
+        List<InetAddressRange> normalized = InetAddressRange.normalize(parseAll(
+                "10.0.1.0/24", "10.0.0.0/16", "10.0.0.5", "192.168.0.0-192.168.0.10", "192.168.0.5-192.168.0.20"));
+
+        assertEquals(parseAll("10.0.0.0/16", "192.168.0.0-192.168.0.20"), normalized);
+        assertEquals(BigInteger.valueOf(65536 + 21), InetAddressRange.totalSize(normalized));
+    }
+
+    @Test
+    public void normalizeMergesAdjacent() throws UnknownHostException {
+        List<InetAddressRange> normalized = InetAddressRange.normalize(parseAll(
+                "10.0.0.128/25", "10.0.0.0/25", "10.0.2.0/24", "::ffff:ffff:ffff:ffff", "::1:0:0:0:0"));
+
+        assertEquals(parseAll("10.0.0.0/24", "10.0.2.0/24", "::ffff:ffff:ffff:ffff-::1:0:0:0:0"), normalized);
+    }
+
+    @Test
+    public void normalizeKeepsFamiliesApart() throws UnknownHostException {
+        List<InetAddressRange> normalized = InetAddressRange.normalize(parseAll(
+                "::/96", "0.0.0.0/0", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff", "ffff::/16"));
+
+        assertEquals(parseAll("0.0.0.0/0", "::/96", "ffff::/16"), normalized);
+    }
+
+    @Test
+    public void intersection() {
+        InetAddressRange range = InetAddressRange.parse("10.0.0.0/24");
+
+        assertEquals(InetAddressRange.parse("10.0.0.128-10.0.0.255"),
+                range.intersection(InetAddressRange.parse("10.0.0.128-10.0.1.5")));
+        assertEquals(InetAddressRange.parse("10.0.0.3"), range.intersection(InetAddressRange.parse("10.0.0.3")));
+        assertEquals(range, range.intersection(InetAddressRange.parse("10.0.0.0/8")));
+        assertNull(range.intersection(InetAddressRange.parse("10.0.1.0/24")));
+        assertNull(range.intersection(InetAddressRange.parse("::a00:0/120")));
+    }
+
+    @Test
+    public void slice() {
+        InetAddressRange range = InetAddressRange.parse("10.0.0.0/24");
+        assertEquals(InetAddressRange.parse("10.0.0.5-10.0.0.9"),
+                range.slice(BigInteger.valueOf(5), BigInteger.valueOf(9)));
+        assertEquals(range, range.slice(BigInteger.ZERO, BigInteger.valueOf(255)));
+        assertThrows(IllegalArgumentException.class, () -> range.slice(BigInteger.ZERO, BigInteger.valueOf(256)));
+
+        // Carries into the high 64 bits
+        InetAddressRange ipv6 = InetAddressRange.parse("2001:db8::/64");
+        BigInteger twoTo64 = BigInteger.ONE.shiftLeft(64);
+        assertEquals(InetAddressRange.parse("2001:db8::ffff:ffff:ffff:ffff"),
+                InetAddressRange.parse("2001:db8::/63").slice(twoTo64.subtract(BigInteger.ONE),
+                        twoTo64.subtract(BigInteger.ONE)));
+        assertEquals(InetAddressRange.parse("2001:db8:0:1::"),
+                InetAddressRange.parse("2001:db8::/63").slice(twoTo64, twoTo64));
+        assertEquals(ipv6, ipv6.slice(BigInteger.ZERO, twoTo64.subtract(BigInteger.ONE)));
+    }
+
+    @Test
+    public void subtract() {
+        List<InetAddressRange> holes = InetAddressRange.normalize(Arrays.asList(
+                InetAddressRange.parse("10.0.0.0/30"),
+                InetAddressRange.parse("10.0.0.9"),
+                InetAddressRange.parse("10.0.0.250-10.0.1.10")));
+
+        assertEquals(Arrays.asList(
+                InetAddressRange.parse("10.0.0.4-10.0.0.8"),
+                InetAddressRange.parse("10.0.0.10-10.0.0.249")),
+                InetAddressRange.subtract(InetAddressRange.parse("10.0.0.0/24"), holes));
+        assertEquals(Collections.singletonList(InetAddressRange.parse("10.0.2.0/24")),
+                InetAddressRange.subtract(InetAddressRange.parse("10.0.2.0/24"), holes));
+    }
+}
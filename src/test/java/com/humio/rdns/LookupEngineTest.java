@@ -0,0 +1,196 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LookupEngineTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    public void resultsInSubmissionOrder() throws IOException {
+        List<String> results = new ArrayList<>();
+
+        // Later addresses resolve faster than earlier ones
+        try (Resolver resolver = new SystemResolver(address -> {
+            int last = address.getAddress()[3];
+            sleep(20 - last);
+            return "host-" + last;
+        }, 8)) {
+            lookUp(new LookupEngine(resolver, 8), "10.0.0.0/28",
+                    (address, hostName) -> results.add(address.getHostAddress() + "=" + hostName));
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            expected.add("10.0.0." + i + "=host-" + i);
+        }
+        assertEquals(expected, results);
+    }
+
+    @Test
+    public void lookupsRunConcurrently() throws IOException, InterruptedException {
+        CountDownLatch allStarted = new CountDownLatch(4);
+
+        try (Resolver resolver = new SystemResolver(address -> {
+            allStarted.countDown();
+            try {
+                // Only completes if all four lookups are running at the same time
+                return allStarted.await(10, TimeUnit.SECONDS) ? "ok" : "timeout";
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, 4)) {
+            List<String> results = new ArrayList<>();
+            lookUp(new LookupEngine(resolver, 4), "10.0.0.0/30", (address, hostName) -> results.add(hostName));
+
+            assertEquals(4, results.size());
+            assertTrue(results.stream().allMatch("ok"::equals));
+        }
+    }
+
+    @Test
+    public void inFlightIsBounded() throws IOException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        try (Resolver resolver = new SystemResolver(address -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep(1);
+            running.decrementAndGet();
+            return address.getHostAddress();
+        }, 16)) {
+            lookUp(new LookupEngine(resolver, 3), "10.0.0.0/26", (address, hostName) -> { });
+        }
+
+        assertTrue(maxRunning.get() <= 3, "At most 3 lookups in flight, got " + maxRunning.get());
+    }
+
+    @Test
+    public void slowLookupsDoNotHoldBackLaterOnes() throws IOException {
+        CountDownLatch laterCompleted = new CountDownLatch(200);
+        AtomicLong maxFiles = new AtomicLong();
+        List<String> results = new ArrayList<>();
+
+        // The first address only resolves after 200 later addresses, many more than are in flight at a time
+        try (Resolver resolver = new SystemResolver(address -> {
+            int last = address.getAddress()[3] & 0xFF;
+            if (last == 0) {
+                try {
+                    return laterCompleted.await(10, TimeUnit.SECONDS) ? "host-0" : "timeout";
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            laterCompleted.countDown();
+            maxFiles.accumulateAndGet(countFiles(temp), Math::max);
+            return "host-" + last;
+        }, 8);
+             LookupEngine engine = new LookupEngine(resolver, 8, 4, temp)) {
+            lookUp(engine, "10.0.0.0/24",
+                    (address, hostName) -> results.add(address.getHostAddress() + "=" + hostName));
+
+            // Runs are merged instead of keeping a file open for every spill
+            assertTrue(engine.getMaxHeld() <= 4 + 1 + LookupEngine.MAX_RUNS + 1, "Held " + engine.getMaxHeld());
+            assertTrue(maxFiles.get() <= LookupEngine.MAX_RUNS + 2, "Files " + maxFiles.get());
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            expected.add("10.0.0." + i + "=host-" + i);
+        }
+        assertEquals(expected, results);
+
+        // The lookups spilled to disk while waiting for the first one are deleted once merged
+        assertEquals(0, countFiles(temp));
+    }
+
+    @Test
+    public void spilledLookupsAreDeletedOnClose() throws IOException {
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (Resolver resolver = new SystemResolver(address -> {
+            if (address.getAddress()[3] == 0) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return address.getHostAddress();
+        }, 4)) {
+            LookupEngine engine = new LookupEngine(resolver, 4, 2, temp);
+            try {
+                for (InetAddress address : InetAddressRange.parse("10.0.0.0/27")) {
+                    engine.submit(address);
+                }
+
+                assertTrue(countFiles(temp) > 0);
+            } finally {
+                engine.close();
+                release.countDown();
+            }
+        }
+
+        assertEquals(0, countFiles(temp));
+    }
+
+    @Test
+    public void failuresArePropagated() throws IOException {
+        try (Resolver resolver = new SystemResolver(address -> {
+            throw new IllegalStateException("boom");
+        }, 1)) {
+            LookupEngine engine = new LookupEngine(resolver, 1);
+            engine.submit(InetAddress.getByName("10.0.0.1"));
+
+            assertThrows(IllegalStateException.class, () -> engine.next((address, hostName) -> { }));
+        }
+    }
+
+    /** Submits the addresses of the range, handing over the results that are ready after each one, and the rest */
+    private static void lookUp(LookupEngine engine, String range, LookupEngine.ResultHandler handler)
+            throws IOException {
+        for (InetAddress address : InetAddressRange.parse(range)) {
+            engine.submit(address);
+            while (engine.poll(handler)) {
+                // Takes every result that is ready before submitting the next address
+            }
+        }
+        while (engine.next(handler)) {
+            // Waits for the rest
+        }
+    }
+
+    private static long countFiles(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+    @Test
+    public void quantilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+
+        long p50 = histogram.quantile(0.5);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.25, "p50 was " + p50);
+
+        long p99 = histogram.quantile(0.99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000, "p99 was " + p99);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(3, histogram.quantile(0.5));
+        assertEquals(4, histogram.countBelowPowerOfTwo(2));
+        assertEquals(8, histogram.countBelowPowerOfTwo(3));
+    }
+
+    @Test
+    public void countsBelowPowersOfTwo() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(15);
+        histogram.record(16);
+        histogram.record(1023);
+        histogram.record(1024);
+        histogram.recordNanos(TimeUnit.SECONDS.toNanos(100));
+
+        assertEquals(1, histogram.countBelowPowerOfTwo(4));
+        assertEquals(2, histogram.countBelowPowerOfTwo(5));
+        assertEquals(3, histogram.countBelowPowerOfTwo(10));
+        assertEquals(4, histogram.countBelowPowerOfTwo(11));
+        assertEquals(4, histogram.countBelowPowerOfTwo(26));
+        assertEquals(100_000_000, histogram.getMax());
+    }
+
+    @Test
+    public void writesPrometheusTextFormat() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.recordResolved();
+        metrics.recordTimedOut();
+        metrics.lookupLatency.record(100);
+        metrics.recordPhase("upload", TimeUnit.MILLISECONDS.toNanos(1500));
+
+        StringWriter out = new StringWriter();
+        metrics.writePrometheus(out);
+        String text = out.toString();
+
+        assertTrue(text.contains("rdns_lookups_total{outcome=\"resolved\"} 1\n"), text);
+        assertTrue(text.contains("rdns_lookups_total{outcome=\"timed_out\"} 1\n"), text);
+        assertTrue(text.contains("rdns_lookup_duration_seconds_bucket{le=\"0.000064\"} 0\n"), text);
+        assertTrue(text.contains("rdns_lookup_duration_seconds_bucket{le=\"0.000128\"} 1\n"), text);
+        assertTrue(text.contains("rdns_lookup_duration_seconds_bucket{le=\"+Inf\"} 1\n"), text);
+        assertTrue(text.contains("rdns_lookup_duration_seconds_sum 0.000100\n"), text);
+        assertTrue(text.contains("rdns_phase_duration_seconds{phase=\"upload\"} 1.500000\n"), text);
+    }
+
+    @Test
+    public void writesJsonSummary() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.recordNoHostName();
+        metrics.recordCached(3);
+        metrics.recordRow(TimeUnit.MICROSECONDS.toNanos(5));
+        metrics.recordPhase("lookup", TimeUnit.SECONDS.toNanos(2));
+
+        StringWriter out = new StringWriter();
+        metrics.writeJson(out);
+        String json = out.toString();
+
+        assertTrue(json.contains("\"lookups\": {\"resolved\": 0, \"noHostName\": 1, \"timedOut\": 0, " +
+                "\"failed\": 0, \"cached\": 3, \"transferred\": 0}"), json);
+        assertTrue(json.contains("\"rows\": 1,"), json);
+        assertTrue(json.contains("\"phaseSeconds\": {\"lookup\": 2.000000}"), json);
+    }
+
+    @Test
+    public void progressEstimatesTimeLeft() {
+        assertEquals("Looked up 250 of 1000 addresses (25.0%), 25 lookups/s, ETA 0:00:30",
+                ProgressReporter.progress(250, 1000, TimeUnit.SECONDS.toNanos(10)));
+        assertEquals("Looked up 0 of 1000 addresses (0.0%), 0 lookups/s, ETA unknown",
+                ProgressReporter.progress(0, 1000, TimeUnit.SECONDS.toNanos(10)));
+    }
+}
@@ -0,0 +1,270 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NioResolverTest {
+    @Test
+    public void reverseNames() throws IOException {
+        assertEquals("4.3.2.1.in-addr.arpa",
+                DnsMessage.reverseName(InetAddress.getByName("1.2.3.4").getAddress()));
+        assertEquals("b.a.9.8.7.6.5.0.4.0.0.0.3.0.0.0.2.0.0.0.1.0.0.0.0.0.0.0.1.2.3.4.ip6.arpa",
+                DnsMessage.reverseName(InetAddress.getByName("4321:0:1:2:3:4:567:89ab").getAddress()));
+    }
+
+    @Test
+    public void resolvesPtr() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(query -> query.questionName.equals("4.3.2.1.in-addr.arpa")
+                ? StubDnsServer.Reply.ptr(query, "host.example.com")
+                : StubDnsServer.Reply.nxdomain());
+             NioResolver resolver = new NioResolver(server.getAddress(), 1000, 0, 1)) {
+            Resolution resolution = resolver.resolve(InetAddress.getByName("1.2.3.4")).join();
+            assertEquals("host.example.com", resolution.hostName);
+            assertEquals(3600, resolution.ttl);
+            assertNull(resolver.resolve(InetAddress.getByName("1.2.3.5")).join().hostName);
+        }
+    }
+
+    @Test
+    public void cachesNegativeRepliesForTheLowerOfSoaTtlAndMinimum() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(query -> StubDnsServer.Reply.nxdomain()
+                .authority("1.in-addr.arpa", DnsMessage.TYPE_SOA, query.questionName.startsWith("4.") ? 3600 : 60,
+                        new DnsMessage.Soa("ns.example.com", 300)));
+             NioResolver resolver = new NioResolver(server.getAddress(), 1000, 0, 1)) {
+            assertEquals(300, resolver.resolve(InetAddress.getByName("1.2.3.4")).join().ttl);
+            assertEquals(60, resolver.resolve(InetAddress.getByName("1.2.3.5")).join().ttl);
+        }
+    }
+
+    @Test
+    public void followsCname() throws IOException {
+        // Classless delegation as in RFC 2317
+        try (StubDnsServer server = new StubDnsServer(query -> new StubDnsServer.Reply(DnsMessage.RCODE_NOERROR)
+                .answer(query.questionName, DnsMessage.TYPE_CNAME, 60, "4.0/26.3.2.1.in-addr.arpa")
+                .answer("4.0/26.3.2.1.in-addr.arpa", DnsMessage.TYPE_PTR, 60, "host.example.com"));
+             NioResolver resolver = new NioResolver(server.getAddress(), 1000, 0, 1)) {
+            assertEquals("host.example.com", resolver.resolve(InetAddress.getByName("1.2.3.4")).join().hostName);
+        }
+    }
+
+    @Test
+    public void retriesLostQueries() throws IOException {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try (StubDnsServer server = new StubDnsServer(query -> attempts.incrementAndGet() < 3
+                ? null
+                : StubDnsServer.Reply.ptr(query, "host.example.com"));
+             NioResolver resolver = new NioResolver(server.getAddress(), 50, 2, 1)) {
+            assertEquals("host.example.com", resolver.resolve(InetAddress.getByName("1.2.3.4")).join().hostName);
+            assertEquals(3, server.getQueries());
+        }
+    }
+
+    @Test
+    public void timesOut() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(query -> null);
+             NioResolver resolver = new NioResolver(server.getAddress(), 20, 1, 1)) {
+            CompletionException e = assertThrows(CompletionException.class,
+                    () -> resolver.resolve(InetAddress.getByName("1.2.3.4")).join());
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+            assertEquals(2, server.getQueries());
+        }
+    }
+
+    @Test
+    public void serverFailure() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(query -> new StubDnsServer.Reply(DnsMessage.RCODE_SERVFAIL));
+             NioResolver resolver = new NioResolver(server.getAddress(), 1000, 2, 1)) {
+            CompletionException e = assertThrows(CompletionException.class,
+                    () -> resolver.resolve(InetAddress.getByName("1.2.3.4")).join());
+            assertTrue(e.getCause() instanceof DnsException);
+            assertEquals(DnsMessage.RCODE_SERVFAIL, ((DnsException) e.getCause()).getRcode());
+            assertEquals(1, server.getQueries());
+        }
+    }
+
+    @Test
+    public void manyQueriesInFlight() throws IOException {
+        ConcurrentHashMap<String, Boolean> seen = new ConcurrentHashMap<>();
+
+        try (StubDnsServer server = new StubDnsServer(query -> {
+            seen.put(query.questionName, true);
+            return StubDnsServer.Reply.ptr(query, "host-" + query.questionName.split("\\.")[0] + ".example.com");
+        });
+             NioResolver resolver = new NioResolver(server.getAddress(), 2000, 3, 2)) {
+            List<CompletableFuture<Resolution>> results = new ArrayList<>();
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/23")) {
+                results.add(resolver.resolve(address));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("host-" + (i % 256) + ".example.com", results.get(i).join().hostName);
+            }
+            assertEquals(512, seen.size());
+        }
+    }
+
+    @Test
+    public void engineTreatsFailuresAsUnresolved() throws IOException {
+        List<String> results = new ArrayList<>();
+
+        try (StubDnsServer server = new StubDnsServer(query -> query.questionName.startsWith("1.")
+                ? StubDnsServer.Reply.ptr(query, "one.example.com")
+                : null);
+             NioResolver resolver = new NioResolver(server.getAddress(), 20, 0, 1)) {
+            LookupEngine engine = new LookupEngine(resolver, 16);
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0-10.0.0.2")) {
+                engine.submit(address);
+            }
+            while (engine.next((address, hostName) -> results.add(address.getHostAddress() + "=" + hostName))) {
+                // Takes the results in order
+            }
+        }
+
+        List<String> expected = new ArrayList<>();
+        expected.add("10.0.0.0=10.0.0.0");
+        expected.add("10.0.0.1=one.example.com");
+        expected.add("10.0.0.2=10.0.0.2");
+        assertEquals(expected, results);
+    }
+
+    @Test
+    public void prefersTheFasterServer() throws IOException {
+        try (StubDnsServer slow = new StubDnsServer(query -> {
+            sleep(5);
+            return StubDnsServer.Reply.ptr(query, "slow.example.com");
+        });
+             StubDnsServer fast = new StubDnsServer(query -> StubDnsServer.Reply.ptr(query, "fast.example.com"));
+             NioResolver resolver = new NioResolver(Arrays.asList(slow.getAddress(), fast.getAddress()), false,
+                     1000, 0, 1)) {
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/24")) {
+                resolver.resolve(address).join();
+            }
+
+            assertEquals(256, slow.getQueries() + fast.getQueries());
+            assertTrue(fast.getQueries() > 200, resolver.describeServers());
+        }
+    }
+
+    @Test
+    public void hedgesSlowQueriesOnAnotherServer() throws IOException {
+        // Queries for 10.0.1.0/24 are only answered by the server they are sent to second, like a hedge
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        Function<DnsMessage, StubDnsServer.Reply> handler = query ->
+                !query.questionName.endsWith(".1.0.10.in-addr.arpa") || !seen.add(query.questionName)
+                        ? StubDnsServer.Reply.ptr(query, "host.example.com")
+                        : null;
+
+        try (StubDnsServer first = new StubDnsServer(handler);
+             StubDnsServer second = new StubDnsServer(handler);
+             NioResolver resolver = new NioResolver(Arrays.asList(first.getAddress(), second.getAddress()), true,
+                     5000, 0, 1)) {
+            // Enough replies for the latency of the servers to be known
+            List<CompletableFuture<Resolution>> results = new ArrayList<>();
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/24")) {
+                results.add(resolver.resolve(address));
+            }
+            results.forEach(CompletableFuture::join);
+
+            long hedged = resolver.getHedged();
+            long answered = resolver.getHedgesAnswered();
+            long start = System.nanoTime();
+            for (InetAddress address : InetAddressRange.parse("10.0.1.0/28")) {
+                assertEquals("host.example.com", resolver.resolve(address).join().hostName);
+            }
+
+            // Without hedging, every query would wait for the timeout
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(16, resolver.getHedged() - hedged);
+            assertEquals(16, resolver.getHedgesAnswered() - answered);
+        }
+    }
+
+    @Test
+    public void hedgesOutlastServerFailures() throws IOException {
+        // The first copy of each query for 10.0.1.0/24 fails, before the hedged copy is answered by the other server
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        Function<DnsMessage, StubDnsServer.Reply> handler = query -> {
+            if (!query.questionName.endsWith(".1.0.10.in-addr.arpa")) {
+                return StubDnsServer.Reply.ptr(query, "host.example.com");
+            } else if (seen.add(query.questionName)) {
+                sleep(100);
+                return new StubDnsServer.Reply(DnsMessage.RCODE_SERVFAIL);
+            }
+            sleep(300);
+            return StubDnsServer.Reply.ptr(query, "host.example.com");
+        };
+
+        try (StubDnsServer first = new StubDnsServer(handler);
+             StubDnsServer second = new StubDnsServer(handler);
+             NioResolver resolver = new NioResolver(Arrays.asList(first.getAddress(), second.getAddress()), true,
+                     5000, 0, 1)) {
+            List<CompletableFuture<Resolution>> results = new ArrayList<>();
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/24")) {
+                results.add(resolver.resolve(address));
+            }
+            results.forEach(CompletableFuture::join);
+
+            long answered = resolver.getHedgesAnswered();
+            for (InetAddress address : InetAddressRange.parse("10.0.1.0/30")) {
+                assertEquals("host.example.com", resolver.resolve(address).join().hostName);
+            }
+            assertEquals(4, resolver.getHedgesAnswered() - answered);
+        }
+    }
+
+    @Test
+    public void retriesServerFailuresOnAnotherServer() throws IOException {
+        try (StubDnsServer failing = new StubDnsServer(query -> new StubDnsServer.Reply(DnsMessage.RCODE_SERVFAIL));
+             StubDnsServer good = new StubDnsServer(query -> StubDnsServer.Reply.ptr(query, "host.example.com"));
+             NioResolver resolver = new NioResolver(Arrays.asList(failing.getAddress(), good.getAddress()), false,
+                     5000, 1, 1)) {
+            long start = System.nanoTime();
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/28")) {
+                assertEquals("host.example.com", resolver.resolve(address).join().hostName);
+            }
+
+            // Retried as soon as the failure arrives, without waiting for the timeout
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+    }
+
+    @Test
+    public void retriesOnAnotherServer() throws IOException {
+        try (StubDnsServer silent = new StubDnsServer(query -> null);
+             StubDnsServer good = new StubDnsServer(query -> StubDnsServer.Reply.ptr(query, "host.example.com"));
+             NioResolver resolver = new NioResolver(Arrays.asList(silent.getAddress(), good.getAddress()), false,
+                     20, 1, 1)) {
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/28")) {
+                assertEquals("host.example.com", resolver.resolve(address).join().hostName);
+            }
+            assertTrue(silent.getQueries() <= 16);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
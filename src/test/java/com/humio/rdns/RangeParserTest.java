@@ -0,0 +1,108 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RangeParserTest {
+    @TempDir
+    Path temp;
+
+    private static void assertParsesLike(String literal) throws IOException {
+        InetAddress expected = InetAddress.getByName(literal);
+        InetAddressRange range = RangeParser.parseRange(literal);
+
+        assertEquals(expected.getAddress().length, range.getAddressSize(), literal);
+        assertEquals(InetAddressRange.inclusive(expected, expected), range, literal);
+    }
+
+    @Test
+    public void ipv4() throws IOException {
+        for (String literal : Arrays.asList("0.0.0.0", "1.2.3.4", "255.255.255.255", "10.010.0.1")) {
+            assertParsesLike(literal);
+        }
+    }
+
+    @Test
+    public void ipv6() throws IOException {
+        for (String literal : Arrays.asList("::", "::1", "1::", "2001:db8::8a2e:370:7334",
+                "2001:0db8:85a3:0000:0000:8a2e:0370:7334", "2001:DB8:85A3::8A2E:370:7334", "1:2:3:4:5:6:7::",
+                "::2:3:4:5:6:7:8", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff", "64:ff9b::192.0.2.33", "::1.2.3.4")) {
+            assertParsesLike(literal);
+        }
+    }
+
+    @Test
+    public void invalid() {
+        for (String range : Arrays.asList("localhost", "1.2.3", "1.2.3.4.5", "256.0.0.1", "1.2.3.", "1..2.3",
+                "1:2:3:4:5:6:7:8:9", "1::2::3", ":1::", "1:2:3:4:5:6:7", "12345::", "::1:", "1.2.3.4/33",
+                "::/129", "1.2.3.4/", "1.2.3.4-::1", "1.2.3.4-", "fe80::1%eth0")) {
+            assertThrows(IllegalArgumentException.class, () -> RangeParser.parseRange(range), range);
+        }
+    }
+
+    @Test
+    public void ranges() {
+        assertEquals(InetAddressRange.parse("10.0.0.0-10.0.0.255"), RangeParser.parseRange("10.0.0.17/24"));
+        assertEquals(InetAddressRange.parse("::-::ffff"), RangeParser.parseRange(" :: - ::ffff "));
+        assertEquals(InetAddressRange.parse("2001:db8::-2001:db8::ffff:ffff"),
+                RangeParser.parseRange("2001:db8::1 / 96"));
+    }
+
+    @Test
+    public void file() throws IOException {
+        Path file = temp.resolve("ranges.txt");
+        Files.write(file, ("# Office networks\n" +
+                "10.0.0.0/24\r\n" +
+                "\n" +
+                "   \t\n" +
+                "10.0.1.1 - 10.0.1.5  # Printers\n" +
+                "2001:db8::/126").getBytes(StandardCharsets.US_ASCII));
+
+        List<InetAddressRange> ranges = new ArrayList<>();
+        RangeParser.parseFile(file, ranges::add);
+
+        assertEquals(Arrays.asList(
+                InetAddressRange.parse("10.0.0.0/24"),
+                InetAddressRange.parse("10.0.1.1-10.0.1.5"),
+                InetAddressRange.parse("2001:db8::-2001:db8::3")), ranges);
+    }
+
+    @Test
+    public void fileLargerThanBuffer() throws IOException {
+        Path file = temp.resolve("ranges.txt");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("10.0.").append(i / 256).append('.').append(i % 256).append('\n');
+        }
+        Files.write(file, content.toString().getBytes(StandardCharsets.US_ASCII));
+
+        List<InetAddressRange> ranges = new ArrayList<>();
+        RangeParser.parseFile(file, ranges::add, 32);
+
+        assertEquals(1000, ranges.size());
+        assertEquals(InetAddressRange.parse("10.0.3.231"), ranges.get(999));
+    }
+
+    @Test
+    public void fileErrorHasLineNumber() throws IOException {
+        Path file = temp.resolve("ranges.txt");
+        Files.write(file, "10.0.0.0/24\n# comment\n\nexample.com\n".getBytes(StandardCharsets.US_ASCII));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> RangeParser.parseFile(file, range -> { }));
+        assertTrue(e.getMessage().startsWith("Line 4: "), e.getMessage());
+    }
+}
@@ -0,0 +1,145 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RdnsScannerTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    public void streamsHostNamesInAddressOrder() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(RdnsScannerTest::answer)) {
+            RdnsScanner scanner = RdnsScanner.builder()
+                    .ranges(InetAddressRange.parse("10.0.1.0/30"), InetAddressRange.parse("10.0.0.0/24"))
+                    .ranges(Arrays.asList(InetAddressRange.parse("10.0.0.250-10.0.1.1")))
+                    .dnsServers(server.getAddress())
+                    .parallelism(32)
+                    .build();
+
+            try (Stream<RdnsScanner.Result> results = scanner.stream()) {
+                // Addresses ending in 1 have host names, 26 in 10.0.0.0/24 and one in 10.0.1.0/30
+                List<String> named = results.map(RdnsScanner.Result::toString).collect(Collectors.toList());
+                assertEquals(27, named.size());
+                assertEquals(Arrays.asList("10.0.0.1=host-1.example.com", "10.0.0.11=host-11.example.com"),
+                        named.subList(0, 2));
+                assertEquals(Arrays.asList("10.0.0.251=host-251.example.com", "10.0.1.1=host-1.example.com"),
+                        named.subList(25, 27));
+            }
+
+            // Every stream looks up the addresses again
+            try (Stream<RdnsScanner.Result> results = scanner.stream()) {
+                assertEquals(27, results.count());
+            }
+            assertEquals(2 * 260, server.getQueries());
+        }
+    }
+
+    @Test
+    public void includesAddressesWithoutHostNames() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(RdnsScannerTest::answer)) {
+            RdnsScanner scanner = RdnsScanner.builder()
+                    .ranges(InetAddressRange.parse("10.0.0.0/30"))
+                    .dnsServers(server.getAddress())
+                    .includeUnresolved(true)
+                    .build();
+
+            try (Stream<RdnsScanner.Result> results = scanner.stream()) {
+                assertEquals(Arrays.asList("10.0.0.0=null", "10.0.0.1=host-1.example.com", "10.0.0.2=null",
+                        "10.0.0.3=null"), results.map(RdnsScanner.Result::toString).collect(Collectors.toList()));
+            }
+        }
+    }
+
+    @Test
+    public void onlyLooksUpAheadOfTheConsumerByTheParallelism() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(RdnsScannerTest::answer)) {
+            RdnsScanner scanner = RdnsScanner.builder()
+                    .ranges(InetAddressRange.parse("10.0.0.0/8"))
+                    .dnsServers(server.getAddress())
+                    .parallelism(16)
+                    .build();
+
+            try (Stream<RdnsScanner.Result> results = scanner.stream()) {
+                List<RdnsScanner.Result> first = results.limit(10).collect(Collectors.toList());
+                assertEquals(10, first.size());
+            }
+
+            // 10 host names are in the first 100 addresses
+            assertTrue(server.getQueries() <= 100 + 16, "Queries: " + server.getQueries());
+        }
+    }
+
+    @Test
+    public void holdsBackABoundedNumberOfResultsBehindAStalledLookup() throws IOException {
+        CountDownLatch laterCompleted = new CountDownLatch(400);
+
+        // The first address only resolves after 400 later addresses
+        try (Resolver resolver = new SystemResolver(address -> {
+            if (address.getAddress()[2] == 0 && address.getAddress()[3] == 0) {
+                try {
+                    laterCompleted.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                laterCompleted.countDown();
+            }
+            return "host-" + address.getHostAddress();
+        }, 8)) {
+            RdnsScanner.Lookups lookups = new RdnsScanner.Lookups(Collections.singletonList(
+                    InetAddressRange.parse("10.0.0.0/23")), resolver, 8, 8, temp, false);
+
+            try (Stream<RdnsScanner.Result> results = RdnsScanner.stream(lookups)) {
+                Iterator<RdnsScanner.Result> iterator = results.iterator();
+                assertEquals("10.0.0.0=host-10.0.0.0", iterator.next().toString());
+
+                // Later results are taken from disk one at a time, not all at once when the stalled lookup completes
+                assertTrue(lookups.getMaxHeld() <= 8 + 1 + LookupEngine.MAX_RUNS + 1, "Held " + lookups.getMaxHeld());
+                try (Stream<Path> files = Files.list(temp)) {
+                    assertTrue(files.count() > 0);
+                }
+
+                List<String> rest = new ArrayList<>();
+                iterator.forEachRemaining(result -> rest.add(result.toString()));
+                assertEquals(511, rest.size());
+                assertEquals("10.0.0.1=host-10.0.0.1", rest.get(0));
+                assertEquals("10.0.1.255=host-10.0.1.255", rest.get(510));
+            }
+        }
+
+        try (Stream<Path> files = Files.list(temp)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> RdnsScanner.builder().parallelism(0).build());
+        assertThrows(IllegalArgumentException.class, () -> RdnsScanner.builder().hedge(true).build());
+    }
+
+    private static StubDnsServer.Reply answer(DnsMessage query) {
+        String last = query.questionName.substring(0, query.questionName.indexOf('.'));
+        return last.endsWith("1")
+                ? StubDnsServer.Reply.ptr(query, "host-" + last + ".example.com")
+                : StubDnsServer.Reply.nxdomain();
+    }
+}
@@ -0,0 +1,245 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RefreshDaemonTest {
+    private static final String HEADER = "ip,hostname\r\n";
+
+    @Test
+    public void publishesOnlyWhenResultsChangeAndKeepsThemWhenLookupsFail() {
+        FakeDns dns = new FakeDns();
+        dns.names.put("10.0.0.1", "a.example.com");
+        dns.names.put("10.0.0.2", "b.example.com");
+
+        Host host = new Host(dns) {
+            @Override
+            public void swept() {
+                sweeps++;
+                if (sweeps == 1) {
+                    dns.failing = true;
+                } else if (sweeps == 2) {
+                    dns.failing = false;
+                    dns.names.put("10.0.0.2", "c.example.com");
+                } else if (sweeps == 3) {
+                    daemon.get().stop();
+                }
+            }
+        };
+
+        host.run(ranges("10.0.0.0/30"), TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(3, host.sweeps);
+        assertEquals(2, host.published.size());
+        assertEquals(HEADER + "10.0.0.1,a.example.com\r\n10.0.0.2,b.example.com\r\n", host.published.get(0));
+        assertEquals(HEADER + "10.0.0.1,a.example.com\r\n10.0.0.2,c.example.com\r\n", host.published.get(1));
+    }
+
+    @Test
+    public void keepsResultsWhenSystemLookupsFail() {
+        // The JVM resolver returns the address when the lookup fails, like it does when there is no host name
+        AtomicBoolean failing = new AtomicBoolean();
+
+        Host host = new Host(new FakeDns()) {
+            @Override
+            public Resolver createResolver(List<InetAddressRange> ranges) {
+                return new SystemResolver(address -> failing.get() || address.getAddress()[3] != 1
+                        ? address.getHostAddress()
+                        : "a.example.com", 2);
+            }
+
+            @Override
+            public void swept() {
+                if (++sweeps == 1) {
+                    failing.set(true);
+                } else if (sweeps == 2) {
+                    daemon.get().stop();
+                }
+            }
+        };
+
+        host.run(ranges("10.0.0.0/30"), TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(2, host.sweeps);
+        assertEquals(Collections.singletonList(HEADER + "10.0.0.1,a.example.com\r\n"), host.published);
+    }
+
+    @Test
+    public void spreadsLookupsOverTheInterval() {
+        List<Long> started = Collections.synchronizedList(new ArrayList<>());
+        FakeDns dns = new FakeDns() {
+            @Override
+            public CompletableFuture<Resolution> resolve(InetAddress address) {
+                started.add(System.nanoTime());
+                return super.resolve(address);
+            }
+        };
+
+        Host host = new Host(dns) {
+            @Override
+            public void swept() {
+                daemon.get().stop();
+            }
+        };
+
+        host.run(ranges("10.0.0.0/29"), TimeUnit.MILLISECONDS.toNanos(800));
+
+        assertEquals(8, started.size());
+        long spread = TimeUnit.NANOSECONDS.toMillis(started.get(7) - started.get(0));
+        assertTrue(spread >= 500 && spread < 800, "Lookups were spread over " + spread + " ms");
+    }
+
+    @Test
+    public void dropsRemovedAndLooksUpAddedAddressesWhenRangesChange() {
+        FakeDns dns = new FakeDns();
+        dns.names.put("10.0.0.1", "a.example.com");
+        dns.names.put("10.0.0.3", "b.example.com");
+        dns.names.put("10.0.1.1", "c.example.com");
+
+        Host host = new Host(dns) {
+            @Override
+            public void swept() {
+                if (++sweeps == 1) {
+                    changedRanges.set(ranges("10.0.0.0/31", "10.0.1.0/31"));
+                }
+            }
+
+            @Override
+            public boolean publish(RefreshDaemon refreshed) throws Exception {
+                super.publish(refreshed);
+                if (published.size() == 2) {
+                    refreshed.stop();
+                }
+                return true;
+            }
+        };
+
+        host.run(ranges("10.0.0.0/30"), TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(2, host.published.size());
+        assertEquals(HEADER + "10.0.0.1,a.example.com\r\n10.0.0.3,b.example.com\r\n", host.published.get(0));
+        assertEquals(HEADER + "10.0.0.1,a.example.com\r\n10.0.1.1,c.example.com\r\n", host.published.get(1));
+        assertTrue(host.log().contains("Ranges changed, looking up 2 added addresses"), host.log());
+    }
+
+    @Test
+    public void retriesFailedPublishing() {
+        FakeDns dns = new FakeDns();
+        dns.names.put("10.0.0.1", "a.example.com");
+
+        Host host = new Host(dns) {
+            @Override
+            public boolean publish(RefreshDaemon refreshed) throws Exception {
+                if (++sweeps == 1) {
+                    throw new IOException("Upload failed");
+                }
+                super.publish(refreshed);
+                refreshed.stop();
+                return true;
+            }
+        };
+
+        host.run(ranges("10.0.0.0/30"), TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(1, host.published.size());
+        assertTrue(host.log().contains("Failed publishing results: java.io.IOException: Upload failed"),
+                host.log());
+        assertFalse(host.log().contains("Ranges changed"), host.log());
+    }
+
+    private static List<InetAddressRange> ranges(String... ranges) {
+        List<InetAddressRange> parsed = new ArrayList<>();
+        for (String range : ranges) {
+            parsed.add(InetAddressRange.parse(range));
+        }
+        return InetAddressRange.normalize(parsed);
+    }
+
+    /** Resolver answering from a map of host names, or failing every lookup */
+    private static class FakeDns implements Resolver {
+        final Map<String, String> names = new ConcurrentHashMap<>();
+        volatile boolean failing;
+
+        @Override
+        public CompletableFuture<Resolution> resolve(InetAddress address) {
+            CompletableFuture<Resolution> future = new CompletableFuture<>();
+            if (failing) {
+                future.completeExceptionally(new IOException("Server failure"));
+            } else {
+                String name = names.get(address.getHostAddress());
+                future.complete(name != null ? Resolution.of(name, 60) : Resolution.none(60));
+            }
+            return future;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Callbacks that collect what the daemon publishes, with ranges that the test can change */
+    private static class Host implements RefreshDaemon.Callbacks {
+        final FakeDns dns;
+        final AtomicReference<RefreshDaemon> daemon = new AtomicReference<>();
+        final AtomicReference<List<InetAddressRange>> changedRanges = new AtomicReference<>();
+        final List<String> published = new ArrayList<>();
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        int sweeps;
+
+        Host(FakeDns dns) {
+            this.dns = dns;
+        }
+
+        void run(List<InetAddressRange> ranges, long intervalNanos) {
+            daemon.set(new RefreshDaemon(this, intervalNanos, 4, new PrintStream(log, true)));
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> daemon.get().run(ranges));
+        }
+
+        String log() {
+            return log.toString();
+        }
+
+        @Override
+        public List<InetAddressRange> checkRanges() {
+            return changedRanges.getAndSet(null);
+        }
+
+        @Override
+        public Resolver createResolver(List<InetAddressRange> ranges) {
+            return dns;
+        }
+
+        @Override
+        public boolean publish(RefreshDaemon refreshed) throws Exception {
+            StringWriter out = new StringWriter();
+            refreshed.writeTo(out);
+            published.add(out.toString());
+            return true;
+        }
+
+        @Override
+        public void swept() {
+            sweeps++;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResolutionCacheTest {
+    private static final long NOW = 1_600_000_000_000L;
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void storesPositiveAndNegative() throws IOException {
+        try (ResolutionCache cache = ResolutionCache.open(temp.resolve("cache"), 3600)) {
+            cache.put(4, 0, 0x0A000001L, Resolution.of("one.example.com", 600), NOW);
+            cache.put(4, 0, 0x0A000002L, Resolution.none(300), NOW);
+
+            assertEquals("one.example.com", cache.get(4, 0, 0x0A000001L, NOW).hostName);
+            assertEquals(600, cache.get(4, 0, 0x0A000001L, NOW).ttl);
+
+            Resolution negative = cache.get(4, 0, 0x0A000002L, NOW + 1000);
+            assertNotNull(negative);
+            assertNull(negative.hostName);
+            assertEquals(299, negative.ttl);
+
+            assertNull(cache.get(4, 0, 0x0A000003L, NOW));
+        }
+    }
+
+    @Test
+    public void familiesAreDistinct() throws IOException {
+        try (ResolutionCache cache = ResolutionCache.open(temp.resolve("cache"), 3600)) {
+            cache.put(4, 0, 1, Resolution.of("v4.example.com", 600), NOW);
+            cache.put(16, 0, 1, Resolution.of("v6.example.com", 600), NOW);
+
+            assertEquals("v4.example.com", cache.get(4, 0, 1, NOW).hostName);
+            assertEquals("v6.example.com", cache.get(16, 0, 1, NOW).hostName);
+        }
+    }
+
+    @Test
+    public void expires() throws IOException {
+        try (ResolutionCache cache = ResolutionCache.open(temp.resolve("cache"), 3600)) {
+            cache.put(4, 0, 1, Resolution.of("short.example.com", 60), NOW);
+            cache.put(4, 0, 2, Resolution.of("long.example.com", 86400), NOW);
+            cache.put(4, 0, 3, Resolution.of("unknown.example.com", Resolution.UNKNOWN_TTL), NOW);
+
+            assertNotNull(cache.get(4, 0, 1, NOW + 59_000));
+            assertNull(cache.get(4, 0, 1, NOW + 60_000));
+
+            // Capped by the maximum age
+            assertNotNull(cache.get(4, 0, 2, NOW + 3_599_000));
+            assertNull(cache.get(4, 0, 2, NOW + 3_600_000));
+            assertNotNull(cache.get(4, 0, 3, NOW + 3_599_000));
+            assertNull(cache.get(4, 0, 3, NOW + 3_600_000));
+        }
+    }
+
+    @Test
+    public void persistsAndGrows() throws IOException {
+        Path path = temp.resolve("cache");
+
+        try (ResolutionCache cache = ResolutionCache.open(path, 3600)) {
+            for (int i = 0; i < 20000; i++) {
+                cache.put(16, 0x20010db8L << 32, i, Resolution.of("host-" + i + ".example.com", 600), NOW);
+            }
+            // Replace some entries, with new and unchanged names
+            for (int i = 0; i < 20000; i += 2) {
+                cache.put(16, 0x20010db8L << 32, i, Resolution.of("renamed-" + i + ".example.com", 600), NOW);
+            }
+            for (int i = 1; i < 20000; i += 2) {
+                cache.put(16, 0x20010db8L << 32, i, Resolution.of("host-" + i + ".example.com", 600), NOW);
+            }
+        }
+
+        try (ResolutionCache cache = ResolutionCache.open(path, 3600)) {
+            assertEquals(20000, cache.size());
+            for (int i = 0; i < 20000; i++) {
+                String expected = (i % 2 == 0 ? "renamed-" : "host-") + i + ".example.com";
+                assertEquals(expected, cache.get(16, 0x20010db8L << 32, i, NOW).hostName);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        Path path = temp.resolve("cache");
+        Files.write(path, new byte[128]);
+
+        assertThrows(IOException.class, () -> ResolutionCache.open(path, 3600));
+    }
+
+    @Test
+    public void cachingResolver() throws IOException {
+        AtomicInteger lookups = new AtomicInteger();
+        AtomicLong clock = new AtomicLong(NOW);
+
+        Resolver counting = new Resolver() {
+            @Override
+            public CompletableFuture<Resolution> resolve(InetAddress address) {
+                lookups.incrementAndGet();
+                return CompletableFuture.completedFuture(address.getAddress()[3] == 1
+                        ? Resolution.of("one.example.com", 60)
+                        : Resolution.none(60));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        Path path = temp.resolve("cache");
+        InetAddress one = InetAddress.getByName("10.0.0.1");
+        InetAddress two = InetAddress.getByName("10.0.0.2");
+
+        try (CachingResolver resolver = new CachingResolver(counting, ResolutionCache.open(path, 3600), clock::get)) {
+            assertEquals("one.example.com", resolver.resolve(one).join().hostName);
+            assertNull(resolver.resolve(two).join().hostName);
+            assertEquals(2, lookups.get());
+        }
+
+        try (CachingResolver resolver = new CachingResolver(counting, ResolutionCache.open(path, 3600), clock::get)) {
+            assertEquals("one.example.com", resolver.resolve(one).join().hostName);
+            assertNull(resolver.resolve(two).join().hostName);
+            assertEquals(2, lookups.get());
+            assertEquals(2, resolver.getHits());
+
+            clock.addAndGet(60_000);
+            assertEquals("one.example.com", resolver.resolve(one).join().hostName);
+            assertEquals(3, lookups.get());
+            assertEquals(1, resolver.getMisses());
+        }
+    }
+
+    @Test
+    public void doesNotCacheAddressesWithoutHostNamesFromTheSystemResolver() throws IOException {
+        Path path = temp.resolve("cache");
+
+        // The JVM resolver returns the address both if it has no host name and if the lookup failed
+        try (CachingResolver resolver = new CachingResolver(new SystemResolver(
+                address -> address.getAddress()[3] == 1 ? "one.example.com" : address.getHostAddress(), 1),
+                ResolutionCache.open(path, 3600))) {
+            assertEquals("one.example.com", resolver.resolve(InetAddress.getByName("10.0.0.1")).join().hostName);
+            assertThrows(CompletionException.class, () -> resolver.resolve(InetAddress.getByName("10.0.0.2")).join());
+        }
+
+        try (ResolutionCache cache = ResolutionCache.open(path, 3600)) {
+            assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void lookupsCarryOnWhenTheCacheCanNotBeWritten() throws IOException {
+        Path path = temp.resolve("cache");
+        // Growing the cache fails, as it can not create the new file
+        Files.createDirectory(temp.resolve("cache.tmp"));
+
+        Resolver resolver = new Resolver() {
+            @Override
+            public CompletableFuture<Resolution> resolve(InetAddress address) {
+                return CompletableFuture.completedFuture(Resolution.of(address.getHostAddress() + ".example.com", 60));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try (CachingResolver caching = new CachingResolver(resolver, ResolutionCache.open(path, 3600))) {
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/20")) {
+                assertEquals(address.getHostAddress() + ".example.com", caching.resolve(address).join().hostName);
+            }
+        }
+
+        try (ResolutionCache cache = ResolutionCache.open(path, 3600)) {
+            assertTrue(cache.size() > 0 && cache.size() < 4096, "Size " + cache.size());
+        }
+    }
+}
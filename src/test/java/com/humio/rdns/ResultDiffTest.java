@@ -0,0 +1,48 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultDiffTest {
+    @Test
+    public void sameRowsAreUnchanged() throws Exception {
+        String results = "ip,hostname\r\n10.0.0.1,a\r\n10.0.0.2,b\r\n::1,c\r\n";
+        ResultDiff diff = ResultDiff.compare(new StringReader(results), new StringReader(results));
+
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void countsAddedRemovedAndChangedRows() throws Exception {
+        String previous = "ip,hostname\r\n10.0.0.1,a\r\n10.0.0.2,b\r\n10.0.0.10,c\r\n";
+        String current = "ip,hostname\r\n10.0.0.2,changed\r\n10.0.0.3,d\r\n10.0.0.10,c\r\n::1,e\r\n";
+        ResultDiff diff = ResultDiff.compare(new StringReader(previous), new StringReader(current));
+
+        assertEquals(2, diff.getAdded());
+        assertEquals(1, diff.getRemoved());
+        assertEquals(1, diff.getChanged());
+        assertEquals("2 added, 1 removed and 1 changed rows", diff.toString());
+    }
+
+    @Test
+    public void emptyPreviousResults() throws Exception {
+        ResultDiff diff = ResultDiff.compare(new StringReader(""),
+                new StringReader("ip,hostname\r\n10.0.0.1,a\r\n"));
+
+        assertEquals(1, diff.getAdded());
+    }
+
+    @Test
+    public void rejectsUnsortedRows() {
+        String unsorted = "ip,hostname\r\n10.0.0.2,b\r\n10.0.0.1,a\r\n";
+
+        assertThrows(IOException.class,
+                () -> ResultDiff.compare(new StringReader(unsorted), new StringReader("ip,hostname\r\n")));
+    }
+}
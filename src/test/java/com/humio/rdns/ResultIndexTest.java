@@ -0,0 +1,113 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResultIndexTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    public void looksUpAddressesAddedInAnyOrder() throws IOException {
+        ResultIndex.Builder builder = new ResultIndex.Builder();
+        builder.add(address("200.0.0.1"), "high.example.com");
+        builder.add(address("10.0.0.2"), "b.example.com");
+        builder.add(address("10.0.0.1"), "a.example.com");
+        builder.add(address("2001:db8::2"), "b.example.com");
+        builder.add(address("2001:db8::1"), "v6.example.com");
+        builder.add(address("ff00::1"), "high.example.com");
+
+        Path file = temp.resolve("rdns.idx");
+        builder.write(file);
+        ResultIndex index = ResultIndex.open(file);
+
+        assertEquals(6, index.size());
+        assertEquals("a.example.com", index.lookUp(address("10.0.0.1")));
+        assertEquals("b.example.com", index.lookUp(address("10.0.0.2")));
+        assertEquals("high.example.com", index.lookUp(address("200.0.0.1")));
+        assertEquals("v6.example.com", index.lookUp(address("2001:db8::1")));
+        assertEquals("b.example.com", index.lookUp(address("2001:db8::2")));
+        assertEquals("high.example.com", index.lookUp(address("ff00::1")));
+
+        assertNull(index.lookUp(address("10.0.0.0")));
+        assertNull(index.lookUp(address("10.0.0.3")));
+        assertNull(index.lookUp(address("255.255.255.255")));
+        assertNull(index.lookUp(address("::ffff:1")));
+        assertFalse(Files.exists(temp.resolve("rdns.idx.tmp")));
+    }
+
+    @Test
+    public void storesEveryHostNameOnce() throws IOException {
+        ResultIndex.Builder builder = new ResultIndex.Builder();
+        for (int i = 0; i < 100; i++) {
+            builder.add(InetAddressRange.toAddress(4, 0, 0x0a000000L + i), "same.example.com");
+        }
+
+        Path file = temp.resolve("rdns.idx");
+        builder.write(file);
+
+        // Header, 100 entries of address and offset, and the name with its length
+        assertEquals(20 + 100 * 8 + 2 + "same.example.com".length(), Files.size(file));
+        assertEquals("same.example.com", ResultIndex.open(file).lookUp(address("10.0.0.99")));
+    }
+
+    @Test
+    public void keepsOneNameOfDuplicateAddresses() throws IOException {
+        ResultIndex.Builder builder = new ResultIndex.Builder();
+        builder.add(address("10.0.0.1"), "a.example.com");
+        builder.add(address("10.0.0.1"), "a.example.com");
+        builder.add(address("2001:db8::1"), "v6.example.com");
+        builder.add(address("2001:db8::1"), "v6.example.com");
+
+        Path file = temp.resolve("rdns.idx");
+        builder.write(file);
+        ResultIndex index = ResultIndex.open(file);
+
+        assertEquals(2, index.size());
+        assertEquals("a.example.com", index.lookUp(address("10.0.0.1")));
+        assertEquals("v6.example.com", index.lookUp(address("2001:db8::1")));
+    }
+
+    @Test
+    public void emptyIndexHasNoNames() throws IOException {
+        Path file = temp.resolve("rdns.idx");
+        new ResultIndex.Builder().write(file);
+        ResultIndex index = ResultIndex.open(file);
+
+        assertEquals(0, index.size());
+        assertNull(index.lookUp(address("10.0.0.1")));
+        assertNull(index.lookUp(address("2001:db8::1")));
+    }
+
+    @Test
+    public void rejectsOtherAndTruncatedFiles() throws IOException {
+        Path other = temp.resolve("rdns.csv");
+        Files.write(other, "ip,hostname\r\n10.0.0.1,a.example.com\r\n".getBytes());
+        assertThrows(IOException.class, () -> ResultIndex.open(other));
+
+        ResultIndex.Builder builder = new ResultIndex.Builder();
+        builder.add(address("10.0.0.1"), "a.example.com");
+        Path file = temp.resolve("rdns.idx");
+        builder.write(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        Path truncated = temp.resolve("truncated.idx");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> ResultIndex.open(truncated));
+    }
+
+    private static InetAddress address(String address) {
+        return InetAddressRange.parse(address).getFirst();
+    }
+}
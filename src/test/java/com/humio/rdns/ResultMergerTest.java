@@ -0,0 +1,58 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResultMergerTest {
+    @Test
+    public void mergesSortedFilesInAddressOrder() throws Exception {
+        StringWriter out = new StringWriter();
+        long rows = ResultMerger.merge(Arrays.asList(
+                reader("10.0.0.10,c\r\n::1,e\r\n"),
+                reader("10.0.0.1,a\r\n10.0.0.2,b\r\n"),
+                reader(""),
+                reader("10.0.0.11,d\r\n")), out);
+
+        assertEquals(5, rows);
+        assertEquals("ip,hostname\r\n10.0.0.1,a\r\n10.0.0.2,b\r\n10.0.0.10,c\r\n10.0.0.11,d\r\n::1,e\r\n",
+                out.toString());
+    }
+
+    @Test
+    public void keepsTheFirstRowOfDuplicateAddresses() throws Exception {
+        StringWriter out = new StringWriter();
+        long rows = ResultMerger.merge(Arrays.asList(
+                reader("10.0.0.1,first\r\n10.0.0.2,b\r\n"),
+                reader("10.0.0.1,second\r\n")), out);
+
+        assertEquals(2, rows);
+        assertEquals("ip,hostname\r\n10.0.0.1,first\r\n10.0.0.2,b\r\n", out.toString());
+    }
+
+    @Test
+    public void rejectsUnsortedFiles() {
+        List<Reader> inputs = Collections.singletonList(reader("10.0.0.2,b\r\n10.0.0.1,a\r\n"));
+        assertThrows(IOException.class, () -> ResultMerger.merge(inputs, new StringWriter()));
+    }
+
+    @Test
+    public void noFiles() throws Exception {
+        StringWriter out = new StringWriter();
+        assertEquals(0, ResultMerger.merge(Collections.emptyList(), out));
+        assertEquals("ip,hostname\r\n", out.toString());
+    }
+
+    private static Reader reader(String rows) {
+        return new StringReader("ip,hostname\r\n" + rows);
+    }
+}
@@ -0,0 +1,66 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResultSplitterTest {
+    @Test
+    public void splitsRowsIntoPartsInOrder() throws IOException {
+        String results = "ip,hostname\r\n10.0.0.1,a\r\n10.0.0.2,b\r\n10.0.0.3,c\r\n::1,d\r\n::2,\"e,f\"\r\n";
+        List<StringWriter> outputs = new ArrayList<>();
+
+        List<ResultSplitter.Part> parts = ResultSplitter.split(new StringReader(results), 2, "rdns.csv", index -> {
+            assertEquals(outputs.size(), index);
+            StringWriter out = new StringWriter();
+            outputs.add(out);
+            return out;
+        });
+
+        assertEquals(3, parts.size());
+        assertEquals("ip,hostname\r\n10.0.0.1,a\r\n10.0.0.2,b\r\n", outputs.get(0).toString());
+        assertEquals("ip,hostname\r\n10.0.0.3,c\r\n::1,d\r\n", outputs.get(1).toString());
+        assertEquals("ip,hostname\r\n::2,\"e,f\"\r\n", outputs.get(2).toString());
+
+        StringWriter manifest = new StringWriter();
+        ResultSplitter.writeManifest(parts, manifest);
+        assertEquals("file,first,last,rows\r\n" +
+                "rdns-0.csv,10.0.0.1,10.0.0.2,2\r\n" +
+                "rdns-1.csv,10.0.0.3,::1,2\r\n" +
+                "rdns-2.csv,::2,::2,1\r\n", manifest.toString());
+    }
+
+    @Test
+    public void writesOneEmptyPartWithoutRows() throws IOException {
+        List<StringWriter> outputs = new ArrayList<>();
+
+        List<ResultSplitter.Part> parts = ResultSplitter.split(new StringReader("ip,hostname\r\n"), 10, "rdns.csv",
+                index -> {
+                    StringWriter out = new StringWriter();
+                    outputs.add(out);
+                    return out;
+                });
+
+        assertEquals(1, parts.size());
+        assertEquals("ip,hostname\r\n", outputs.get(0).toString());
+
+        StringWriter manifest = new StringWriter();
+        ResultSplitter.writeManifest(parts, manifest);
+        assertEquals("file,first,last,rows\r\nrdns-0.csv,,,0\r\n", manifest.toString());
+    }
+
+    @Test
+    public void namesPartsAfterTheLookupFile() {
+        assertEquals("rdns-3.csv", ResultSplitter.partName("rdns.csv", 3));
+        assertEquals("rdns-manifest.csv", ResultSplitter.manifestName("rdns.csv"));
+        assertThrows(IllegalArgumentException.class,
+                () -> ResultSplitter.split(new StringReader(""), 0, "rdns.csv", index -> new StringWriter()));
+    }
+}
@@ -0,0 +1,142 @@
+package com.humio.rdns;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultStoreTest {
+    @Test
+    public void writesHostNamesSortedByAddress() throws IOException {
+        ResultStore store = new ResultStore();
+        put(store, "2001:db8::1", "v6.example.com");
+        put(store, "10.0.0.2", "b.corp.example.com");
+        put(store, "10.0.0.1", "a.corp.example.com");
+        put(store, "200.0.0.1", "localhost");
+        put(store, "::a00:1", "mapped.example.com");
+
+        assertEquals(csv("10.0.0.1", "a.corp.example.com", "10.0.0.2", "b.corp.example.com",
+                "200.0.0.1", "localhost", "0:0:0:0:0:0:a00:1", "mapped.example.com",
+                "2001:db8:0:0:0:0:0:1", "v6.example.com"), write(store));
+        assertEquals(5, store.size());
+    }
+
+    @Test
+    public void reportsWhetherNamesChanged() {
+        ResultStore store = new ResultStore();
+
+        assertTrue(put(store, "10.0.0.1", "a.example.com"));
+        assertFalse(put(store, "10.0.0.1", "a.example.com"));
+        assertTrue(put(store, "10.0.0.1", "a.example.net"));
+        assertTrue(put(store, "10.0.0.1", "b.example.net"));
+        assertEquals("b.example.net", get(store, "10.0.0.1"));
+
+        assertTrue(remove(store, "10.0.0.1"));
+        assertFalse(remove(store, "10.0.0.1"));
+        assertNull(get(store, "10.0.0.1"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void retainsAddressesInRanges() throws IOException {
+        ResultStore store = new ResultStore();
+        for (int i = 0; i < 8; i++) {
+            put(store, "10.0.0." + i, "host-" + i + ".example.com");
+        }
+
+        int removed = store.retainAll(InetAddressRange.normalize(Arrays.asList(
+                InetAddressRange.parse("10.0.0.2-10.0.0.3"), InetAddressRange.parse("10.0.0.7"))));
+
+        assertEquals(5, removed);
+        assertEquals(csv("10.0.0.2", "host-2.example.com", "10.0.0.3", "host-3.example.com",
+                "10.0.0.7", "host-7.example.com"), write(store));
+    }
+
+    @Test
+    public void writesNamesLikeStrings() throws IOException {
+        ResultStore store = new ResultStore();
+        put(store, "10.0.0.1", "bücher.example.com");
+        put(store, "10.0.0.2", "with,comma.example.com");
+        put(store, "10.0.0.3", "with\"quote");
+        put(store, "10.0.0.4", "trailing.dot.");
+
+        assertEquals(csv("10.0.0.1", "bücher.example.com", "10.0.0.2", "with,comma.example.com",
+                "10.0.0.3", "with\"quote", "10.0.0.4", "trailing.dot."), write(store));
+    }
+
+    @Test
+    public void keepsNamesWhenCompactingReplacedLabels() throws IOException {
+        ResultStore store = new ResultStore();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10000; i++) {
+                store.put(4, 0, 0x0a000000L + i, "host-" + i + "-round-" + round + ".example.com");
+            }
+        }
+
+        assertEquals(10000, store.size());
+        assertEquals("host-0-round-19.example.com", get(store, "10.0.0.0"));
+        assertEquals("host-9999-round-19.example.com", get(store, "10.0.39.15"));
+    }
+
+    @Test
+    public void formatsAddressesLikeInetAddress() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            byte[] bytes = new byte[i % 2 == 0 ? 4 : 16];
+            random.nextBytes(bytes);
+            if (i % 3 == 0) {
+                // Groups with leading zeros
+                Arrays.fill(bytes, 0, bytes.length / 2, (byte) 0);
+            }
+            InetAddress address = InetAddressRange.toAddress(bytes.length, InetAddressRange.hi(bytes),
+                    InetAddressRange.lo(bytes));
+
+            StringBuilder formatted = new StringBuilder();
+            ResultStore.appendAddress(bytes.length, InetAddressRange.hi(bytes), InetAddressRange.lo(bytes),
+                    formatted);
+            assertEquals(address.getHostAddress(), formatted.toString());
+        }
+    }
+
+    private static boolean put(ResultStore store, String address, String hostName) {
+        InetAddressRange range = InetAddressRange.parse(address);
+        return store.put(range.getAddressSize(), range.getFirstHi(), range.getFirstLo(), hostName);
+    }
+
+    private static boolean remove(ResultStore store, String address) {
+        InetAddressRange range = InetAddressRange.parse(address);
+        return store.remove(range.getAddressSize(), range.getFirstHi(), range.getFirstLo());
+    }
+
+    private static String get(ResultStore store, String address) {
+        InetAddressRange range = InetAddressRange.parse(address);
+        return store.get(range.getAddressSize(), range.getFirstHi(), range.getFirstLo());
+    }
+
+    private static String write(ResultStore store) throws IOException {
+        StringWriter out = new StringWriter();
+        store.writeTo(out);
+        return out.toString();
+    }
+
+    /** The rows as written by printing strings */
+    private static String csv(String... cells) throws IOException {
+        StringWriter out = new StringWriter();
+        CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader("ip", "hostname"));
+        for (int i = 0; i < cells.length; i += 2) {
+            printer.printRecord(cells[i], cells[i + 1]);
+        }
+        printer.flush();
+        return out.toString();
+    }
+}
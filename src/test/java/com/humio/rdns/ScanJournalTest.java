@@ -0,0 +1,148 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ScanJournalTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    public void resumesFromTheLastCheckpoint() throws IOException {
+        Path file = temp.resolve("scan.journal");
+        List<InetAddressRange> ranges = ranges("10.0.0.0/29");
+
+        try (ScanJournal journal = ScanJournal.open(file, ranges, true, Long.MAX_VALUE)) {
+            assertEquals(0, journal.getResumed());
+            for (int i = 0; i < 4; i++) {
+                journal.record(address("10.0.0." + i), i % 2 == 1 ? "host-" + i + ".example.com" : null);
+            }
+        }
+
+        // A complete row without a checkpoint and a row that was cut off when the scan stopped
+        long checkpointed = Files.size(file);
+        Files.write(file, new byte[] { 'R', 4, 10, 0, 0, 4, 0, 1, 'x', 'R', 4, 10, 0 }, StandardOpenOption.APPEND);
+
+        try (ScanJournal journal = ScanJournal.open(file, ranges, true, Long.MAX_VALUE)) {
+            assertEquals(4, journal.getResumed());
+            assertEquals(2, journal.getResumedRows());
+            assertEquals(Arrays.asList("10.0.0.1=host-1.example.com", "10.0.0.3=host-3.example.com"),
+                    replay(journal));
+            assertEquals(ranges("10.0.0.4-10.0.0.7"), journal.remaining(ranges));
+            assertEquals(checkpointed, Files.size(file));
+
+            journal.record(address("10.0.0.4"), "host-4.example.com");
+        }
+
+        try (ScanJournal journal = ScanJournal.open(file, ranges, true, Long.MAX_VALUE)) {
+            assertEquals(5, journal.getResumed());
+            assertEquals(3, replay(journal).size());
+        }
+
+        try (ScanJournal journal = ScanJournal.open(file, ranges, false, Long.MAX_VALUE)) {
+            assertEquals(0, journal.getResumed());
+            assertEquals(Collections.emptyList(), replay(journal));
+        }
+    }
+
+    @Test
+    public void skipsCompletedAddressesAcrossRanges() throws IOException {
+        Path file = temp.resolve("scan.journal");
+        List<InetAddressRange> ranges = ranges("10.0.0.0/30", "10.0.1.0/30", "2001:db8::/126");
+
+        try (ScanJournal journal = ScanJournal.open(file, ranges, true, 0)) {
+            for (int i = 0; i < 6; i++) {
+                journal.record(address("10.0.0.0"), null);
+            }
+        }
+
+        try (ScanJournal journal = ScanJournal.open(file, ranges, true, 0)) {
+            assertEquals(ranges("10.0.1.2-10.0.1.3", "2001:db8::/126"), journal.remaining(ranges));
+        }
+    }
+
+    @Test
+    public void rejectsJournalsOfOtherRanges() throws IOException {
+        Path file = temp.resolve("scan.journal");
+        ScanJournal.open(file, ranges("10.0.0.0/29"), false, 0).close();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ScanJournal.open(file, ranges("10.0.0.0/28"), true, 0));
+        Files.write(file, new byte[64]);
+        assertThrows(IOException.class, () -> ScanJournal.open(file, ranges("10.0.0.0/29"), true, 0));
+    }
+
+    @Test
+    public void resumedScanWritesTheSameResults() throws IOException {
+        List<InetAddressRange> ranges = ranges("10.0.0.0/27");
+        Path file = temp.resolve("scan.journal");
+
+        StringWriter expected = new StringWriter();
+        try (Resolver resolver = new SystemResolver(ScanJournalTest::hostName, 4)) {
+            RdnsLookup.lookUp(ranges, resolver, 4, expected, new Metrics());
+        }
+
+        // The first run stops at an address, after checkpointing every address before it
+        try (ScanJournal journal = ScanJournal.open(file, ranges, true, 0);
+             Resolver resolver = new SystemResolver(address -> {
+                 if (address.getAddress()[3] == 20) {
+                     throw new IllegalStateException("Stopped");
+                 }
+                 return hostName(address);
+             }, 4)) {
+            assertThrows(IllegalStateException.class,
+                    () -> RdnsLookup.lookUp(ranges, resolver, 4, new StringWriter(), null, journal, new Metrics()));
+        }
+
+        StringWriter resumed = new StringWriter();
+        List<String> looked = Collections.synchronizedList(new ArrayList<>());
+        try (ScanJournal journal = ScanJournal.open(file, ranges, true, 0);
+             Resolver resolver = new SystemResolver(address -> {
+                 looked.add(address.getHostAddress());
+                 return hostName(address);
+             }, 4)) {
+            assertEquals(20, journal.getResumed());
+            RdnsLookup.lookUp(ranges, resolver, 4, resumed, null, journal, new Metrics());
+        }
+
+        assertEquals(expected.toString(), resumed.toString());
+        assertEquals(12, looked.size());
+    }
+
+    private static String hostName(InetAddress address) {
+        int last = address.getAddress()[3];
+        return last % 3 == 0 ? "host-" + last + ".example.com" : address.getHostAddress();
+    }
+
+    private static List<String> replay(ScanJournal journal) throws IOException {
+        List<String> rows = new ArrayList<>();
+        journal.replay((address, hostName) -> rows.add(address.getHostAddress() + "=" + hostName));
+        return rows;
+    }
+
+    private static List<InetAddressRange> ranges(String... ranges) {
+        List<InetAddressRange> parsed = new ArrayList<>();
+        for (String range : ranges) {
+            parsed.add(InetAddressRange.parse(range));
+        }
+        return InetAddressRange.normalize(parsed);
+    }
+
+    private static InetAddress address(String address) {
+        return InetAddressRange.parse(address).getFirst();
+    }
+}
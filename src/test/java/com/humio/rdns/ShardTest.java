@@ -0,0 +1,79 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardTest {
+    @Test
+    public void parsesShards() {
+        Shard shard = Shard.parse("2/5");
+        assertEquals(2, shard.index);
+        assertEquals(5, shard.count);
+        assertEquals("2/5", shard.toString());
+
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("5/5"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("-1/5"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("0/0"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("3"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("a/b"));
+    }
+
+    @Test
+    public void splitsAddressesEvenlyAcrossRanges() {
+        List<InetAddressRange> ranges = InetAddressRange.normalize(Arrays.asList(
+                InetAddressRange.parse("10.0.0.0/24"),
+                InetAddressRange.parse("10.0.2.0/25"),
+                InetAddressRange.parse("::/126")));
+
+        assertEquals(Collections.singletonList(InetAddressRange.parse("10.0.0.0-10.0.0.128")),
+                new Shard(0, 3).select(ranges));
+        assertEquals(Arrays.asList(InetAddressRange.parse("10.0.0.129-10.0.0.255"),
+                InetAddressRange.parse("10.0.2.0-10.0.2.1")),
+                new Shard(1, 3).select(ranges));
+        assertEquals(Arrays.asList(InetAddressRange.parse("10.0.2.2-10.0.2.127"),
+                InetAddressRange.parse("::/126")),
+                new Shard(2, 3).select(ranges));
+    }
+
+    @Test
+    public void shardsCoverEveryAddressOnce() {
+        List<InetAddressRange> ranges = InetAddressRange.normalize(Arrays.asList(
+                InetAddressRange.parse("10.0.0.0/8"),
+                InetAddressRange.parse("192.168.1.7"),
+                InetAddressRange.parse("2001:db8::/32")));
+        int count = 7;
+
+        List<InetAddressRange> all = new ArrayList<>();
+        BigInteger smallest = null, largest = null;
+
+        for (int i = 0; i < count; i++) {
+            List<InetAddressRange> selected = new Shard(i, count).select(ranges);
+            BigInteger size = InetAddressRange.totalSize(selected);
+            smallest = smallest == null ? size : smallest.min(size);
+            largest = largest == null ? size : largest.max(size);
+            all.addAll(selected);
+        }
+
+        assertEquals(InetAddressRange.totalSize(ranges), InetAddressRange.totalSize(all));
+        assertEquals(ranges, InetAddressRange.normalize(all));
+        assertTrue(largest.subtract(smallest).compareTo(BigInteger.ONE) <= 0);
+    }
+
+    @Test
+    public void moreShardsThanAddresses() {
+        List<InetAddressRange> ranges = Collections.singletonList(InetAddressRange.parse("10.0.0.0/31"));
+
+        assertEquals(Collections.emptyList(), new Shard(0, 3).select(ranges));
+        assertEquals(Collections.singletonList(InetAddressRange.parse("10.0.0.0")), new Shard(1, 3).select(ranges));
+        assertEquals(Collections.singletonList(InetAddressRange.parse("10.0.0.1")), new Shard(2, 3).select(ranges));
+    }
+}
@@ -0,0 +1,162 @@
+package com.humio.rdns;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/** DNS server on localhost that answers queries using a handler, for testing */
+class StubDnsServer implements Closeable {
+    private final DatagramSocket socket;
+    private final Function<DnsMessage, Reply> handler;
+    private final Thread thread;
+    private final AtomicInteger queries = new AtomicInteger();
+
+    StubDnsServer(Function<DnsMessage, Reply> handler) throws IOException {
+        this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.socket.setReceiveBufferSize(1 << 22);
+        this.handler = handler;
+        this.thread = new Thread(this::run, "stub-dns-server");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    /** Number of queries received so far */
+    int getQueries() {
+        return queries.get();
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    private void run() {
+        byte[] buffer = new byte[DnsMessage.MAX_UDP_SIZE];
+
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                queries.incrementAndGet();
+
+                DnsMessage query = DnsMessage.parse(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+                Reply reply = handler.apply(query);
+
+                if (reply != null) {
+                    byte[] bytes = reply.encode(query);
+                    socket.send(new DatagramPacket(bytes, bytes.length, packet.getSocketAddress()));
+                }
+            } catch (SocketException e) {
+                return;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** A reply with the given response code and records */
+    static class Reply {
+        final int rcode;
+        final List<DnsMessage.Record> answers = new ArrayList<>();
+        final List<DnsMessage.Record> authorities = new ArrayList<>();
+
+        Reply(int rcode) {
+            this.rcode = rcode;
+        }
+
+        static Reply nxdomain() {
+            return new Reply(DnsMessage.RCODE_NXDOMAIN);
+        }
+
+        static Reply ptr(DnsMessage query, String hostName) {
+            Reply reply = new Reply(DnsMessage.RCODE_NOERROR);
+            reply.answers.add(new DnsMessage.Record(query.questionName, DnsMessage.TYPE_PTR, 3600, hostName));
+            return reply;
+        }
+
+        Reply answer(String name, int type, long ttl, Object data) {
+            answers.add(new DnsMessage.Record(name, type, ttl, data));
+            return this;
+        }
+
+        Reply authority(String name, int type, long ttl, Object data) {
+            authorities.add(new DnsMessage.Record(name, type, ttl, data));
+            return this;
+        }
+
+        byte[] encode(DnsMessage query) {
+            ByteBuffer buffer = ByteBuffer.allocate(DnsMessage.MAX_UDP_SIZE);
+            encode(buffer, query.id, query.questionName, query.questionType);
+            buffer.flip();
+
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        void encode(ByteBuffer buffer, int id, String questionName, int questionType) {
+            buffer.putShort((short) id);
+            buffer.putShort((short) (DnsMessage.FLAG_RESPONSE | DnsMessage.FLAG_RECURSION_DESIRED | 0x80 | rcode));
+            buffer.putShort((short) 1);
+            buffer.putShort((short) answers.size());
+            buffer.putShort((short) authorities.size());
+            buffer.putShort((short) 0);
+            DnsMessage.writeName(buffer, questionName);
+            buffer.putShort((short) questionType);
+            buffer.putShort((short) DnsMessage.CLASS_IN);
+
+            for (DnsMessage.Record record : answers) {
+                writeRecord(buffer, record);
+            }
+            for (DnsMessage.Record record : authorities) {
+                writeRecord(buffer, record);
+            }
+        }
+
+        private static void writeRecord(ByteBuffer buffer, DnsMessage.Record record) {
+            DnsMessage.writeName(buffer, record.name);
+            buffer.putShort((short) record.type);
+            buffer.putShort((short) DnsMessage.CLASS_IN);
+            buffer.putInt((int) record.ttl);
+
+            int lengthPosition = buffer.position();
+            buffer.putShort((short) 0);
+
+            if (record.data instanceof InetAddress) {
+                buffer.put(((InetAddress) record.data).getAddress());
+            } else if (record.data instanceof DnsMessage.Soa) {
+                DnsMessage.Soa soa = (DnsMessage.Soa) record.data;
+                DnsMessage.writeName(buffer, soa.primaryNameServer);
+                DnsMessage.writeName(buffer, "hostmaster." + soa.primaryNameServer);
+                for (int i = 0; i < 4; i++) {
+                    buffer.putInt(3600);
+                }
+                buffer.putInt((int) soa.minimum);
+            } else {
+                DnsMessage.writeName(buffer, (String) record.data);
+                if (record.type == DnsMessage.TYPE_SOA) {
+                    // Responsible mailbox, serial, refresh, retry, expire and minimum
+                    DnsMessage.writeName(buffer, "hostmaster." + record.data);
+                    for (int i = 0; i < 5; i++) {
+                        buffer.putInt(3600);
+                    }
+                }
+            }
+
+            buffer.putShort(lengthPosition, (short) (buffer.position() - lengthPosition - 2));
+        }
+    }
+}
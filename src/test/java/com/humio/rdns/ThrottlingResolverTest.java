@@ -0,0 +1,161 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThrottlingResolverTest {
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void limitGrowsUntilCongestionAndThenBacksOffOnce() {
+        AdaptiveLimit limit = new AdaptiveLimit(4, 100);
+
+        for (int i = 0; i < 4; i++) {
+            limit.onSuccess(i * MILLI, (i + 1) * MILLI);
+        }
+        assertEquals(8, limit.get());
+
+        // Both timeouts are from lookups started before the first backoff, so only count once
+        limit.onCongestion(10 * MILLI, 20 * MILLI);
+        limit.onCongestion(11 * MILLI, 21 * MILLI);
+        assertEquals(4, limit.get());
+        assertEquals(1, limit.getDecreases());
+
+        limit.onCongestion(22 * MILLI, 30 * MILLI);
+        assertEquals(2, limit.get());
+
+        // After congestion the limit grows by about one per round trip rather than doubling
+        for (int i = 0; i < 3; i++) {
+            limit.onSuccess(31 * MILLI, 32 * MILLI);
+        }
+        assertEquals(3, limit.get());
+    }
+
+    @Test
+    public void limitBacksOffWhenLatencyGrows() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 100);
+
+        limit.onSuccess(0, 5 * MILLI);
+        int grown = limit.get();
+
+        for (int i = 1; limit.getDecreases() == 0 && i < 1000; i++) {
+            limit.onSuccess(i * MILLI, i * MILLI + 50 * MILLI);
+        }
+
+        assertEquals(1, limit.getDecreases());
+        assertTrue(limit.get() < grown + 1000, "Limit was " + limit.get());
+    }
+
+    @Test
+    public void limitStaysWithinBounds() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 3);
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSuccess(i * MILLI, (i + 1) * MILLI);
+        }
+        assertEquals(3, limit.get());
+
+        for (int i = 0; i < 10; i++) {
+            limit.onCongestion(1000 * MILLI * (i + 1), 1000 * MILLI * (i + 1) + 1);
+        }
+        assertEquals(1, limit.get());
+
+        AdaptiveLimit fixed = AdaptiveLimit.fixed(5);
+        fixed.onCongestion(0, 1);
+        fixed.onSuccess(2, 3);
+        assertEquals(5, fixed.get());
+    }
+
+    @Test
+    public void tokenBucketLimitsRate() {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        TokenBucket bucket = new TokenBucket(100, 0);
+
+        // A burst of a tenth of a second is allowed up front
+        int burst = 0;
+        while (bucket.tryAcquire(0)) {
+            burst++;
+        }
+        assertEquals(10, burst);
+        assertEquals(second / 100, bucket.nanosUntilAvailable(0));
+
+        int acquired = 0;
+        for (long now = 0; now < second; now += MILLI) {
+            if (bucket.tryAcquire(now)) {
+                acquired++;
+            }
+        }
+        assertTrue(acquired >= 99 && acquired <= 100, "Acquired " + acquired);
+    }
+
+    @Test
+    public void holdsLookupsBackAndBacksOffOnTimeouts() throws Exception {
+        List<CompletableFuture<Resolution>> started = new ArrayList<>();
+        Resolver manual = new Resolver() {
+            @Override
+            public synchronized CompletableFuture<Resolution> resolve(InetAddress address) {
+                CompletableFuture<Resolution> result = new CompletableFuture<>();
+                started.add(result);
+                return result;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try (ThrottlingResolver resolver = new ThrottlingResolver(manual, new AdaptiveLimit(4, 100), null)) {
+            List<CompletableFuture<Resolution>> results = new ArrayList<>();
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/28")) {
+                results.add(resolver.resolve(address));
+            }
+
+            assertEquals(4, started.size());
+
+            started.get(0).completeExceptionally(new SocketTimeoutException());
+            started.get(1).completeExceptionally(new SocketTimeoutException());
+
+            // Halved to 2, with 2 still in flight, so nothing more may start
+            assertEquals(2, resolver.getLimit());
+            assertEquals(1, resolver.getBackoffs());
+            assertEquals(4, started.size());
+            assertTrue(results.get(0).isCompletedExceptionally());
+
+            started.get(2).complete(Resolution.of("host", 60));
+            assertEquals("host", results.get(2).get().hostName);
+            assertEquals(5, started.size());
+            assertFalse(results.get(4).isDone());
+        }
+    }
+
+    @Test
+    public void lookupsThatCompleteImmediatelyAreAllStarted() throws IOException {
+        Resolver immediate = new Resolver() {
+            @Override
+            public CompletableFuture<Resolution> resolve(InetAddress address) {
+                return CompletableFuture.completedFuture(Resolution.none(60));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try (ThrottlingResolver resolver = new ThrottlingResolver(immediate, AdaptiveLimit.fixed(1), null)) {
+            for (InetAddress address : InetAddressRange.parse("10.0.0.0/14")) {
+                assertTrue(resolver.resolve(address).isDone());
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ZonePrunerTest {
+    /** Names with PTR records, where every name above them exists too */
+    private static final List<String> NAMES = Arrays.asList(
+            "5.2.1.10.in-addr.arpa",
+            "7.3.1.10.in-addr.arpa",
+            DnsMessage.reverseName(address("2001:db8::1")));
+
+    @Test
+    public void reverseZoneNames() {
+        assertEquals("2.1.10.in-addr.arpa", DnsMessage.reverseName(address("10.1.2.3"), 24));
+        assertEquals("10.in-addr.arpa", DnsMessage.reverseName(address("10.1.2.3"), 8));
+        assertEquals("8.b.d.0.1.0.0.2.ip6.arpa", DnsMessage.reverseName(address("2001:db8::1"), 32));
+        assertEquals("2.ip6.arpa", DnsMessage.reverseName(address("2001:db8::1"), 4));
+    }
+
+    @Test
+    public void skipsBlocksWithoutReverseZone() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(ZonePrunerTest::answer);
+             NioResolver resolver = new NioResolver(server.getAddress(), 1000, 0, 1)) {
+            ZonePruner pruner = new ZonePruner(resolver, 64);
+            List<InetAddressRange> pruned = pruner.prune(Collections.singletonList(
+                    InetAddressRange.parse("10.0.0.0/8")));
+
+            assertEquals(Collections.singletonList(InetAddressRange.parse("10.1.2.0-10.1.3.255")), pruned);
+            assertEquals(1 + 256 + 256, pruner.getQueries());
+        }
+    }
+
+    @Test
+    public void startsAtTheSmallestBlockContainingTheRange() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(ZonePrunerTest::answer);
+             NioResolver resolver = new NioResolver(server.getAddress(), 1000, 0, 1)) {
+            ZonePruner pruner = new ZonePruner(resolver, 64);
+            List<InetAddressRange> pruned = pruner.prune(InetAddressRange.normalize(Arrays.asList(
+                    InetAddressRange.parse("10.1.2.0/28"),
+                    InetAddressRange.parse("10.9.9.0/28"))));
+
+            assertEquals(Collections.singletonList(InetAddressRange.parse("10.1.2.0/28")), pruned);
+            assertEquals(2, pruner.getQueries());
+        }
+    }
+
+    @Test
+    public void splitsIpv6OnNibbles() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(ZonePrunerTest::answer);
+             NioResolver resolver = new NioResolver(server.getAddress(), 1000, 0, 1)) {
+            ZonePruner pruner = new ZonePruner(resolver, 64);
+            List<InetAddressRange> pruned = pruner.prune(Collections.singletonList(
+                    InetAddressRange.parse("2001:db8::/112")));
+
+            assertEquals(Collections.singletonList(InetAddressRange.parse("2001:db8::/124")), pruned);
+            assertEquals(1 + 16 + 16 + 16, pruner.getQueries());
+        }
+    }
+
+    @Test
+    public void keepsBlocksThatCouldNotBeChecked() throws IOException {
+        try (StubDnsServer server = new StubDnsServer(query -> query.questionName.equals("1.10.in-addr.arpa")
+                ? null
+                : answer(query));
+             NioResolver resolver = new NioResolver(server.getAddress(), 50, 0, 1)) {
+            ZonePruner pruner = new ZonePruner(resolver, 64);
+            List<InetAddressRange> pruned = pruner.prune(Collections.singletonList(
+                    InetAddressRange.parse("10.0.0.0/15")));
+
+            assertEquals(Collections.singletonList(InetAddressRange.parse("10.1.0.0/16")), pruned);
+        }
+    }
+
+    private static StubDnsServer.Reply answer(DnsMessage query) {
+        for (String name : NAMES) {
+            if (name.equals(query.questionName) || name.endsWith("." + query.questionName)) {
+                return new StubDnsServer.Reply(DnsMessage.RCODE_NOERROR);
+            }
+        }
+        return StubDnsServer.Reply.nxdomain();
+    }
+
+    private static byte[] address(String address) {
+        return InetAddressRange.parse(address).getFirst().getAddress();
+    }
+}
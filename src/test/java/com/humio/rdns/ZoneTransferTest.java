@@ -0,0 +1,200 @@
+package com.humio.rdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZoneTransferTest {
+    private static final String ZONE = "1.10.in-addr.arpa";
+    private static final String REFUSED_ZONE = "2.10.in-addr.arpa";
+
+    @Test
+    public void parsesReverseNames() {
+        assertEquals(InetAddressRange.parse("10.1.0.0/16"), ReverseZones.parse("1.10.in-addr.arpa"));
+        assertEquals(InetAddressRange.parse("10.1.2.5"), ReverseZones.parse("5.2.1.10.IN-ADDR.ARPA."));
+        assertEquals(InetAddressRange.parse("2001:db8::/32"), ReverseZones.parse("8.b.d.0.1.0.0.2.ip6.arpa"));
+        assertNull(ReverseZones.parse("0/26.2.1.10.in-addr.arpa"));
+        assertNull(ReverseZones.parse("256.10.in-addr.arpa"));
+        assertNull(ReverseZones.parse("example.com"));
+    }
+
+    @Test
+    public void transfersZoneInSeveralMessages() throws IOException {
+        try (StubAxfrServer server = new StubAxfrServer(ZoneTransferTest::transfer)) {
+            List<String> names = new ArrayList<>();
+            new AxfrClient(server.getAddress(), 1000).transfer(ZONE, record -> names.add(record.name));
+
+            assertEquals(Arrays.asList(ZONE, ZONE, "5.2.1.10.in-addr.arpa", "7.3.1.10.in-addr.arpa",
+                    "4.1.10.in-addr.arpa", "9.2.1.10.in-addr.arpa", "1.200.1.10.in-addr.arpa"), names);
+        }
+    }
+
+    @Test
+    public void failsOnRefusedTransfer() throws IOException {
+        try (StubAxfrServer server = new StubAxfrServer(ZoneTransferTest::transfer)) {
+            DnsException e = assertThrows(DnsException.class, () ->
+                    new AxfrClient(server.getAddress(), 1000).transfer(REFUSED_ZONE, record -> { }));
+            assertEquals(DnsMessage.RCODE_REFUSED, e.getRcode());
+        }
+    }
+
+    @Test
+    public void answersFromTransferredZonesAndFallsBackForOthers() throws IOException {
+        List<InetAddress> fallbacks = Collections.synchronizedList(new ArrayList<>());
+        Resolver fallback = new Resolver() {
+            @Override
+            public CompletableFuture<Resolution> resolve(InetAddress address) {
+                fallbacks.add(address);
+                return CompletableFuture.completedFuture(Resolution.of("fallback", 60));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        List<InetAddressRange> ranges = InetAddressRange.normalize(Arrays.asList(
+                InetAddressRange.parse("10.1.2.0-10.1.4.255"),
+                InetAddressRange.parse("10.2.0.0/24"),
+                InetAddressRange.parse("10.3.0.0/24")));
+
+        try (StubDnsServer dnsServer = new StubDnsServer(ZoneTransferTest::soa);
+             StubAxfrServer axfrServer = new StubAxfrServer(ZoneTransferTest::transfer);
+             NioResolver soaResolver = new NioResolver(dnsServer.getAddress(), 1000, 0, 1)) {
+            ZoneTransferResolver resolver = ZoneTransferResolver.transfer(ranges, soaResolver,
+                    new AxfrClient(axfrServer.getAddress(), 1000), fallback);
+
+            assertEquals(1, resolver.getZones());
+            assertEquals(2, resolver.getRecords());
+            assertEquals(1, resolver.getFailures().size());
+            assertTrue(resolver.getFailures().get(0).contains(REFUSED_ZONE));
+            assertEquals(Arrays.asList(
+                    InetAddressRange.parse("10.1.2.0-10.1.2.8"),
+                    InetAddressRange.parse("10.1.2.10-10.1.3.255"),
+                    InetAddressRange.parse("10.3.0.0/24")),
+                    resolver.getTransferred());
+
+            assertEquals("host-a.example.com", lookUp(resolver, "10.1.2.5"));
+            assertEquals("host-b.example.com", lookUp(resolver, "10.1.3.7"));
+            assertEquals("10.1.2.6", lookUp(resolver, "10.1.2.6"));
+            assertEquals("10.3.0.1", lookUp(resolver, "10.3.0.1"));
+            assertTrue(fallbacks.isEmpty());
+
+            // Classless delegation, delegated subnet, refused zone and address outside the ranges
+            assertEquals("fallback", lookUp(resolver, "10.1.2.9"));
+            assertEquals("fallback", lookUp(resolver, "10.1.4.1"));
+            assertEquals("fallback", lookUp(resolver, "10.2.0.1"));
+            assertEquals("fallback", lookUp(resolver, "10.1.200.1"));
+            assertEquals(4, fallbacks.size());
+        }
+    }
+
+    private static String lookUp(Resolver resolver, String address) {
+        InetAddress inetAddress = InetAddressRange.parse(address).getFirst();
+        return resolver.resolve(inetAddress).join().hostNameOr(inetAddress);
+    }
+
+    /** Answers SOA queries as the authoritative server of the zone and the refused zone */
+    private static StubDnsServer.Reply soa(DnsMessage query) {
+        for (String zone : Arrays.asList(ZONE, REFUSED_ZONE)) {
+            if (query.questionName.equals(zone) || query.questionName.endsWith("." + zone)) {
+                return new StubDnsServer.Reply(DnsMessage.RCODE_NOERROR)
+                        .authority(zone, DnsMessage.TYPE_SOA, 3600, "ns." + zone);
+            }
+        }
+        return StubDnsServer.Reply.nxdomain();
+    }
+
+    /** Messages of the transfer of the zone, or null to refuse it */
+    private static List<StubDnsServer.Reply> transfer(String zone) {
+        if (!zone.equals(ZONE)) {
+            return null;
+        }
+
+        return Arrays.asList(
+                new StubDnsServer.Reply(DnsMessage.RCODE_NOERROR)
+                        .answer(ZONE, DnsMessage.TYPE_SOA, 3600, "ns." + ZONE)
+                        .answer(ZONE, DnsMessage.TYPE_NS, 3600, "ns." + ZONE)
+                        .answer("5.2.1.10.in-addr.arpa", DnsMessage.TYPE_PTR, 600, "host-a.example.com"),
+                new StubDnsServer.Reply(DnsMessage.RCODE_NOERROR)
+                        .answer("7.3.1.10.in-addr.arpa", DnsMessage.TYPE_PTR, 600, "host-b.example.com")
+                        .answer("4.1.10.in-addr.arpa", DnsMessage.TYPE_NS, 3600, "ns.example.net")
+                        .answer("9.2.1.10.in-addr.arpa", DnsMessage.TYPE_CNAME, 3600, "9.8/29.2.1.10.in-addr.arpa"),
+                new StubDnsServer.Reply(DnsMessage.RCODE_NOERROR)
+                        .answer("1.200.1.10.in-addr.arpa", DnsMessage.TYPE_PTR, 600, "outside.example.com")
+                        .answer(ZONE, DnsMessage.TYPE_SOA, 3600, "ns." + ZONE));
+    }
+
+    /** Authoritative server on localhost that transfers zones over TCP, for testing */
+    private static class StubAxfrServer implements Closeable {
+        private final ServerSocket serverSocket;
+        private final Function<String, List<StubDnsServer.Reply>> zones;
+
+        StubAxfrServer(Function<String, List<StubDnsServer.Reply>> zones) throws IOException {
+            this.serverSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+            this.zones = zones;
+
+            Thread thread = new Thread(this::run, "stub-axfr-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        InetSocketAddress getAddress() {
+            return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+
+        private void run() {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+                    byte[] bytes = new byte[in.readUnsignedShort()];
+                    in.readFully(bytes);
+                    DnsMessage query = DnsMessage.parse(ByteBuffer.wrap(bytes));
+
+                    List<StubDnsServer.Reply> replies = zones.apply(query.questionName);
+                    if (replies == null) {
+                        replies = Collections.singletonList(new StubDnsServer.Reply(DnsMessage.RCODE_REFUSED));
+                    }
+
+                    for (StubDnsServer.Reply reply : replies) {
+                        ByteBuffer buffer = ByteBuffer.allocate(65535);
+                        reply.encode(buffer, query.id, query.questionName, query.questionType);
+                        out.writeShort(buffer.position());
+                        out.write(buffer.array(), 0, buffer.position());
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+    }
+}